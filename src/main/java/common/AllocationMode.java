@@ -0,0 +1,13 @@
+package common;
+
+
+public enum AllocationMode {
+    /**
+     * Files are extended to their final size without writing data, blocks are allocated as pieces arrive.
+     */
+    SPARSE,
+    /**
+     * Files are filled with zeros up front, so the file system can lay them out contiguously.
+     */
+    PREALLOCATE
+}
@@ -7,7 +7,8 @@ public enum TorrentState {
     STOPPED(2),
     DOWNLOADING(4),
     SEEDING(8),
-    FINISHED(16);
+    FINISHED(16),
+    CHECKING(32);
 
     private final int value;
 
@@ -2,26 +2,42 @@ package core;
 
 import core.bencode.TorrentFile;
 import core.network.Peer;
-import piece.TasksContext;
+import network.BufferPool;
+import network.ConnectionOwner;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.BitSet;
-import java.util.Set;
+import java.util.Deque;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PeerConnection {
 
     private static final int PIECE_SIZE = 16 * 1024;// 16 KB
+    private static final int MAX_GATHER = 64;
 
     private final Peer peer;
-    private final TasksContext tasks;
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    private final Deque<ByteBuffer> writing = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private final AtomicInteger pendingMessages = new AtomicInteger(0);
+    private final AtomicBoolean writeRequested = new AtomicBoolean(false);
+    private final RequestWindow requestWindow = new RequestWindow();
     private final TorrentFile torrentFile;
     private final SocketChannel channel;
-    private final ByteBuffer readBuffer = ByteBuffer.allocate(PIECE_SIZE * 2);
+    private ByteBuffer readBuffer = BufferPool.shared()
+            .lease(BufferPool.SizeClass.READ);
+    private volatile boolean closed;
     private LocalDateTime lastPieceReceived;
     private LocalDateTime lastPieceSent;
+    private volatile ConnectionOwner owner;
 
     private BitSet bitField;
 
@@ -34,7 +50,6 @@ public class PeerConnection {
         this.peer = peer;
         this.torrentFile = torrentFile;
         this.channel = channel;
-        this.tasks = new TasksContext(new ConcurrentLinkedQueue<>(), new ConcurrentLinkedQueue<>());
         this.bitField = new BitSet(torrentFile.getInfo()
                                            .getPiecesStorage()
                                            .size());
@@ -45,6 +60,17 @@ public class PeerConnection {
         return readBuffer;
     }
 
+    /**
+     * @return engine part owning the connection, null until it is registered and after it was closed
+     */
+    public ConnectionOwner getOwner() {
+        return owner;
+    }
+
+    public void setOwner(ConnectionOwner owner) {
+        this.owner = owner;
+    }
+
     public SocketChannel getChannel() {
         return channel;
     }
@@ -53,8 +79,112 @@ public class PeerConnection {
         return torrentFile;
     }
 
-    public TasksContext getTasks() {
-        return tasks;
+    /**
+     * Queues a message that is ready to be written, positioned at its first byte. May be called from any thread,
+     * the owner of the connection is asked to write it.
+     */
+    public void send(ByteBuffer message) {
+        if (closed) {
+            BufferPool.shared()
+                    .release(message);
+            return;
+        }
+        pendingMessages.incrementAndGet();
+        outbound.add(message);
+        if (closed) {
+            // closed in between, the owner may have drained the queue before the message was added
+            releaseOutbound();
+            return;
+        }
+
+        ConnectionOwner current = owner;
+        if (current != null && writeRequested.compareAndSet(false, true)) {
+            current.requestWrite(this);
+        }
+    }
+
+    /**
+     * Writes as much of the queued messages as the socket takes, with one gathering write per batch.
+     * Partially written messages are kept and continued on the next call. Called by the owner only.
+     *
+     * @return true if nothing is left to write
+     */
+    public boolean flush() throws IOException {
+        writeRequested.set(false);
+
+        while (true) {
+            ByteBuffer next;
+            while (writing.size() < MAX_GATHER && (next = outbound.poll()) != null) {
+                writing.add(next);
+            }
+            if (writing.isEmpty()) {
+                return true;
+            }
+
+            int count = 0;
+            for (ByteBuffer buffer : writing) {
+                gather[count++] = buffer;
+            }
+            channel.write(gather, 0, count);
+
+            while (!writing.isEmpty() && !writing.peekFirst()
+                    .hasRemaining()) {
+                BufferPool.shared()
+                        .release(writing.pollFirst());
+                pendingMessages.decrementAndGet();
+            }
+            Arrays.fill(gather, 0, count, null);
+
+            if (!writing.isEmpty()) {
+                // socket buffer is full, wait for OP_WRITE
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Returns the read buffer and every unsent message to the pool. Called by the owner once the channel is closed
+     * and no thread reads into the buffer anymore.
+     */
+    public void releaseBuffers() {
+        closed = true;
+        BufferPool pool = BufferPool.shared();
+
+        ByteBuffer buffer;
+        while ((buffer = writing.pollFirst()) != null) {
+            pool.release(buffer);
+        }
+        releaseOutbound();
+        pendingMessages.set(0);
+
+        if (readBuffer != null) {
+            pool.release(readBuffer);
+            readBuffer = null;
+        }
+    }
+
+    /**
+     * Releases every queued message. Safe to run concurrently with {@link #releaseBuffers()}, every message is
+     * polled from the queue by one thread only. A sender that queued a message after the close was published
+     * drains it itself, otherwise the drain of the owner sees it.
+     */
+    private void releaseOutbound() {
+        ByteBuffer buffer;
+        while ((buffer = outbound.poll()) != null) {
+            BufferPool.shared()
+                    .release(buffer);
+        }
+    }
+
+    public boolean hasPendingWrites() {
+        return pendingMessages.get() > 0;
+    }
+
+    /**
+     * @return number of queued messages that were not completely written yet
+     */
+    public int getPendingMessages() {
+        return pendingMessages.get();
     }
 
     public BitSet getBitField() {
@@ -70,6 +200,13 @@ public class PeerConnection {
     }
 
 
+    /**
+     * @return pipeline of block requests sent to this peer, sized from its measured bandwidth and round trip time
+     */
+    public RequestWindow getRequestWindow() {
+        return requestWindow;
+    }
+
     public void updateLastPieceReceived() {
         lastPieceReceived = LocalDateTime.now();
     }
@@ -0,0 +1,166 @@
+package core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Per peer request pipeline. Tracks outstanding block requests, estimates round trip time and throughput
+ * and sizes the window of outstanding requests from their product, the amount of data that has to be in
+ * flight to keep the link busy. A window limited peer delivers about a window per round trip, so the
+ * headroom added on every resize keeps probing for more until the peer itself becomes the limit.
+ */
+public class RequestWindow {
+
+    static final int BLOCK_SIZE = 16 * 1024;
+    static final int MIN_WINDOW = 2;
+    static final int MAX_WINDOW = 256;
+    private static final int INITIAL_WINDOW = 4;
+    private static final int HEADROOM = 2;
+    private static final long SAMPLE_NANOS = 1_000_000_000L;
+    private static final long MIN_RTT_LIFETIME_NANOS = 10_000_000_000L;
+    private static final long REQUEST_TIMEOUT_NANOS = 30_000_000_000L;
+    private static final double RTT_GAIN = 0.125;
+    private static final double THROUGHPUT_GAIN = 0.5;
+
+    // send time of every outstanding request by block, oldest first
+    private final Map<Long, Long> sent = new LinkedHashMap<>();
+    private final LongSupplier clock;
+
+    private int window = INITIAL_WINDOW;
+    private double rttNanos;
+    private long minRttNanos;
+    private long minRttStamp;
+    private double throughput;
+    private long sampleStart;
+    private long sampleBytes;
+    private boolean refillRequested;
+
+    public RequestWindow() {
+        this(System::nanoTime);
+    }
+
+    /**
+     * @param clock nanosecond time source, {@link System#nanoTime()} outside of tests
+     */
+    RequestWindow(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    public synchronized boolean hasRoom() {
+        expire(clock.getAsLong());
+        return sent.size() < window;
+    }
+
+    public synchronized void onRequestSent(int pieceIndex, int begin) {
+        long key = key(pieceIndex, begin);
+        // a block requested again moves to the back, expiry relies on the oldest request coming first
+        sent.remove(key);
+        sent.put(key, clock.getAsLong());
+        refillRequested = false;
+    }
+
+    /**
+     * Records a received block. Only a block that is still outstanding yields a round trip sample, one that
+     * expired or was cancelled just adds to the throughput.
+     *
+     * @return true if the pipeline drained far enough that new requests should be queued
+     */
+    public synchronized boolean onBlockReceived(int pieceIndex, int begin, int bytes) {
+        long now = clock.getAsLong();
+        Long requested = sent.remove(key(pieceIndex, begin));
+        if (requested != null) {
+            long sample = now - requested;
+            rttNanos = rttNanos == 0 ? sample : rttNanos + RTT_GAIN * (sample - rttNanos);
+            // samples include the time spent queued behind earlier requests, the minimum is closest to the link
+            if (minRttNanos == 0 || sample < minRttNanos || now - minRttStamp > MIN_RTT_LIFETIME_NANOS) {
+                minRttNanos = sample;
+                minRttStamp = now;
+            }
+        }
+
+        if (sampleStart == 0) {
+            sampleStart = now;
+        }
+        sampleBytes += bytes;
+        long elapsed = now - sampleStart;
+        if (elapsed >= SAMPLE_NANOS) {
+            double rate = sampleBytes * 1_000_000_000.0 / elapsed;
+            throughput = throughput == 0 ? rate : throughput + THROUGHPUT_GAIN * (rate - throughput);
+            sampleStart = now;
+            sampleBytes = 0;
+            resize();
+        }
+
+        if (!refillRequested && sent.size() <= window / 2) {
+            refillRequested = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Forgets a request that was cancelled, it no longer takes up room in the window.
+     */
+    public synchronized void onCancelled(int pieceIndex, int begin) {
+        sent.remove(key(pieceIndex, begin));
+    }
+
+    /**
+     * Peers drop every pending request when they choke us.
+     */
+    public synchronized void onChoked() {
+        sent.clear();
+        refillRequested = false;
+    }
+
+    private void resize() {
+        double bandwidthDelay = throughput * minRttNanos / 1_000_000_000.0;
+        int blocks = (int) Math.ceil(bandwidthDelay / BLOCK_SIZE) + HEADROOM;
+        window = Math.max(MIN_WINDOW, Math.min(MAX_WINDOW, blocks));
+    }
+
+    private void expire(long now) {
+        Iterator<Long> iterator = sent.values()
+                .iterator();
+        while (iterator.hasNext() && now - iterator.next() > REQUEST_TIMEOUT_NANOS) {
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return key identifying the block at the offset of the piece
+     */
+    public static long key(int pieceIndex, int begin) {
+        return (long) pieceIndex << 32 | (begin & 0xFFFFFFFFL);
+    }
+
+    public synchronized int getWindow() {
+        return window;
+    }
+
+    public synchronized int getOutstanding() {
+        return sent.size();
+    }
+
+    /**
+     * @return smoothed round trip time of a block request in milliseconds
+     */
+    public synchronized double getRttMillis() {
+        return rttNanos / 1_000_000.0;
+    }
+
+    /**
+     * @return smoothed download rate from the peer in bytes per second
+     */
+    public synchronized double getThroughput() {
+        return throughput;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("RequestWindow[window=%d, outstanding=%d, rtt=%.1fms, throughput=%.0fB/s]", window,
+                             sent.size(), getRttMillis(), throughput);
+    }
+}
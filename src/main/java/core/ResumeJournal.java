@@ -0,0 +1,123 @@
+package core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of completed pieces that complements the bencoded resume snapshot.
+ * Every record is a piece index followed by its CRC32, so a record torn by a crash is detected on replay
+ * and everything from it onwards is discarded.
+ */
+public class ResumeJournal implements AutoCloseable {
+
+    static final int RECORD_SIZE = Integer.BYTES * 2;
+
+    private final Path path;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    private FileChannel channel;
+    private int records;
+
+    public ResumeJournal(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Sets the bit of every intact record in the bitfield and cuts off a torn tail, if there is one.
+     *
+     * @return number of records replayed
+     */
+    public synchronized int replay(BitSet bitField) throws IOException {
+        FileChannel fileChannel = channel();
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(fileChannel.size(), Integer.MAX_VALUE));
+        while (buffer.hasRemaining() && fileChannel.read(buffer, buffer.position()) >= 0) {
+            // read until the buffer is full or the end of the journal is reached
+        }
+        buffer.flip();
+
+        int replayed = 0;
+        while (buffer.remaining() >= RECORD_SIZE) {
+            int pieceIndex = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (pieceIndex < 0 || checksum != checksum(pieceIndex)) {
+                break;
+            }
+            bitField.set(pieceIndex);
+            replayed++;
+        }
+
+        long valid = (long) replayed * RECORD_SIZE;
+        if (valid < fileChannel.size()) {
+            fileChannel.truncate(valid);
+            fileChannel.force(false);
+        }
+        records = replayed;
+        return replayed;
+    }
+
+    /**
+     * Appends a record for every piece and forces them to disk together before returning.
+     */
+    public synchronized void append(int... pieceIndices) throws IOException {
+        FileChannel fileChannel = channel();
+        ByteBuffer buffer = pieceIndices.length == 1 ? record : ByteBuffer.allocate(pieceIndices.length * RECORD_SIZE);
+        buffer.clear();
+        for (int pieceIndex : pieceIndices) {
+            buffer.putInt(pieceIndex)
+                    .putInt(checksum(pieceIndex));
+        }
+        buffer.flip();
+
+        long position = (long) records * RECORD_SIZE;
+        while (buffer.hasRemaining()) {
+            position += fileChannel.write(buffer, position);
+        }
+        fileChannel.force(false);
+        records += pieceIndices.length;
+    }
+
+    /**
+     * Drops all records, called once their pieces are contained in a durable snapshot.
+     */
+    public synchronized void truncate() throws IOException {
+        FileChannel fileChannel = channel();
+        fileChannel.truncate(0);
+        fileChannel.force(false);
+        records = 0;
+    }
+
+    public synchronized int getRecords() {
+        return records;
+    }
+
+    private int checksum(int pieceIndex) {
+        crc.reset();
+        crc.update(pieceIndex >>> 24);
+        crc.update(pieceIndex >>> 16);
+        crc.update(pieceIndex >>> 8);
+        crc.update(pieceIndex);
+        return (int) crc.getValue();
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            records = (int) (channel.size() / RECORD_SIZE);
+        }
+        return channel;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
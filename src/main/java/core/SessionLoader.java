@@ -13,6 +13,8 @@ import java.util.stream.Collectors;
 
 public class SessionLoader {
 
+    private final Set<TorrentFile> missingResume = new HashSet<>();
+
     public List<TorrentFile> onLoad() {
 
         File file = new File(GlobalConfig.APP_DATA);
@@ -30,16 +32,21 @@ public class SessionLoader {
             try (Bencoder bencoder = new Bencoder(new BufferedInputStream(new FileInputStream(value)))) {
                 BencodeDictionary decode = bencoder.decode();
                 TorrentFile torrentFile = new TorrentFile(decode);
+                TorrentMetadata metadata = torrentFile.getMetaData();
                 File resumeFile = resumeFiles.get(key);
                 if (resumeFile != null) {
                     try (Bencoder decoder = new Bencoder(new BufferedInputStream(new FileInputStream(resumeFile)))) {
                         BencodeDictionary decode1 = decoder.decode();
-                        TorrentMetadata metadata = TorrentMetadata.of(decode1, torrentFile);
-                        torrentFile.setMetaData(metadata);
+                        metadata = TorrentMetadata.of(decode1, torrentFile);
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
                 }
+                int replayed = metadata.replayJournal();
+                torrentFile.setMetaData(metadata);
+                if (resumeFile == null && replayed == 0) {
+                    missingResume.add(torrentFile);
+                }
                 torrents.add(torrentFile);
             } catch (Exception e) {
                 e.printStackTrace();
@@ -48,6 +55,12 @@ public class SessionLoader {
         return torrents;
     }
 
+    /**
+     * @return true if the torrent was loaded without fast resume data, so its bitfield says nothing about the disk
+     */
+    public boolean isMissingResume(TorrentFile torrentFile) {
+        return missingResume.contains(torrentFile);
+    }
 
 }
 
@@ -10,8 +10,11 @@ import util.UserConfig;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
@@ -27,13 +30,21 @@ public final class TorrentMetadata {
     private final String infoHash;
     private final int threshold;
     private final Lock lock = new ReentrantLock();
-    private final AtomicInteger updateCounter = new AtomicInteger(0);
     private final TorrentFile torrentFile;
+    private final ResumeJournal journal;
+    private final Path appData;
 
     private TorrentState state;
     private String downloadPath;
 
     public TorrentMetadata(TorrentFile torrentFile) {
+        this(torrentFile, Paths.get(GlobalConfig.APP_DATA));
+    }
+
+    /**
+     * @param appData directory the resume snapshot and the journal are kept in
+     */
+    public TorrentMetadata(TorrentFile torrentFile, Path appData) {
         this.infoHash = torrentFile.getInfoHash();
         this.torrentFile = torrentFile;
         int numOfPieces = torrentFile.getInfo()
@@ -43,6 +54,8 @@ public final class TorrentMetadata {
         this.state = TorrentState.DOWNLOADING;
         this.threshold = calculateThreshold();
         this.downloadPath = UserConfig.DOWNLOAD_DIR;
+        this.appData = appData;
+        this.journal = new ResumeJournal(appData.resolve(infoHash + GlobalConfig.JOURNAL_SUFFIX));
     }
 
     private TorrentMetadata(String infoHash, BitSet bitfield, TorrentState state, String downloadPath, TorrentFile torrentFile) {
@@ -52,6 +65,8 @@ public final class TorrentMetadata {
         this.downloadPath = downloadPath;
         this.torrentFile = torrentFile;
         this.threshold = calculateThreshold();
+        this.appData = Paths.get(GlobalConfig.APP_DATA);
+        this.journal = new ResumeJournal(appData.resolve(infoHash + GlobalConfig.JOURNAL_SUFFIX));
     }
 
     public static TorrentMetadata of(BencodeDictionary dictionary, TorrentFile torrentFile) {
@@ -90,7 +105,7 @@ public final class TorrentMetadata {
 
     public void setState(TorrentState state) {
         this.state = state;
-        sync(0, true);
+        sync();
     }
 
     public String getDownloadPath() {
@@ -99,44 +114,93 @@ public final class TorrentMetadata {
 
     public void setDownloadPath(String downloadPath) {
         this.downloadPath = downloadPath;
-        sync(0, true);
+        sync();
     }
 
     public BitSet getBitField() {
         return this.bitField;
     }
 
-    public void updateBitField(int pieceIndex) {
-        int updateCount = updateCounter.addAndGet(1);
-        bitField.set(pieceIndex);
+    /**
+     * Marks the pieces as downloaded and appends them to the journal in one forced write, so a crash loses at most
+     * the pieces being written. The journal is compacted into the resume snapshot once it holds more than a tenth of
+     * the pieces.
+     */
+    public void updateBitField(int... pieceIndices) {
+        try {
+            lock.lock();
+            for (int pieceIndex : pieceIndices) {
+                bitField.set(pieceIndex);
+            }
+            journal.append(pieceIndices);
 
-        if (updateCount > threshold) {
-            sync(updateCount, false);
+            if (journal.getRecords() > threshold) {
+                sync();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            sync();
+        } finally {
+            lock.unlock();
         }
     }
 
-    public void sync(int updateCount, boolean force) {
+    /**
+     * Replays the pieces recorded in the journal since the last snapshot into the bitfield.
+     *
+     * @return number of replayed pieces
+     */
+    public int replayJournal() {
         try {
             lock.lock();
+            return journal.replay(bitField);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            int totalUpdates = updateCounter.get();
-            File file = new File(GlobalConfig.APP_DATA, infoHash + GlobalConfig.RESUME_SUFFIX);
-            if (totalUpdates > threshold || force) {
-                try (FileOutputStream os = new FileOutputStream(file)) {
-
-                    BencodeDictionary bencodeDictionary = new BencodeDictionary(snapshot());
-                    byte[] bytes = bencodeDictionary.encode();
-                    os.write(bytes);
-
-                    if (updateCounter.get() - updateCount > 0) {
-                        updateCounter.set(updateCounter.get() - updateCount);
-                    }
+    /**
+     * Merges the result of a recheck into the bitfield and persists it right away. Pieces found on disk are
+     * added, pieces whose data turned out to be bad are removed and every other piece keeps its current bit.
+     */
+    public void mergeBitField(BitSet found, BitSet bad) {
+        try {
+            lock.lock();
+            bitField.or(found);
+            bitField.andNot(bad);
+            sync();
+        } finally {
+            lock.unlock();
+        }
+    }
 
-                } catch (IOException e) {
-                    e.printStackTrace();
+    /**
+     * Writes the snapshot to a temporary file and moves it over the resume file, so a crash leaves either the old
+     * or the new snapshot behind. The journal is cleared only after the snapshot is durable.
+     */
+    public void sync() {
+        try {
+            lock.lock();
 
-                }
+            File file = appData.resolve(infoHash + GlobalConfig.RESUME_SUFFIX)
+                    .toFile();
+            File tmp = appData.resolve(infoHash + GlobalConfig.RESUME_SUFFIX + ".tmp")
+                    .toFile();
+            try (FileOutputStream os = new FileOutputStream(tmp)) {
+
+                BencodeDictionary bencodeDictionary = new BencodeDictionary(snapshot());
+                byte[] bytes = bencodeDictionary.encode();
+                os.write(bytes);
+                os.getFD()
+                        .sync();
             }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            journal.truncate();
+        } catch (IOException e) {
+            e.printStackTrace();
         } catch (Exception e) {
             throw new RuntimeException(e);
         } finally {
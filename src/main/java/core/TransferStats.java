@@ -0,0 +1,28 @@
+package core;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Payload bytes a torrent moved in this session, reported to its trackers on every announce.
+ */
+public final class TransferStats {
+
+    private final LongAdder downloaded = new LongAdder();
+    private final LongAdder uploaded = new LongAdder();
+
+    public void addDownloaded(long bytes) {
+        downloaded.add(bytes);
+    }
+
+    public void addUploaded(long bytes) {
+        uploaded.add(bytes);
+    }
+
+    public long getDownloaded() {
+        return downloaded.sum();
+    }
+
+    public long getUploaded() {
+        return uploaded.sum();
+    }
+}
@@ -38,8 +38,9 @@ public class BencodeString extends BencodeElement<String> {
             int length = Integer.parseInt(sb.toString());
             if (length == 0) return new BencodeString("", new byte[0]);
 
-            byte[] buffer = new byte[length];
-            int bytesRead = in.read(buffer);
+            // a single read may return less than the whole string when the stream is backed by a socket
+            byte[] buffer = in.readNBytes(length);
+            int bytesRead = buffer.length > 0 ? buffer.length : -1;
 
             if (bytesRead != length) {
                 throw new BencodeParseException(String.format("Expected %d bytes, got %d", length, bytesRead));
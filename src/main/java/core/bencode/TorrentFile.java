@@ -2,10 +2,16 @@ package core.bencode;
 
 import common.TorrentState;
 import core.TorrentMetadata;
+import core.TransferStats;
+import storage.FileSpanIndex;
+import storage.MappedFileStorage;
 import storage.PieceStorage;
 import util.GlobalConfig;
+import util.UserConfig;
 
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
@@ -29,9 +35,19 @@ public class TorrentFile extends BencodeDictionary {
     private final String createdBy;
     private final String encoding;
     private final Info info;
+    private final MappedFileStorage storage;
+    private final TransferStats stats;
     private TorrentMetadata metaData;
 
     public TorrentFile(BencodeDictionary dictionary) {
+        this(dictionary, Paths.get(UserConfig.DOWNLOAD_DIR, "jbitd"), Paths.get(GlobalConfig.APP_DATA));
+    }
+
+    /**
+     * @param downloadDir directory the payload is stored in
+     * @param appData directory the internal copy of the torrent and its resume data are kept in
+     */
+    TorrentFile(BencodeDictionary dictionary, Path downloadDir, Path appData) {
         super(dictionary.getValue());
         this.dictionary = dictionary;
 
@@ -50,8 +66,11 @@ public class TorrentFile extends BencodeDictionary {
         this.createdBy = dictionary.getAsString(CREATED_BY);
         this.encoding = dictionary.getAsString(ENCODING);
         this.info = new Info((BencodeDictionary) dictionary.get(INFO));
-        this.metaData = new TorrentMetadata(this);
-        createInternalCopy();
+        this.storage = new MappedFileStorage(info, downloadDir);
+        this.info.getPiecesStorage().forEach(pieceStorage -> pieceStorage.setStorage(storage));
+        this.metaData = new TorrentMetadata(this, appData);
+        this.stats = new TransferStats();
+        createInternalCopy(appData);
     }
 
     public void setMetaData(TorrentMetadata metaData) {
@@ -64,9 +83,9 @@ public class TorrentFile extends BencodeDictionary {
     }
 
 
-    private void createInternalCopy() {
-        String fileName = GlobalConfig.APP_DATA + File.separator + this.getInfoHash() + GlobalConfig.TORRENT_SUFFIX;
-        File file = new File(fileName);
+    private void createInternalCopy(Path appData) {
+        File file = appData.resolve(this.getInfoHash() + GlobalConfig.TORRENT_SUFFIX)
+                .toFile();
 
         if (file.exists()) {
             return;
@@ -84,6 +103,10 @@ public class TorrentFile extends BencodeDictionary {
         return info;
     }
 
+    public MappedFileStorage getStorage() {
+        return storage;
+    }
+
     public String getAnnounce() {
         return announce;
     }
@@ -121,6 +144,23 @@ public class TorrentFile extends BencodeDictionary {
         return metaData.getDownloadedPieces();
     }
 
+    public TransferStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return bytes of the payload that are not verified yet
+     */
+    public long getBytesLeft() {
+        long left = info.getTotalLength();
+        for (PieceStorage piece : info.getPiecesStorage()) {
+            if (piece.isVerified()) {
+                left -= piece.getLength();
+            }
+        }
+        return left;
+    }
+
     public TorrentMetadata getMetaData(){
         return metaData;
     }
@@ -145,6 +185,7 @@ public class TorrentFile extends BencodeDictionary {
         private final List<Files> files;
         private final List<PieceStorage> piecesStorage;
         private final long totalLength;
+        private final FileSpanIndex spanIndex;
 
 
         public Info(BencodeDictionary info) {
@@ -163,6 +204,9 @@ public class TorrentFile extends BencodeDictionary {
                     .sum() : info.get("length", long.class);
 
             this.pieceLength = info.get(PIECE_LENGTH, Long.class);
+            this.spanIndex = new FileSpanIndex(this.files != null ? this.files.stream()
+                    .mapToLong(Files::getLength)
+                    .toArray() : new long[]{totalLength}, pieceLength);
             this.pieces = info.get(PIECES, String.class);
             this.piecesStorage = processPieces((BencodeString) info.get(PIECES));
 
@@ -205,6 +249,17 @@ public class TorrentFile extends BencodeDictionary {
             return pieceLength;
         }
 
+        public long getTotalLength() {
+            return totalLength;
+        }
+
+        /**
+         * @return index mapping pieces and payload ranges to the files they are stored in
+         */
+        public FileSpanIndex getSpanIndex() {
+            return spanIndex;
+        }
+
         public String getPieces() {
             return pieces;
         }
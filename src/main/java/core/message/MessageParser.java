@@ -2,18 +2,46 @@ package core.message;
 
 import java.nio.ByteBuffer;
 
+/**
+ * Decodes frames into a single reused {@link MessageView}, no objects are allocated per message.
+ * A parser is not thread safe, every thread handling messages owns one.
+ */
 public class MessageParser {
 
-
-    public Message parseMessage(byte[] message) {
-        ByteBuffer buffer = ByteBuffer.wrap(message);
-        int lengthPrefix = buffer.getInt();
-        byte id = buffer.get();
-        byte[] payload = new byte[lengthPrefix - 1];
-
-        return new Message(lengthPrefix, id, payload);
-
+    private final MessageView view = new MessageView();
+
+    /**
+     * Reads the frame with absolute gets, the position and limit of the buffer are left untouched.
+     *
+     * @param offset position of the length prefix in the buffer
+     * @return the reused view bound to the frame, null if the id is unknown
+     * @throws IllegalArgumentException if the frame is truncated or too short for its type
+     */
+    public MessageView parseMessage(ByteBuffer buffer, int offset) {
+        if (buffer.limit() - offset < 4) {
+            throw new IllegalArgumentException("Frame shorter than its length prefix");
+        }
+
+        int lengthPrefix = buffer.getInt(offset);
+        if (lengthPrefix < 0 || buffer.limit() - offset - 4 < lengthPrefix) {
+            throw new IllegalArgumentException(String.format("Invalid length prefix %d", lengthPrefix));
+        }
+
+        if (lengthPrefix == 0) {
+            view.wrap(buffer, offset, 0, MessageType.KEEP_ALIVE);
+            return view;
+        }
+
+        MessageType type = MessageType.getMessageType(buffer.get(offset + 4) & 0xFF);
+        if (type == null) {
+            return null;
+        }
+        if (lengthPrefix - 1 < type.getMinPayloadLength()) {
+            throw new IllegalArgumentException(String.format("%s payload of %d bytes is too short", type,
+                                                             lengthPrefix - 1));
+        }
+
+        view.wrap(buffer, offset, lengthPrefix, type);
+        return view;
     }
-
-
 }
@@ -1,30 +1,53 @@
 package core.message;
 
 public enum MessageType {
-    KEEP_ALIVE(-1),
-    CHOKE(0),
-    UNCHOKE(1),
-    INTERESTED(2),
-    NOT_INTERESTED(3),
-    HAVE(4),
-    BITFIELD(5),
-    REQUEST(6),
-    PIECE(7),
-    CANCEL(8);
-
-    private int massageId;
-
-    MessageType(int massageId) {
+    KEEP_ALIVE(-1, 0),
+    CHOKE(0, 0),
+    UNCHOKE(1, 0),
+    INTERESTED(2, 0),
+    NOT_INTERESTED(3, 0),
+    HAVE(4, 4),
+    BITFIELD(5, 0),
+    REQUEST(6, 12),
+    PIECE(7, 8),
+    CANCEL(8, 12);
+
+    private static final MessageType[] BY_ID = new MessageType[CANCEL.massageId + 1];
+
+    static {
+        for (MessageType messageType : values()) {
+            if (messageType.massageId >= 0) {
+                BY_ID[messageType.massageId] = messageType;
+            }
+        }
+    }
+
+    private final int massageId;
+    private final int minPayloadLength;
+
+    MessageType(int massageId, int minPayloadLength) {
         this.massageId = massageId;
+        this.minPayloadLength = minPayloadLength;
     }
 
+    /**
+     * @return message type with the given id, null for ids this client does not know
+     */
     public static MessageType getMessageType(int id) {
-        for (MessageType messageType : MessageType.values()) {
-            if (messageType.massageId == id) {
-                return messageType;
-            }
+        if (id < 0 || id >= BY_ID.length) {
+            return id == KEEP_ALIVE.massageId ? KEEP_ALIVE : null;
         }
-        return null;
+        return BY_ID[id];
+    }
 
+    public int getId() {
+        return massageId;
     }
+
+    /**
+     * @return smallest payload, without length prefix and id, a valid message of this type has
+     */
+    public int getMinPayloadLength() {
+        return minPayloadLength;
     }
+}
@@ -0,0 +1,106 @@
+package core.message;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * Read only flyweight over a single length prefixed frame, usually still in the connection read buffer. The view
+ * is rebound to the next frame by {@link MessageParser}, so it must not be kept after the message was handled.
+ */
+public final class MessageView {
+
+    private ByteBuffer frame;
+    private int offset;
+    private int length;
+    private MessageType type;
+
+    MessageView() {
+    }
+
+    void wrap(ByteBuffer frame, int offset, int length, MessageType type) {
+        this.frame = frame;
+        this.offset = offset;
+        this.length = length;
+        this.type = type;
+    }
+
+    public MessageType getType() {
+        return type;
+    }
+
+    /**
+     * @return value of the length prefix, id included
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public int getPayloadLength() {
+        return type == MessageType.KEEP_ALIVE ? 0 : length - 1;
+    }
+
+    /**
+     * @return offset of the payload in the frame buffer
+     */
+    public int getPayloadOffset() {
+        return offset + 5;
+    }
+
+    /**
+     * @return buffer holding the frame, read it with absolute gets only
+     */
+    public ByteBuffer buffer() {
+        return frame;
+    }
+
+    /**
+     * @return big endian int at the given position of the payload
+     */
+    public int getInt(int payloadPosition) {
+        return frame.getInt(getPayloadOffset() + payloadPosition);
+    }
+
+    /**
+     * @return piece index of a HAVE, REQUEST, CANCEL or PIECE message
+     */
+    public int getPieceIndex() {
+        return getInt(0);
+    }
+
+    /**
+     * @return block offset of a REQUEST, CANCEL or PIECE message
+     */
+    public int getBegin() {
+        return getInt(4);
+    }
+
+    /**
+     * @return requested block length of a REQUEST or CANCEL message
+     */
+    public int getBlockLength() {
+        return getInt(8);
+    }
+
+    /**
+     * @return whether the BITFIELD payload has the bit of the piece set, high bit of the first byte is piece 0
+     */
+    public boolean hasPiece(int pieceIndex) {
+        int byteIndex = pieceIndex >>> 3;
+        if (byteIndex >= getPayloadLength()) {
+            return false;
+        }
+        return (frame.get(getPayloadOffset() + byteIndex) & (0x80 >>> (pieceIndex & 7))) != 0;
+    }
+
+    /**
+     * Copies the set bits of a BITFIELD payload, for pieces below the given count, into the bit set.
+     */
+    public void copyBitField(BitSet bitSet, int pieces) {
+        int limit = Math.min(pieces, getPayloadLength() * 8);
+        for (int pieceIndex = 0; pieceIndex < limit; pieceIndex++) {
+            if (hasPiece(pieceIndex)) {
+                bitSet.set(pieceIndex);
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package core.network;
+
+/**
+ * Lifecycle event sent with an announce, with its HTTP query value and its UDP protocol id.
+ */
+public enum AnnounceEvent {
+
+    NONE(null, 0),
+    COMPLETED("completed", 1),
+    STARTED("started", 2),
+    STOPPED("stopped", 3);
+
+    private final String value;
+    private final int id;
+
+    AnnounceEvent(String value, int id) {
+        this.value = value;
+        this.id = id;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public int getId() {
+        return id;
+    }
+}
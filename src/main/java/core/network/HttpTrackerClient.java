@@ -1,13 +1,24 @@
 package core.network;
 
+import core.bencode.BencodeDictionary;
+import core.bencode.BencodeElement;
+import core.bencode.Bencoder;
+
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class HttpTrackerClient implements TrackerClient {
 
@@ -16,56 +27,154 @@ public class HttpTrackerClient implements TrackerClient {
     public HttpTrackerClient() {
         this.client = HttpClient.newBuilder()
                 .version(HttpClient.Version.HTTP_1_1)
-                .connectTimeout(Duration.ofSeconds(60))
+                .connectTimeout(Duration.ofSeconds(15))
                 .followRedirects(HttpClient.Redirect.ALWAYS)
                 .build();
     }
 
 
     @Override
-    public TrackerNetworkResponse announce(TrackerNetworkRequest request) {
+    public CompletableFuture<TrackerNetworkResponse> announce(TrackerNetworkRequest request, AnnounceEvent event,
+                                                              String url) {
         try {
 
             HttpRequest httpRequest = HttpRequest.newBuilder()
-                    .uri(URI.create(request.getURL()))
-                    .timeout(Duration.ofSeconds(30))
+                    .uri(URI.create(request.getURL(url, event)))
+                    .timeout(Duration.ofSeconds(20))
                     .header("Content-Type", "application/x-www-form-urlencoded")
                     .GET()
                     .build();
 
-            HttpResponse<InputStream> send = client.send(httpRequest, HttpResponse.BodyHandlers.ofInputStream());
+            return client.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofInputStream())
+                    .thenApply(response -> {
+                        if (response.statusCode() != 200) {
+                            close(response.body());
+                            throw new IllegalStateException(String.format("Tracker %s responded with status %d", url,
+                                                                          response.statusCode()));
+                        }
+                        return TrackerNetworkResponse.of(new BufferedInputStream(response.body()));
+                    });
+
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private void close(InputStream body) {
+        try {
+            body.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-            return TrackerNetworkResponse.of(new BufferedInputStream(send.body()));
+    @Override
+    public CompletableFuture<List<ScrapeResult>> scrape(String url, List<byte[]> infoHashes) {
+        String scrapeUrl = scrapeUrl(url);
+        if (scrapeUrl == null) {
+            return CompletableFuture.failedFuture(
+                    new UnsupportedOperationException(String.format("Tracker %s does not support scrape", url)));
+        }
 
-        } catch (IOException | InterruptedException e) {
-            e.printStackTrace();
+        List<CompletableFuture<List<ScrapeResult>>> batches = new ArrayList<>();
+        for (int from = 0; from < infoHashes.size(); from += MAX_SCRAPE_BATCH) {
+            List<byte[]> batch = infoHashes.subList(from, Math.min(infoHashes.size(), from + MAX_SCRAPE_BATCH));
+            batches.add(scrapeBatch(scrapeUrl, batch));
         }
 
-        throw new RuntimeException("Failed to connect to tracker");
+        return CompletableFuture.allOf(batches.toArray(CompletableFuture[]::new))
+                .thenApply(ignored -> batches.stream()
+                        .flatMap(batch -> batch.join()
+                                .stream())
+                        .toList());
     }
 
-    private boolean sendAnnounceRequest(String url, TrackerNetworkRequest request) {
+    private CompletableFuture<List<ScrapeResult>> scrapeBatch(String scrapeUrl, List<byte[]> infoHashes) {
+        StringBuilder sb = new StringBuilder(scrapeUrl);
+        char separator = scrapeUrl.indexOf('?') >= 0 ? '&' : '?';
+        for (byte[] infoHash : infoHashes) {
+            sb.append(separator)
+                    .append("info_hash=");
+            UrlEncoder.encode(infoHash, sb);
+            separator = '&';
+        }
+
         try {
             HttpRequest httpRequest = HttpRequest.newBuilder()
-                    .uri(URI.create(request.getURL()))
-                    .timeout(Duration.ofSeconds(10))
-                    .header("Content-Type", "application/x-www-form-urlencoded")
+                    .uri(URI.create(sb.toString()))
+                    .timeout(Duration.ofSeconds(20))
                     .GET()
                     .build();
 
-            HttpResponse<String> response = client.send(httpRequest, HttpResponse.BodyHandlers.ofString());
-            System.out.println("Tracker Response: " + response.body());
-            return true;  // Successfully contacted tracker
+            return client.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofInputStream())
+                    .thenApply(response -> {
+                        if (response.statusCode() != 200) {
+                            close(response.body());
+                            throw new IllegalStateException(String.format("Tracker %s responded with status %d",
+                                                                          scrapeUrl, response.statusCode()));
+                        }
+                        return parseScrape(response.body(), infoHashes);
+                    });
+
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Derives the scrape url from the announce url, which is only possible when the last path segment
+     * starts with "announce".
+     *
+     * @return scrape url, or null if the tracker does not support scrape
+     */
+    static String scrapeUrl(String announceUrl) {
+        int query = announceUrl.indexOf('?');
+        int slash = announceUrl.lastIndexOf('/', query >= 0 ? query : announceUrl.length());
+        if (slash < 0 || !announceUrl.startsWith("announce", slash + 1)) {
+            return null;
+        }
+        return announceUrl.substring(0, slash + 1) + "scrape" + announceUrl.substring(slash + 1 + "announce".length());
+    }
+
+    /**
+     * The files dictionary of a scrape response is keyed by the raw 20 byte info hashes.
+     */
+    private static List<ScrapeResult> parseScrape(InputStream body, List<byte[]> infoHashes) {
+        try (Bencoder bencoder = new Bencoder(new BufferedInputStream(body))) {
+            BencodeDictionary response = bencoder.decode();
+            BencodeElement<?> failureReason = response.get("failure reason");
+            if (failureReason != null) {
+                throw new IllegalStateException((String) failureReason.getValue());
+            }
+
+            Map<ByteBuffer, ScrapeResult> files = new HashMap<>();
+            BencodeElement<?> filesElement = response.get("files");
+            if (filesElement instanceof BencodeDictionary filesDictionary) {
+                filesDictionary.getValue()
+                        .forEach((infoHash, stats) -> {
+                            if (stats instanceof BencodeDictionary dictionary) {
+                                files.put(ByteBuffer.wrap(infoHash.getBytes()),
+                                          new ScrapeResult(getInt(dictionary, "complete"),
+                                                           getInt(dictionary, "downloaded"),
+                                                           getInt(dictionary, "incomplete")));
+                            }
+                        });
+            }
+
+            List<ScrapeResult> results = new ArrayList<>(infoHashes.size());
+            infoHashes.forEach(infoHash -> results.add(files.get(ByteBuffer.wrap(infoHash))));
+            return results;
+
+        } catch (RuntimeException e) {
+            throw e;
         } catch (Exception e) {
-            System.err.println("Failed to connect to tracker: " + url);
-            e.printStackTrace();
-            return false;  // Tracker request failed
+            throw new IllegalStateException("Failed to read scrape response", e);
         }
     }
 
-    @Override
-    public void scrape() {
-        System.out.println("Scraping tracker via HTTP");
+    private static int getInt(BencodeDictionary dictionary, String key) {
+        BencodeElement<?> element = dictionary.get(key);
+        return element != null && element.getValue() instanceof Long value ? value.intValue() : 0;
     }
 
 
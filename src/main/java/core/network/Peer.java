@@ -1,17 +1,104 @@
 package core.network;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+/**
+ * Peer endpoint as returned by a tracker. Numeric addresses are kept as their 4 or 16 raw bytes and only
+ * formatted when printed, host names given by dictionary model peer lists are kept as they are.
+ */
 public class Peer {
 
-    private final String address;
+    private final byte[] address;
+    private final String host;
     private final int port;
 
-    public Peer(String address, int port) {
+    /**
+     * @param address raw IPv4 or IPv6 address in network byte order, not copied
+     */
+    public Peer(byte[] address, int port) {
+        if (address.length != 4 && address.length != 16) {
+            throw new IllegalArgumentException(String.format("Invalid address length %d", address.length));
+        }
         this.address = address;
+        this.host = null;
         this.port = port;
     }
 
+    public Peer(String address, int port) {
+        this.address = parseLiteral(address);
+        this.host = this.address == null ? address : null;
+        this.port = port;
+    }
+
+    /**
+     * @return raw bytes of a numeric IPv4 or IPv6 address, or null for a host name
+     */
+    private static byte[] parseLiteral(String address) {
+        if (address.indexOf(':') >= 0) {
+            try {
+                // literals are parsed without a lookup
+                return InetAddress.getByName(address)
+                        .getAddress();
+            } catch (UnknownHostException e) {
+                return null;
+            }
+        }
+
+        byte[] bytes = new byte[4];
+        int octet = 0;
+        int value = -1;
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) {
+                    return null;
+                }
+            } else if (c == '.' && value >= 0 && octet < 3) {
+                bytes[octet++] = (byte) value;
+                value = -1;
+            } else {
+                return null;
+            }
+        }
+        if (octet != 3 || value < 0) {
+            return null;
+        }
+        bytes[3] = (byte) value;
+        return bytes;
+    }
+
     public String getAddress() {
-        return address;
+        if (address == null) {
+            return host;
+        }
+        try {
+            return InetAddress.getByAddress(address)
+                    .getHostAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return socket address to connect to, resolved without a lookup unless the peer was given by host name
+     */
+    public InetSocketAddress toSocketAddress() {
+        if (address == null) {
+            return new InetSocketAddress(host, port);
+        }
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(address), port);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public boolean isIpv6() {
+        return address != null && address.length == 16;
     }
 
     public int getPort() {
@@ -20,17 +107,17 @@ public class Peer {
 
     @Override
     public String toString() {
-        return "Peer{" + "address='" + address + '\'' + ", port=" + port + '}';
+        return "Peer{" + "address='" + getAddress() + '\'' + ", port=" + port + '}';
     }
 
     @Override
     public boolean equals(Object obj) {
-        return obj instanceof Peer peer && peer.getAddress()
-                .equals(address) && peer.getPort() == port;
+        return obj instanceof Peer peer && peer.port == port && Arrays.equals(peer.address, address)
+                && (host == null ? peer.host == null : host.equals(peer.host));
     }
 
     @Override
     public int hashCode() {
-        return address.hashCode() + Integer.hashCode(port);
+        return 31 * (address != null ? Arrays.hashCode(address) : host.hashCode()) + Integer.hashCode(port);
     }
 }
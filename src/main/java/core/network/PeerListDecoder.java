@@ -0,0 +1,80 @@
+package core.network;
+
+import core.bencode.BencodeDictionary;
+import core.bencode.BencodeElement;
+import core.bencode.BencodeList;
+import core.bencode.BencodeString;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes the peer lists trackers return. Compact lists are a run of 6 byte (IPv4, {@code peers}) or 18 byte
+ * (IPv6, {@code peers6}) entries of address and port in network byte order, the dictionary model is a list of
+ * dictionaries with {@code ip} and {@code port} keys.
+ */
+public final class PeerListDecoder {
+
+    public static final int IPV4_LENGTH = 4;
+    public static final int IPV6_LENGTH = 16;
+
+    private PeerListDecoder() {
+    }
+
+    /**
+     * Decodes the value of a {@code peers} or {@code peers6} key of an HTTP announce response.
+     *
+     * @param addressLength address length of compact entries, 4 for {@code peers} and 16 for {@code peers6}
+     */
+    public static List<Peer> decode(BencodeElement<?> peers, int addressLength) {
+        if (peers instanceof BencodeString compact) {
+            byte[] bytes = compact.getBytes();
+            return decodeCompact(bytes, 0, bytes.length, addressLength);
+        }
+        if (peers instanceof BencodeList list) {
+            return decodeDictionaries(list);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Decodes compact entries in range [offset, offset + length), a trailing partial entry is ignored.
+     */
+    public static List<Peer> decodeCompact(byte[] bytes, int offset, int length, int addressLength) {
+        int entryLength = addressLength + 2;
+        int count = length / entryLength;
+        List<Peer> peers = new ArrayList<>(count);
+
+        int position = offset;
+        for (int i = 0; i < count; i++) {
+            byte[] address = new byte[addressLength];
+            System.arraycopy(bytes, position, address, 0, addressLength);
+            int port = (bytes[position + addressLength] & 0xFF) << 8 | bytes[position + addressLength + 1] & 0xFF;
+            position += entryLength;
+
+            if (port != 0) {
+                peers.add(new Peer(address, port));
+            }
+        }
+        return peers;
+    }
+
+    private static List<Peer> decodeDictionaries(BencodeList list) {
+        List<Peer> peers = new ArrayList<>(list.getValue()
+                                                   .size());
+
+        for (BencodeElement<?> element : list.getValue()) {
+            if (!(element instanceof BencodeDictionary dictionary)) {
+                continue;
+            }
+
+            BencodeElement<?> ip = dictionary.get("ip");
+            BencodeElement<?> port = dictionary.get("port");
+            if (ip instanceof BencodeString address && port != null && port.getValue() instanceof Long number
+                    && number > 0 && number <= 0xFFFF) {
+                peers.add(new Peer(address.getValue(), number.intValue()));
+            }
+        }
+        return peers;
+    }
+}
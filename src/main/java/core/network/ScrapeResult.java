@@ -0,0 +1,34 @@
+package core.network;
+
+/**
+ * Swarm statistics a tracker reported for one torrent in a scrape.
+ */
+public class ScrapeResult {
+
+    private final int seeders;
+    private final int completed;
+    private final int leechers;
+
+    public ScrapeResult(int seeders, int completed, int leechers) {
+        this.seeders = seeders;
+        this.completed = completed;
+        this.leechers = leechers;
+    }
+
+    public int getSeeders() {
+        return seeders;
+    }
+
+    public int getCompleted() {
+        return completed;
+    }
+
+    public int getLeechers() {
+        return leechers;
+    }
+
+    @Override
+    public String toString() {
+        return "ScrapeResult{" + "seeders=" + seeders + ", completed=" + completed + ", leechers=" + leechers + '}';
+    }
+}
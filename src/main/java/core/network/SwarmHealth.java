@@ -0,0 +1,59 @@
+package core.network;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latest scrape results of a torrent from each of its trackers. Trackers mostly see the same peers, so the
+ * view reports the largest count any tracker returned rather than a sum.
+ */
+public class SwarmHealth {
+
+    private final Map<String, ScrapeResult> results = new ConcurrentHashMap<>();
+    private volatile long updatedAt;
+
+    void update(String trackerUrl, ScrapeResult result) {
+        results.put(trackerUrl, result);
+        updatedAt = System.currentTimeMillis();
+    }
+
+    public int getSeeders() {
+        return results.values()
+                .stream()
+                .mapToInt(ScrapeResult::getSeeders)
+                .max()
+                .orElse(0);
+    }
+
+    public int getLeechers() {
+        return results.values()
+                .stream()
+                .mapToInt(ScrapeResult::getLeechers)
+                .max()
+                .orElse(0);
+    }
+
+    public int getCompleted() {
+        return results.values()
+                .stream()
+                .mapToInt(ScrapeResult::getCompleted)
+                .max()
+                .orElse(0);
+    }
+
+    public Map<String, ScrapeResult> getResults() {
+        return Map.copyOf(results);
+    }
+
+    /**
+     * @return epoch millis of the last scrape result, 0 if the torrent was never scraped
+     */
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "SwarmHealth{" + "seeders=" + getSeeders() + ", leechers=" + getLeechers() + ", completed=" + getCompleted() + '}';
+    }
+}
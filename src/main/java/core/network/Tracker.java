@@ -0,0 +1,126 @@
+package core.network;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Announce schedule, health and lifecycle event of a single tracker of a torrent. Times are
+ * {@link System#nanoTime()} based.
+ */
+public class Tracker {
+
+    private static final long DEFAULT_INTERVAL = TimeUnit.MINUTES.toNanos(30);
+    private static final long DEFAULT_MIN_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+    private static final long BASE_BACKOFF = TimeUnit.SECONDS.toNanos(15);
+    private static final long MAX_BACKOFF = TimeUnit.HOURS.toNanos(1);
+    private static final double HEALTH_WEIGHT = 0.3;
+
+    private final String url;
+    private final AtomicBoolean inFlight;
+    private final AtomicReference<AnnounceEvent> event;
+    private final AtomicBoolean completed;
+
+    private volatile long nextAnnounce;
+    private volatile long earliestAnnounce;
+    private volatile int failures;
+    private volatile double health;
+
+    public Tracker(String url, long now) {
+        this.url = url;
+        this.inFlight = new AtomicBoolean();
+        this.event = new AtomicReference<>(AnnounceEvent.STARTED);
+        this.completed = new AtomicBoolean();
+        this.nextAnnounce = now;
+        this.earliestAnnounce = now;
+        this.health = 1;
+    }
+
+    /**
+     * Claims the tracker for an announce if it is due. A torrent that needs peers may announce as soon as
+     * the tracker's min interval has passed, otherwise the regular interval is respected.
+     *
+     * @return true if the caller must announce and report the outcome
+     */
+    boolean tryBegin(long now, boolean needPeers) {
+        long due = needPeers ? earliestAnnounce : nextAnnounce;
+        return now - due >= 0 && inFlight.compareAndSet(false, true);
+    }
+
+    /**
+     * @return event the next announce has to carry, started until the tracker acknowledged it
+     */
+    AnnounceEvent getEvent() {
+        return event.get();
+    }
+
+    /**
+     * @return true once the tracker acknowledged the started event, i.e. it has to be told when we stop
+     */
+    boolean isStarted() {
+        return event.get() != AnnounceEvent.STARTED;
+    }
+
+    /**
+     * Queues the completed event and makes the tracker due right away. Only sent once, and not at all when the
+     * torrent completed before the tracker ever saw it started.
+     */
+    void onTorrentCompleted(long now) {
+        if (completed.compareAndSet(false, true) && event.compareAndSet(AnnounceEvent.NONE, AnnounceEvent.COMPLETED)) {
+            nextAnnounce = now;
+            earliestAnnounce = now;
+        }
+    }
+
+    void onSuccess(TrackerNetworkResponse response, long now, AnnounceEvent sent) {
+        event.compareAndSet(sent, AnnounceEvent.NONE);
+
+        long interval = response.getInterval() > 0 ? TimeUnit.SECONDS.toNanos(
+                response.getInterval()) : DEFAULT_INTERVAL;
+        long minInterval = response.getMinInterval() > 0 ? TimeUnit.SECONDS.toNanos(
+                response.getMinInterval()) : Math.min(DEFAULT_MIN_INTERVAL, interval);
+
+        failures = 0;
+        health += HEALTH_WEIGHT * (1 - health);
+        nextAnnounce = now + interval;
+        earliestAnnounce = now + Math.min(minInterval, interval);
+        inFlight.set(false);
+    }
+
+    /**
+     * Backs the tracker off exponentially, from 15 seconds up to an hour, for every failure in a row.
+     */
+    void onFailure(long now) {
+        int failed = ++failures;
+        long backoff = Math.min(MAX_BACKOFF, BASE_BACKOFF << Math.min(failed - 1, 16));
+
+        health -= HEALTH_WEIGHT * health;
+        nextAnnounce = now + backoff;
+        earliestAnnounce = now + backoff;
+        inFlight.set(false);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return moving average of announce outcomes, 1 when every announce succeeded and towards 0 when none did
+     */
+    public double getHealth() {
+        return health;
+    }
+
+    public int getFailures() {
+        return failures;
+    }
+
+    public boolean isUdp() {
+        return url.startsWith("udp");
+    }
+
+    @Override
+    public String toString() {
+        return "Tracker{" + "url='" + url + '\'' + ", health=" + health + ", failures=" + failures + '}';
+    }
+}
@@ -1,8 +1,28 @@
 package core.network;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 public interface TrackerClient {
 
-    TrackerNetworkResponse announce(TrackerNetworkRequest request);
+    /**
+     * Torrents scraped with a single request, 74 info hashes fill a UDP packet.
+     */
+    int MAX_SCRAPE_BATCH = 74;
+
+    /**
+     * Announces to the tracker at the given url without blocking the caller.
+     *
+     * @param event lifecycle event this tracker has to be told about, {@link AnnounceEvent#NONE} for a regular update
+     * @return future completed with the tracker response, or exceptionally if the tracker could not be reached
+     */
+    CompletableFuture<TrackerNetworkResponse> announce(TrackerNetworkRequest request, AnnounceEvent event, String url);
 
-    void scrape();
+    /**
+     * Scrapes the torrents with the given info hashes from the tracker at the given announce url, in batches of
+     * up to {@link #MAX_SCRAPE_BATCH} torrents per request.
+     *
+     * @return future completed with one result per info hash, null for torrents the tracker did not report
+     */
+    CompletableFuture<List<ScrapeResult>> scrape(String url, List<byte[]> infoHashes);
 }
@@ -6,98 +6,284 @@ import core.bencode.TorrentFile;
 import piece.TorrentManager;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
+/**
+ * Announces to every tracker of a torrent at once. Peers are handed over as soon as enough of them arrived,
+ * slow trackers only add theirs afterwards. Every tracker is re-announced on its own interval and backed off
+ * while it keeps failing.
+ */
 public class TrackerManager {
 
+    private static final int PEERS_WANTED = 100;
+    private static final int MIN_CONNECTIONS = 3;
+    private static final long ANNOUNCE_TIMEOUT_SECONDS = 30;
+    private static final long TICK_SECONDS = 5;
+    private static final long SCRAPE_INTERVAL_MINUTES = 15;
+    private static final long STOP_TIMEOUT_SECONDS = 5;
+
     private final TrackerClient http;
     private final TrackerClient udp;
     private final ScheduledExecutorService scheduler;
+    private final ExecutorService connector;
     private final TorrentManager torrentManager;
     private final Map<TorrentFile, TrackerNetworkRequest> requests = new ConcurrentHashMap<>();
+    private final Map<TorrentFile, List<Tracker>> trackers = new ConcurrentHashMap<>();
+    private final Map<TorrentFile, SwarmHealth> swarmHealth = new ConcurrentHashMap<>();
 
     public TrackerManager(TorrentManager torrentManager) {
-        this.http = new HttpTrackerClient();
-        this.udp = new UdpTrackerClient();
+        this(torrentManager, new HttpTrackerClient(), new UdpTrackerClient());
+        execute();
+    }
+
+    /**
+     * Nothing is scheduled, announces only happen through {@link #tick}.
+     */
+    TrackerManager(TorrentManager torrentManager, TrackerClient http, TrackerClient udp) {
+        this.http = http;
+        this.udp = udp;
         this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        // handshakes block until they time out, keep them away from the scheduler and the tracker clients
+        this.connector = Executors.newSingleThreadExecutor();
         this.torrentManager = torrentManager;
-        execute();
     }
 
     private void execute() {
-        scheduler.schedule(() -> {
+        scheduler.scheduleWithFixedDelay(() -> {
             try {
-
                 Map<TorrentFile, List<PeerConnection>> torrentPeers = torrentManager.getTorrentPeers();
+                long now = System.nanoTime();
 
                 for (TorrentFile torrentFile : torrentPeers.keySet()) {
-                    if (torrentFile.getMetaData().getState() == TorrentState.DOWNLOADING) {
-                        List<PeerConnection> peerConnections = torrentPeers.get(torrentFile);
-
-                        if (peerConnections.size() < 3) {
-                            Set<Peer> peers = getAllPeers(torrentFile);
-                            torrentManager.establishConnections(torrentFile, new ArrayList<>(peers));
-                        }
-                    }
+                    tick(torrentFile, torrentFile.getMetaData()
+                            .getState(), torrentPeers.get(torrentFile)
+                                 .size(), now);
                 }
             } catch (Exception e) {
                 e.printStackTrace();
             }
-        }, 10, TimeUnit.SECONDS);
+        }, 10, TICK_SECONDS, TimeUnit.SECONDS);
+
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                scrapeAll();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, 1, SCRAPE_INTERVAL_MINUTES, TimeUnit.MINUTES);
     }
 
-    public Set<Peer> getAllPeers(TorrentFile torrentFile) {
+    /**
+     * Announces to every tracker of the torrent that is due. A downloading torrent with fewer than
+     * {@code MIN_CONNECTIONS} connections announces as early as the trackers allow, a finished one only tells
+     * its trackers it completed.
+     */
+    void tick(TorrentFile torrentFile, TorrentState state, int connections, long now) {
+        if (state == TorrentState.FINISHED) {
+            // only tell the trackers, a finished torrent does not look for peers
+            List<Tracker> torrentTrackers = getTrackers(torrentFile);
+            torrentTrackers.forEach(tracker -> tracker.onTorrentCompleted(now));
+            List<Tracker> completed = torrentTrackers.stream()
+                    .filter(tracker -> tracker.getEvent() == AnnounceEvent.COMPLETED && tracker.tryBegin(now, false))
+                    .toList();
 
-        int size = torrentFile.getAnnounceList()
-                .size();
-        Set<Peer> peers = new HashSet<>();
+            announce(torrentFile, completed, PEERS_WANTED, peers -> {
+            });
+        } else if (state == TorrentState.DOWNLOADING) {
+            boolean needPeers = connections < MIN_CONNECTIONS;
 
-        for (int i = 0; i <= size; i++) {
-            TrackerNetworkResponse announceResponse = announce(torrentFile);
-            if (announceResponse == null) {
-                continue;
-            }
+            List<Tracker> due = getTrackers(torrentFile).stream()
+                    .filter(tracker -> tracker.tryBegin(now, needPeers))
+                    .toList();
 
-            peers.addAll(announceResponse.getPeers());
-            if (peers.size() >= 100) {
-                return peers;
-            }
+            announce(torrentFile, due, PEERS_WANTED, peers -> connector.execute(() -> connect(torrentFile, peers)));
         }
+    }
 
-        System.out.println("PEERS GATHERED: " + peers.size());
+    /**
+     * Scrapes every managed torrent. Torrents are grouped by tracker, so each tracker gets one request per
+     * batch of torrents instead of one announce per torrent.
+     */
+    public void scrapeAll() {
+        Map<String, List<TorrentFile>> torrentsByTracker = new HashMap<>();
+        for (TorrentFile torrentFile : torrentManager.getTorrentPeers()
+                .keySet()) {
+            getTrackers(torrentFile).forEach(tracker -> torrentsByTracker.computeIfAbsent(tracker.getUrl(),
+                                                                                          url -> new ArrayList<>())
+                    .add(torrentFile));
+        }
+
+        torrentsByTracker.forEach((url, torrents) -> {
+            List<byte[]> infoHashes = torrents.stream()
+                    .map(torrent -> requests.computeIfAbsent(torrent, TrackerNetworkRequest::of)
+                            .getInfoHashBytes())
+                    .toList();
 
-        return peers;
+            (url.startsWith("udp") ? udp : http).scrape(url, infoHashes)
+                    .orTimeout(ANNOUNCE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    .whenComplete((results, error) -> {
+                        if (error != null) {
+                            System.err.println("Failed to scrape " + url + ": " + error.getMessage());
+                            return;
+                        }
+                        for (int i = 0; i < torrents.size(); i++) {
+                            if (results.get(i) != null) {
+                                getSwarmHealth(torrents.get(i)).update(url, results.get(i));
+                            }
+                        }
+                    });
+        });
     }
 
+    public SwarmHealth getSwarmHealth(TorrentFile torrentFile) {
+        return swarmHealth.computeIfAbsent(torrentFile, torrent -> new SwarmHealth());
+    }
 
-    public TrackerNetworkResponse announce(TorrentFile torrent) {
+    private void connect(TorrentFile torrentFile, Set<Peer> peers) {
+        if (peers.isEmpty()) {
+            return;
+        }
 
-        TrackerNetworkRequest request = requests.get(torrent);
+        try {
+            System.out.println("PEERS GATHERED: " + peers.size());
+            torrentManager.establishConnections(torrentFile, new ArrayList<>(peers));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Announces to all trackers of the torrent that are not backed off and waits for the first peers.
+     *
+     * @return at least {@code PEERS_WANTED} peers, or all peers if the trackers returned fewer
+     */
+    public Set<Peer> getAllPeers(TorrentFile torrentFile) {
+        long now = System.nanoTime();
+        List<Tracker> available = getTrackers(torrentFile).stream()
+                .filter(tracker -> tracker.tryBegin(now, true))
+                .toList();
 
-        if (request == null) {
-            request = TrackerNetworkRequest.of(torrent);
-            requests.put(torrent, request);
+        CompletableFuture<Set<Peer>> first = new CompletableFuture<>();
+        announce(torrentFile, available, PEERS_WANTED, first::complete);
+        return first.join();
+    }
+
+    /**
+     * Announces to the given trackers concurrently. The sink receives the collected peers once
+     * {@code wanted} of them arrived or every tracker answered, and once more with the stragglers.
+     * Trackers must have been claimed with {@link Tracker#tryBegin(long, boolean)}.
+     */
+    private void announce(TorrentFile torrentFile, List<Tracker> targets, int wanted, Consumer<Set<Peer>> sink) {
+        if (targets.isEmpty()) {
+            sink.accept(Set.of());
+            return;
         }
 
-        try {
-            request.resolveNextUrl();
-            TrackerNetworkResponse announce = announce(request);
+        TrackerNetworkRequest request = requests.computeIfAbsent(torrentFile, TrackerNetworkRequest::of);
+        Set<Peer> peers = ConcurrentHashMap.newKeySet();
+        AtomicInteger outstanding = new AtomicInteger(targets.size());
+        AtomicBoolean delivered = new AtomicBoolean();
 
-            System.out.println("Doing for " + request.getUrl());
-            return announce;
+        for (Tracker tracker : targets) {
+            AnnounceEvent event = tracker.getEvent();
+            announce(request, event, tracker).whenComplete((response, error) -> {
+                long now = System.nanoTime();
+                if (error != null || response == null || response.getFailureReason() != null) {
+                    tracker.onFailure(now);
+                } else {
+                    tracker.onSuccess(response, now, event);
+                    if (response.getPeers() != null) {
+                        peers.addAll(response.getPeers());
+                    }
+                }
+
+                int left = outstanding.decrementAndGet();
+                if (!delivered.get() && (left == 0 || peers.size() >= wanted) && delivered.compareAndSet(false, true)) {
+                    sink.accept(drain(peers));
+                } else if (left == 0) {
+                    Set<Peer> stragglers = drain(peers);
+                    if (!stragglers.isEmpty()) {
+                        sink.accept(stragglers);
+                    }
+                }
+            });
+        }
+    }
 
+    private CompletableFuture<TrackerNetworkResponse> announce(TrackerNetworkRequest request, AnnounceEvent event,
+                                                               Tracker tracker) {
+        try {
+            return (tracker.isUdp() ? udp : http).announce(request, event, tracker.getUrl())
+                    .orTimeout(ANNOUNCE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
         } catch (Exception e) {
-            return null;
+            return CompletableFuture.failedFuture(e);
         }
+    }
 
+    private static Set<Peer> drain(Set<Peer> peers) {
+        synchronized (peers) {
+            Set<Peer> batch = new HashSet<>(peers);
+            peers.removeAll(batch);
+            return batch;
+        }
     }
 
-    private TrackerNetworkResponse announce(TrackerNetworkRequest request) {
-        return request.getUrl()
-                .startsWith("http") ? http.announce(request) : udp.announce(request);
+    /**
+     * @return trackers of the torrent ordered by health, every url of all announce tiers once
+     */
+    public List<Tracker> getTrackers(TorrentFile torrentFile) {
+        // health changes while announces complete, sort on a snapshot of it
+        return trackers.computeIfAbsent(torrentFile, this::createTrackers)
+                .stream()
+                .map(tracker -> Map.entry(tracker, tracker.getHealth()))
+                .sorted(Map.Entry.<Tracker, Double>comparingByValue()
+                                .reversed())
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    private List<Tracker> createTrackers(TorrentFile torrentFile) {
+        Set<String> urls = new LinkedHashSet<>();
+        if (torrentFile.getAnnounce() != null) {
+            urls.add(torrentFile.getAnnounce());
+        }
+        urls.addAll(torrentFile.getAnnounceList());
+
+        long now = System.nanoTime();
+        return urls.stream()
+                .filter(url -> url.startsWith("http") || url.startsWith("udp"))
+                .map(url -> new Tracker(url, now))
+                .toList();
+    }
+
+    /**
+     * Tells every tracker that saw the torrents started that we are leaving, waiting a few seconds at most,
+     * and stops announcing.
+     */
+    public void stop() {
+        scheduler.shutdownNow();
+        connector.shutdownNow();
+
+        List<CompletableFuture<TrackerNetworkResponse>> stopped = new ArrayList<>();
+        trackers.forEach((torrentFile, torrentTrackers) -> {
+            TrackerNetworkRequest request = requests.computeIfAbsent(torrentFile, TrackerNetworkRequest::of);
+            torrentTrackers.stream()
+                    .filter(Tracker::isStarted)
+                    .forEach(tracker -> stopped.add(announce(request, AnnounceEvent.STOPPED, tracker)));
+        });
+
+        try {
+            CompletableFuture.allOf(stopped.toArray(CompletableFuture[]::new))
+                    .get(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                    .interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            System.err.println("Not every tracker acknowledged the stopped event: " + e.getMessage());
+        }
     }
 
 
@@ -1,112 +1,97 @@
 package core.network;
 
+import core.TransferStats;
 import core.bencode.TorrentFile;
+import util.GlobalConfig;
+import util.UserConfig;
 
-import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.function.LongSupplier;
 
+/**
+ * Announce request of a torrent, shared by the HTTP and UDP clients. The parts that never change, info hash,
+ * peer id, port, compact and numwant, are percent-encoded once. Transfer counters are read live on every
+ * announce and the event is chosen per tracker.
+ */
 public class TrackerNetworkRequest {
 
-    public final String info_hash;
+    public static final int NUM_WANT = 50;
+
     private final byte[] infoHashBytes;
-    public final String peer_id;
-    public final int port;
-    public final long uploaded;
-    public final long downloaded;
-    public final long left;
-    public final int compact;
-    public final String event;
-    private final String announceUrl;
-    private final List<String> announceList;
-    private int urlIndex = -1;
-    private final List<String> urls;
+    private final String peerId;
+    private final int port;
+    private final int compact;
+    private final LongSupplier uploaded;
+    private final LongSupplier downloaded;
+    private final LongSupplier left;
+    private final String query;
 
     private TrackerNetworkRequest(Builder builder) {
-        this.info_hash = builder.infoHash;
-        this.announceUrl = builder.announceUrl;
-        this.peer_id = builder.peerId;
+        this.infoHashBytes = builder.infoHashBytes;
+        this.peerId = builder.peerId;
         this.port = builder.port;
+        this.compact = builder.compact;
         this.uploaded = builder.uploaded;
         this.downloaded = builder.downloaded;
         this.left = builder.left;
-        this.compact = builder.compact;
-        this.event = builder.event;
-        this.announceList = builder.announceList;
-        this.urls = createUrls();
-        this.infoHashBytes = builder.infoHashBytes;
+        this.query = encodeQuery();
     }
 
     public static TrackerNetworkRequest of(TorrentFile torrent) {
-        return new Builder().announceUrl(torrent.getAnnounce())
-                .peerId("MFLJDCEACGABLBFDIGPF")
-                .port(6881)
-                .uploaded(0)
-                .downloaded(0)
-                .left(39763640)
+        TransferStats stats = torrent.getStats();
+        return new Builder().peerId(GlobalConfig.PEER_ID)
+                .port(UserConfig.PORT)
+                .uploaded(stats::getUploaded)
+                .downloaded(stats::getDownloaded)
+                .left(torrent::getBytesLeft)
                 .compact(1)
-                .infoHash(torrent.getInfoHash())
                 .infoHashBytes(torrent.getInfoHashBytes())
-                .announceList(torrent.getAnnounceList())
                 .build();
     }
 
-    public String getURL() {
-
-        StringBuilder sb = new StringBuilder();
-        sb.append(getUrl());
-        sb.append("?");
-        Field[] fields = this.getClass()
-                .getFields();
-
-        for (Field field : fields) {
-            try {
-                if (field.get(this) == null) continue;
-                sb.append(field.getName());
-                sb.append("=");
-                sb.append(field.get(this));
-                sb.append("&");
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
-            }
-        }
+    private String encodeQuery() {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("info_hash=");
+        UrlEncoder.encode(infoHashBytes, sb);
+        sb.append("&peer_id=");
+        UrlEncoder.encode(peerId.getBytes(StandardCharsets.ISO_8859_1), sb);
+        sb.append("&port=")
+                .append(port)
+                .append("&compact=")
+                .append(compact)
+                .append("&numwant=")
+                .append(NUM_WANT);
         return sb.toString();
     }
 
-    public void resolveNextUrl() {
-        urlIndex++;
-
-        if(urlIndex >= urls.size()){
-            urlIndex = 0;
+    /**
+     * @return announce url for the tracker, the pre-encoded query followed by the current counters and the event
+     */
+    public String getURL(String trackerUrl, AnnounceEvent event) {
+        StringBuilder sb = new StringBuilder(trackerUrl.length() + query.length() + 80);
+        sb.append(trackerUrl)
+                .append(trackerUrl.indexOf('?') >= 0 ? '&' : '?')
+                .append(query)
+                .append("&uploaded=")
+                .append(getUploaded())
+                .append("&downloaded=")
+                .append(getDownloaded())
+                .append("&left=")
+                .append(getLeft());
+
+        if (event.getValue() != null) {
+            sb.append("&event=")
+                    .append(event.getValue());
         }
-    }
-
-    public String getUrl(){
-        return urlIndex <= 0 ? announceUrl : announceList.get(urlIndex);
+        return sb.toString();
     }
 
     public byte[] getInfoHashBytes() {
         return infoHashBytes;
     }
 
-    private List<String> createUrls(){
-        List<String> urls = new ArrayList<>(announceList);
-        urls.addFirst(announceUrl);
-        return urls;
-    }
-
-    public String getTrackerPort(){
-        return urls.get(urlIndex)
-                .split(":")[2];
-    }
-
-    public List<String> getUrls(){
-        return urls;
-    }
-
     public String getPeerId() {
-        return peer_id;
+        return peerId;
     }
 
     public int getPort() {
@@ -114,63 +99,36 @@ public class TrackerNetworkRequest {
     }
 
     public long getUploaded() {
-        return uploaded;
+        return uploaded.getAsLong();
     }
 
     public long getDownloaded() {
-        return downloaded;
+        return downloaded.getAsLong();
     }
 
     public long getLeft() {
-        return left;
+        return left.getAsLong();
     }
 
     public int getCompact() {
         return compact;
     }
 
-    public String getEvent() {
-        return event;
-    }
-
-    public List<String> getAnnounceList() {
-        return announceList;
-    }
-
     public static class Builder {
 
-        private String infoHash;
         private byte[] infoHashBytes;
-        private String announceUrl;
         private String peerId;
         private int port;
-        private long uploaded;
-        private long downloaded;
-        private long left;
+        private LongSupplier uploaded = () -> 0;
+        private LongSupplier downloaded = () -> 0;
+        private LongSupplier left = () -> 0;
         private int compact;
-        private String event;
-        private List<String> announceList;
-
-        public Builder infoHash(String infoHash) {
-            this.infoHash = infoHash;
-            return this;
-        }
 
         public Builder infoHashBytes(byte[] infoHashBytes) {
             this.infoHashBytes = infoHashBytes;
             return this;
         }
 
-        public Builder announceList(List<String> announceList) {
-            this.announceList = announceList;
-            return this;
-        }
-
-        public Builder announceUrl(String announceUrl) {
-            this.announceUrl = announceUrl;
-            return this;
-        }
-
         public Builder peerId(String peerId) {
             this.peerId = peerId;
             return this;
@@ -181,17 +139,17 @@ public class TrackerNetworkRequest {
             return this;
         }
 
-        public Builder uploaded(long uploaded) {
+        public Builder uploaded(LongSupplier uploaded) {
             this.uploaded = uploaded;
             return this;
         }
 
-        public Builder downloaded(long downloaded) {
+        public Builder downloaded(LongSupplier downloaded) {
             this.downloaded = downloaded;
             return this;
         }
 
-        public Builder left(long left) {
+        public Builder left(LongSupplier left) {
             this.left = left;
             return this;
         }
@@ -201,11 +159,6 @@ public class TrackerNetworkRequest {
             return this;
         }
 
-        public Builder event(String event) {
-            this.event = event;
-            return this;
-        }
-
         public TrackerNetworkRequest build() {
             return new TrackerNetworkRequest(this);
         }
@@ -213,4 +166,3 @@ public class TrackerNetworkRequest {
 
     }
 }
-
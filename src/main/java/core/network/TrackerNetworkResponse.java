@@ -1,6 +1,7 @@
 package core.network;
 
 import core.bencode.BencodeDictionary;
+import core.bencode.BencodeElement;
 import core.bencode.Bencoder;
 
 import java.io.InputStream;
@@ -27,27 +28,27 @@ public class TrackerNetworkResponse {
     }
 
     public static TrackerNetworkResponse of(byte[] responseBytes) {
+        return of(responseBytes, PeerListDecoder.IPV4_LENGTH);
+    }
+
+    /**
+     * Parses a UDP announce response.
+     *
+     * @param addressLength length of the peer addresses, 16 if the tracker was reached over IPv6
+     */
+    public static TrackerNetworkResponse of(byte[] responseBytes, int addressLength) {
         TrackerNetworkResponse response = new TrackerNetworkResponse();
         ByteBuffer buffer = ByteBuffer.wrap(responseBytes);
         buffer.order(ByteOrder.BIG_ENDIAN);
 
-        System.out.println( buffer.getInt() + " action") ;
-        System.out.println(buffer.getInt() + " transactionId received");
+        // action and transaction id were checked by the client
+        buffer.position(8);
 
         response.interval = buffer.getInt();
-        response.complete = buffer.getInt();
         response.incomplete = buffer.getInt();
-
-        while (buffer.remaining() >= 6) {
-            int ipInt = buffer.getInt();
-            String ip = String.format("%d.%d.%d.%d", (ipInt >> 24) & 0xFF, (ipInt >> 16) & 0xFF, (ipInt >> 8) & 0xFF,
-                                      ipInt & 0xFF);
-
-            int port = buffer.getShort() & 0xFFFF;
-            response.peers.add(new Peer(ip, port));
-        }
-
-        System.out.println(response);
+        response.complete = buffer.getInt();
+        response.peers = PeerListDecoder.decodeCompact(responseBytes, buffer.position(), buffer.remaining(),
+                                                       addressLength);
 
         return response;
     }
@@ -59,26 +60,50 @@ public class TrackerNetworkResponse {
 
             BencodeDictionary decode = bencoder.decode();
 
-            response.complete = decode.get("complete", int.class);
-            response.incomplete = decode.get("incomplete", int.class);
-            response.interval = decode.get("interval", int.class);
-            response.minInterval = decode.get("min_interval", int.class);
-            response.peers = null;
+            BencodeElement<?> failureReason = decode.get("failure reason");
+            if (failureReason != null) {
+                response.failureReason = (String) failureReason.getValue();
+                return response;
+            }
 
-            BencodeDictionary dict = (BencodeDictionary) decode.get("peers");
+            BencodeElement<?> warningMessage = decode.get("warning message");
+            BencodeElement<?> trackerId = decode.get("tracker id");
+            response.warningMessage = warningMessage != null ? (String) warningMessage.getValue() : null;
+            response.trackerId = trackerId != null ? (String) trackerId.getValue() : null;
+            response.complete = (int) getLong(decode, "complete");
+            response.incomplete = (int) getLong(decode, "incomplete");
+            response.interval = (int) getLong(decode, "interval");
+            response.minInterval = getLong(decode, "min interval");
+
+            response.peers = PeerListDecoder.decode(decode.get("peers"), PeerListDecoder.IPV4_LENGTH);
+            response.peers.addAll(PeerListDecoder.decode(decode.get("peers6"), PeerListDecoder.IPV6_LENGTH));
 
         } catch (Exception e) {
             e.printStackTrace();
+            response.failureReason = "Malformed tracker response";
         }
 
         return response;
     }
 
+    private static long getLong(BencodeDictionary dictionary, String key) {
+        BencodeElement<?> element = dictionary.get(key);
+        return element != null && element.getValue() instanceof Long value ? value : 0;
+    }
+
 
     public int getInterval() {
         return interval;
     }
 
+    public long getMinInterval() {
+        return minInterval;
+    }
+
+    public String getFailureReason() {
+        return failureReason;
+    }
+
     public int getComplete() {
         return complete;
     }
@@ -1,150 +1,477 @@
 package core.network;
 
-import java.net.*;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.security.SecureRandom;
-import java.time.Instant;
-import java.util.Random;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
-public class UdpTrackerClient implements TrackerClient {
+/**
+ * UDP tracker protocol (BEP 15) client. All transactions to all trackers share one non-blocking channel and
+ * are matched to their responses by transaction id on a single event loop thread, so any number of them can
+ * be in flight at once. Connection ids are cached per tracker for their 60 second lifetime, and requests that
+ * are not answered are retransmitted after 15 * 2^n seconds, n going from 0 to 8.
+ */
+public class UdpTrackerClient implements TrackerClient, AutoCloseable {
 
-    private static final int CONNECT = 0;
-    private static final int ANNOUNCE = 1;
-    private static final long MAGIC_CONSTANT = 0x41727101980L;
-    private static final int TIMEOUT_BASE = 1;
-    private static final int TIMEOUT_MS = 120000;
-    private static Instant lastAnnounce;
+    static final int CONNECT = 0;
+    static final int ANNOUNCE = 1;
+    static final int SCRAPE = 2;
+    static final int ERROR = 3;
+    static final long MAGIC_CONSTANT = 0x41727101980L;
 
-    private final DatagramSocket socket;
-    private final Random random;
+    private static final int MAX_PACKET_LENGTH = 65507;
+    private static final int MAX_RETRANSMITS = 8;
+    private static final long CONNECTION_ID_LIFETIME = TimeUnit.SECONDS.toNanos(60);
+    private static final Duration RETRANSMIT_BASE = Duration.ofSeconds(15);
 
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final Thread loop;
+    private final long retransmitBase;
+    private final int key;
+    private final Queue<Transaction> submissions = new ConcurrentLinkedQueue<>();
+    private final Queue<Transaction> abandoned = new ConcurrentLinkedQueue<>();
+
+    // owned by the event loop thread
+    private final Map<Integer, Transaction> transactions = new HashMap<>();
+    private final Map<SocketAddress, Connection> connections = new HashMap<>();
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAX_PACKET_LENGTH);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(MAX_PACKET_LENGTH);
 
     public UdpTrackerClient() {
+        this(RETRANSMIT_BASE);
+    }
+
+    /**
+     * @param retransmitBase time to wait for the first response before retransmitting, doubled after every retry
+     */
+    UdpTrackerClient(Duration retransmitBase) {
         try {
-            this.socket = new DatagramSocket();
-            this.socket.setSoTimeout(1000);
-            this.random = new Random();
+            this.channel = DatagramChannel.open();
+            this.channel.configureBlocking(false);
+            this.channel.bind(null);
+            this.selector = Selector.open();
+            this.channel.register(selector, SelectionKey.OP_READ);
+            this.retransmitBase = retransmitBase.toNanos();
+            this.key = ThreadLocalRandom.current()
+                    .nextInt();
+            this.loop = new Thread(this::run, "udp-tracker");
+            this.loop.setDaemon(true);
+            this.loop.start();
 
         } catch (Exception e) {
             e.printStackTrace();
-            throw new RuntimeException("Failed to create UDP socket");
+            throw new RuntimeException("Failed to create UDP channel");
         }
     }
 
     @Override
-    public TrackerNetworkResponse announce(TrackerNetworkRequest request) {
+    public CompletableFuture<TrackerNetworkResponse> announce(TrackerNetworkRequest request, AnnounceEvent event,
+                                                              String url) {
+        ByteBuffer payload = ByteBuffer.allocate(82)
+                .order(ByteOrder.BIG_ENDIAN);
+
+        payload.put(request.getInfoHashBytes());
+        payload.put(request.getPeerId()
+                            .getBytes(StandardCharsets.ISO_8859_1));
+        payload.putLong(request.getDownloaded());
+        payload.putLong(request.getLeft());
+        payload.putLong(request.getUploaded());
+        payload.putInt(event.getId());
+        payload.putInt(0);
+        payload.putInt(key);
+        payload.putInt(TrackerNetworkRequest.NUM_WANT);
+        payload.putShort((short) request.getPort());
+
+        CompletableFuture<byte[]> exchange = new CompletableFuture<>();
+        return abandonOnFailure(resolve(url).thenCompose(
+                address -> transact(address, ANNOUNCE, payload.array(), exchange).thenApply(
+                        response -> TrackerNetworkResponse.of(response, address.getAddress() instanceof Inet6Address ?
+                                PeerListDecoder.IPV6_LENGTH : PeerListDecoder.IPV4_LENGTH))), List.of(exchange));
+    }
+
+    /**
+     * Sends the action with the given payload to the tracker, connecting to it first unless a connection id
+     * is still cached. Once the exchange fails or is cancelled the transaction is dropped and not retransmitted
+     * anymore.
+     *
+     * @param exchange future completed with the whole response packet
+     */
+    CompletableFuture<byte[]> transact(InetSocketAddress address, int action, byte[] payload,
+                                       CompletableFuture<byte[]> exchange) {
+        Transaction transaction = new Transaction(address, action, payload, exchange);
+        exchange.whenComplete((response, error) -> {
+            if (error != null) {
+                abandoned.add(transaction);
+                selector.wakeup();
+            }
+        });
+        submissions.add(transaction);
+        selector.wakeup();
+        return exchange;
+    }
+
+    /**
+     * Callers bound the returned future, e.g. with {@link CompletableFuture#orTimeout}, which does not reach
+     * the exchanges it was composed of. Fails them along with it so their transactions are dropped.
+     */
+    private static <T> CompletableFuture<T> abandonOnFailure(CompletableFuture<T> result,
+                                                             List<CompletableFuture<byte[]>> exchanges) {
+        result.whenComplete((value, error) -> {
+            if (error != null) {
+                exchanges.forEach(exchange -> exchange.completeExceptionally(error));
+            }
+        });
+        return result;
+    }
 
-        int attempts = 0;
+    /**
+     * Resolving the host may block, so it is kept off the event loop.
+     */
+    static CompletableFuture<InetSocketAddress> resolve(String url) {
+        return CompletableFuture.supplyAsync(() -> {
+            URI uri = URI.create(url);
+            InetSocketAddress address = new InetSocketAddress(uri.getHost(), uri.getPort());
+            if (address.isUnresolved()) {
+                throw new IllegalArgumentException(String.format("Could not resolve tracker %s", url));
+            }
+            return address;
+        });
+    }
+
+    private void run() {
         try {
-            String url = request.getURL();
-            URI uri = new URI(url);
-            String host = uri.getHost();
-            int port = uri.getPort();
-            InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(host), port);
-
-            long connectionId = connect(host, port);
-            int transactionId = random.nextInt();
-
-            ByteBuffer announceBuffer = ByteBuffer.allocate(98);
-            announceBuffer.order(ByteOrder.BIG_ENDIAN);
-
-            announceBuffer.putLong(connectionId);
-            announceBuffer.putInt(ANNOUNCE);
-            announceBuffer.putInt(transactionId);
-            announceBuffer.put(request.getInfoHashBytes());
-            announceBuffer.put(request.peer_id.getBytes());
-            announceBuffer.putLong(request.downloaded);
-            announceBuffer.putLong(request.left);
-            announceBuffer.putLong(request.uploaded);
-            announceBuffer.putInt(2);
-            announceBuffer.putInt(0);
-            announceBuffer.putInt(new SecureRandom().nextInt());
-            announceBuffer.putInt(50);
-            announceBuffer.putShort((short) request.port);
-
-            while (++attempts <= 8) {
+            while (channel.isOpen() && selector.isOpen()) {
                 try {
-                    socket.send(new DatagramPacket(announceBuffer.array(), announceBuffer.array().length, address));
-                    byte[] response = new byte[1024];
-                    DatagramPacket responsePacket = new DatagramPacket(response, response.length);
-                    socket.receive(responsePacket);
-                    if (isInvalidResponse(response, transactionId, ANNOUNCE)) continue;
+                    long now = System.nanoTime();
+                    long wait = retransmit(now);
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+                    selector.selectedKeys()
+                            .clear();
 
-                    return TrackerNetworkResponse.of(response);
+                    receive();
 
-                } catch (SocketTimeoutException timeoutException) {
-                    if (Instant.now()
-                            .isAfter(lastAnnounce.plusMillis(TIMEOUT_MS))) {
-
-                        announceBuffer.putLong(0, connect(host, port));
+                    Transaction transaction;
+                    while ((transaction = submissions.poll()) != null) {
+                        start(transaction, System.nanoTime());
+                    }
+                    while ((transaction = abandoned.poll()) != null) {
+                        drop(transaction);
+                    }
+                } catch (IOException e) {
+                    // failed sends only fail their own transaction, anything else is retried on the next round
+                    if (channel.isOpen()) {
+                        e.printStackTrace();
                     }
                 }
             }
+        } catch (ClosedSelectorException e) {
+            // closed while selecting
+        } finally {
+            failAll(new IllegalStateException("UDP tracker client closed"));
+        }
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+    private void start(Transaction transaction, long now) {
+        if (transaction.result.isDone()) {
+            return;
+        }
+        if (transaction.action == CONNECT) {
+            send(transaction, MAGIC_CONSTANT, now);
+            return;
         }
 
-        throw new RuntimeException("Failed to connect to tracker via UDP");
+        Connection connection = connections.computeIfAbsent(transaction.address, address -> new Connection());
+        if (connection.isValid(now)) {
+            send(transaction, connection.id, now);
+        } else {
+            // transactions to the same tracker wait for one shared connect
+            connection.waiting.add(transaction);
+            if (connection.connect == null || connection.connect.result.isDone()) {
+                connection.connect = new Transaction(transaction.address, CONNECT, new byte[0]);
+                send(connection.connect, MAGIC_CONSTANT, now);
+            }
+        }
+    }
+
+    /**
+     * Sends the transaction with a new id. A packet that cannot be sent, e.g. to an unreachable address, fails
+     * the transaction right away, and the transactions waiting for it if it is a connect.
+     */
+    private void send(Transaction transaction, long connectionId, long now) {
+        if (transaction.id != 0) {
+            transactions.remove(transaction.id);
+        }
+        transaction.id = nextTransactionId();
+        transaction.deadline = now + (retransmitBase << transaction.attempt);
+        transactions.put(transaction.id, transaction);
 
+        sendBuffer.clear();
+        sendBuffer.putLong(connectionId);
+        sendBuffer.putInt(transaction.action);
+        sendBuffer.putInt(transaction.id);
+        sendBuffer.put(transaction.payload);
+        sendBuffer.flip();
+        try {
+            channel.send(sendBuffer, transaction.address);
+        } catch (IOException e) {
+            transactions.remove(transaction.id);
+            fail(transaction, e);
+        }
     }
 
-    private boolean isInvalidResponse(byte[] response, int transactionId, int action) {
-        if (action == ANNOUNCE && response.length < 20) {
-            return true;
-        } else if (action == CONNECT && response.length < 16) {
-            return true;
+    /**
+     * Forgets a transaction whose caller gave up on it. A connect nobody waits for anymore is dropped too.
+     */
+    private void drop(Transaction transaction) {
+        // the id may already belong to a newer transaction
+        transactions.remove(transaction.id, transaction);
+
+        Connection connection = connections.get(transaction.address);
+        if (connection != null && connection.waiting.remove(transaction) && connection.waiting.isEmpty()
+                && connection.connect != null) {
+            transactions.remove(connection.connect.id, connection.connect);
+            connection.connect = null;
         }
+    }
 
-        ByteBuffer responseBuffer = ByteBuffer.wrap(response);
-        int actionResponse = responseBuffer.getInt();
-        int transactionIdResponse = responseBuffer.getInt();
-        return transactionId != transactionIdResponse || actionResponse != action;
+    private int nextTransactionId() {
+        int id;
+        do {
+            id = ThreadLocalRandom.current()
+                    .nextInt();
+        } while (id == 0 || transactions.containsKey(id));
+        return id;
     }
 
-    private long connect(String ip, int port) {
+    /**
+     * Retransmits every transaction whose deadline passed and drops those that ran out of retries or were
+     * completed by the caller, e.g. through a timeout of its own.
+     *
+     * @return nanoseconds until the next deadline
+     */
+    private long retransmit(long now) {
+        long wait = retransmitBase << MAX_RETRANSMITS;
 
-        try {
-            InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(ip), port);
-            int transactionId = random.nextInt();
-            ByteBuffer buffer = ByteBuffer.allocate(16);
-            buffer.putLong(MAGIC_CONSTANT);
-            buffer.putInt(CONNECT);
-            buffer.putInt(transactionId);
-
-            DatagramPacket packet = new DatagramPacket(buffer.array(), buffer.array().length, address);
-            byte[] response = new byte[16];
-
-            int attempts = 1;
-            while (attempts <= 8) {
-                try {
-                    //socket.setSoTimeout(TIMEOUT_BASE * (int) Math.pow(2, attempts) * 100);
-                    socket.setSoTimeout(500);
-                    socket.send(packet);
-                    socket.receive(new DatagramPacket(response, response.length));
-                } catch (SocketTimeoutException timeoutException) {
-                    attempts++;
-                    continue;
-                }
+        for (Transaction transaction : new ArrayList<>(transactions.values())) {
+            if (transaction.result.isDone()) {
+                transactions.remove(transaction.id);
+                continue;
+            }
 
-                ByteBuffer responseBuffer = ByteBuffer.wrap(response);
-                if (isInvalidResponse(response, transactionId, CONNECT)) continue;
-                lastAnnounce = Instant.now();
-                return responseBuffer.getLong(8);
+            long remaining = transaction.deadline - now;
+            if (remaining > 0) {
+                wait = Math.min(wait, remaining);
+                continue;
             }
-            System.out.println("DOSO OVDE");
-            throw new RuntimeException("Failed to connect to tracker via UDP");
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException("Failed to connect to tracker via UDP");
+            if (transaction.attempt >= MAX_RETRANSMITS) {
+                transactions.remove(transaction.id);
+                fail(transaction, new IllegalStateException(
+                        String.format("Tracker %s did not respond", transaction.address)));
+                continue;
+            }
+
+            transaction.attempt++;
+            Connection connection = connections.get(transaction.address);
+            if (transaction.action == CONNECT || connection.isValid(now)) {
+                send(transaction, transaction.action == CONNECT ? MAGIC_CONSTANT : connection.id, now);
+                wait = Math.min(wait, transaction.deadline - now);
+            } else {
+                // connection id expired while waiting, the request has to go through a new connect
+                transactions.remove(transaction.id);
+                transaction.id = 0;
+                start(transaction, now);
+            }
+        }
+        return wait;
+    }
+
+    private void receive() throws IOException {
+        while (true) {
+            receiveBuffer.clear();
+            SocketAddress sender = channel.receive(receiveBuffer);
+            if (sender == null) {
+                return;
+            }
+            receiveBuffer.flip();
+            if (receiveBuffer.remaining() < 8) {
+                continue;
+            }
+
+            int action = receiveBuffer.getInt(0);
+            Transaction transaction = transactions.get(receiveBuffer.getInt(4));
+            if (transaction == null || !transaction.address.equals(sender)) {
+                continue;
+            }
+
+            if (action == ERROR) {
+                transactions.remove(transaction.id);
+                byte[] message = new byte[receiveBuffer.remaining() - 8];
+                receiveBuffer.get(8, message);
+                fail(transaction, new IllegalStateException(new String(message, StandardCharsets.UTF_8)));
+            } else if (action == transaction.action && receiveBuffer.remaining() >= minLength(action)) {
+                transactions.remove(transaction.id);
+                byte[] response = new byte[receiveBuffer.remaining()];
+                receiveBuffer.get(response);
+                complete(transaction, response);
+            }
+        }
+    }
+
+    private static int minLength(int action) {
+        return switch (action) {
+            case CONNECT -> 16;
+            case ANNOUNCE -> 20;
+            default -> 8;
+        };
+    }
+
+    private void complete(Transaction transaction, byte[] response) {
+        if (transaction.action != CONNECT) {
+            transaction.result.complete(response);
+            return;
+        }
+
+        long now = System.nanoTime();
+        Connection connection = connections.get(transaction.address);
+        connection.id = ByteBuffer.wrap(response)
+                .getLong(8);
+        connection.expiresAt = now + CONNECTION_ID_LIFETIME;
+        connection.connect = null;
+        transaction.result.complete(response);
+
+        for (Transaction waiting : connection.waiting) {
+            if (!waiting.result.isDone()) {
+                send(waiting, connection.id, now);
+            }
         }
+        connection.waiting.clear();
     }
 
+    private void fail(Transaction transaction, Throwable cause) {
+        transaction.result.completeExceptionally(cause);
+
+        Connection connection = connections.get(transaction.address);
+        if (transaction.action == CONNECT && connection != null && connection.connect == transaction) {
+            connection.waiting.forEach(waiting -> waiting.result.completeExceptionally(cause));
+            connection.waiting.clear();
+            connection.connect = null;
+        }
+    }
+
+    private void failAll(Throwable cause) {
+        transactions.values()
+                .forEach(transaction -> transaction.result.completeExceptionally(cause));
+        connections.values()
+                .forEach(connection -> connection.waiting.forEach(
+                        transaction -> transaction.result.completeExceptionally(cause)));
+        submissions.forEach(transaction -> transaction.result.completeExceptionally(cause));
+    }
 
     @Override
-    public void scrape() {
-        System.out.println("Scraping tracker via UDP");
+    public CompletableFuture<List<ScrapeResult>> scrape(String url, List<byte[]> infoHashes) {
+        List<CompletableFuture<byte[]>> exchanges = new ArrayList<>();
+        for (int from = 0; from < infoHashes.size(); from += MAX_SCRAPE_BATCH) {
+            exchanges.add(new CompletableFuture<>());
+        }
+
+        return abandonOnFailure(resolve(url).thenCompose(address -> {
+            List<CompletableFuture<List<ScrapeResult>>> batches = new ArrayList<>();
+
+            for (int from = 0; from < infoHashes.size(); from += MAX_SCRAPE_BATCH) {
+                List<byte[]> batch = infoHashes.subList(from, Math.min(infoHashes.size(), from + MAX_SCRAPE_BATCH));
+                ByteBuffer payload = ByteBuffer.allocate(batch.size() * 20);
+                batch.forEach(payload::put);
+
+                batches.add(transact(address, SCRAPE, payload.array(), exchanges.get(from / MAX_SCRAPE_BATCH))
+                                    .thenApply(response -> parseScrape(response, batch.size())));
+            }
+
+            return CompletableFuture.allOf(batches.toArray(CompletableFuture[]::new))
+                    .thenApply(ignored -> batches.stream()
+                            .flatMap(batch -> batch.join()
+                                    .stream())
+                            .toList());
+        }), exchanges);
+    }
+
+    /**
+     * Scrape responses hold seeders, completed and leechers for every info hash, in request order.
+     */
+    private static List<ScrapeResult> parseScrape(byte[] response, int count) {
+        ByteBuffer buffer = ByteBuffer.wrap(response);
+        buffer.position(8);
+
+        List<ScrapeResult> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            results.add(buffer.remaining() >= 12 ? new ScrapeResult(buffer.getInt(), buffer.getInt(),
+                                                                    buffer.getInt()) : null);
+        }
+        return results;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+            selector.close();
+            loop.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                    .interrupt();
+        }
+    }
+
+    private static final class Transaction {
+
+        private final InetSocketAddress address;
+        private final int action;
+        private final byte[] payload;
+        private final CompletableFuture<byte[]> result;
+
+        private int id;
+        private int attempt;
+        private long deadline;
+
+        private Transaction(InetSocketAddress address, int action, byte[] payload) {
+            this(address, action, payload, new CompletableFuture<>());
+        }
+
+        private Transaction(InetSocketAddress address, int action, byte[] payload, CompletableFuture<byte[]> result) {
+            this.address = address;
+            this.action = action;
+            this.payload = payload;
+            this.result = result;
+        }
+    }
+
+    private static final class Connection {
+
+        private final List<Transaction> waiting = new ArrayList<>();
+
+        private long id;
+        private long expiresAt;
+        private Transaction connect;
+
+        private boolean isValid(long now) {
+            return expiresAt != 0 && expiresAt - now > 0;
+        }
     }
 }
@@ -0,0 +1,34 @@
+package core.network;
+
+/**
+ * Percent-encoding of raw bytes for tracker query strings, e.g. info hashes and peer ids.
+ */
+public final class UrlEncoder {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private UrlEncoder() {
+    }
+
+    public static String encode(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 3);
+        encode(bytes, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Appends the bytes to the builder, unreserved characters as they are and every other byte as %XX.
+     */
+    public static void encode(byte[] bytes, StringBuilder sb) {
+        for (byte b : bytes) {
+            if ((b >= '0' && b <= '9') || (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || b == '.' || b == '-'
+                    || b == '_' || b == '~') {
+                sb.append((char) b);
+            } else {
+                sb.append('%')
+                        .append(HEX[(b >> 4) & 0x0F])
+                        .append(HEX[b & 0x0F]);
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package network;
+
+import util.UserConfig;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct buffers carved out of larger slabs, one free list per size class.
+ * Leased buffers go back with {@link #release(ByteBuffer)} once written or when their connection is closed.
+ * In debug mode every lease remembers where it was taken, so buffers that never come back can be reported.
+ */
+public class BufferPool {
+
+    private static final int BUFFERS_PER_SLAB = 64;
+    private static final BufferPool SHARED = new BufferPool(UserConfig.BUFFER_DEBUG);
+
+    public enum SizeClass {
+        HANDSHAKE(68),
+        CONTROL(17),
+        BLOCK(16 * 1024 + 13),
+        READ(32 * 1024);
+
+        private final int size;
+
+        SizeClass(int size) {
+            this.size = size;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * @return smallest class holding the given amount of bytes, null if none does
+         */
+        public static SizeClass of(int bytes) {
+            SizeClass best = null;
+            for (SizeClass sizeClass : values()) {
+                if (sizeClass.size >= bytes && (best == null || sizeClass.size < best.size)) {
+                    best = sizeClass;
+                }
+            }
+            return best;
+        }
+
+        private static SizeClass ofCapacity(int capacity) {
+            for (SizeClass sizeClass : values()) {
+                if (sizeClass.size == capacity) {
+                    return sizeClass;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final boolean debug;
+    private final List<Queue<ByteBuffer>> free;
+    private final AtomicLong[] leased;
+    private final AtomicLong[] released;
+    private final AtomicLong[] allocated;
+    private final Map<ByteBuffer, Throwable> outstanding = new IdentityHashMap<>();
+
+    public BufferPool(boolean debug) {
+        this.debug = debug;
+        int classes = SizeClass.values().length;
+        this.free = new ArrayList<>(classes);
+        this.leased = new AtomicLong[classes];
+        this.released = new AtomicLong[classes];
+        this.allocated = new AtomicLong[classes];
+        for (int i = 0; i < classes; i++) {
+            free.add(new ConcurrentLinkedQueue<>());
+            leased[i] = new AtomicLong(0);
+            released[i] = new AtomicLong(0);
+            allocated[i] = new AtomicLong(0);
+        }
+    }
+
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return cleared direct buffer with a capacity of exactly the class size
+     */
+    public ByteBuffer lease(SizeClass sizeClass) {
+        int i = sizeClass.ordinal();
+        ByteBuffer buffer = free.get(i).poll();
+        if (buffer == null) {
+            buffer = allocateSlab(sizeClass);
+        }
+        leased[i].incrementAndGet();
+
+        if (debug) {
+            synchronized (outstanding) {
+                outstanding.put(buffer, new Throwable("Buffer of class " + sizeClass + " leased here"));
+            }
+        }
+        return buffer.clear();
+    }
+
+    /**
+     * Leases a buffer of the smallest class holding the given amount of bytes, or allocates a plain
+     * heap buffer if the message is larger than every class, e.g. a bitfield of a big torrent.
+     */
+    public ByteBuffer lease(int bytes) {
+        SizeClass sizeClass = SizeClass.of(bytes);
+        if (sizeClass == null) {
+            return ByteBuffer.allocate(bytes);
+        }
+        ByteBuffer buffer = lease(sizeClass);
+        buffer.limit(bytes);
+        return buffer;
+    }
+
+    private ByteBuffer allocateSlab(SizeClass sizeClass) {
+        int size = sizeClass.getSize();
+        ByteBuffer slab = ByteBuffer.allocateDirect(size * BUFFERS_PER_SLAB);
+        for (int i = 1; i < BUFFERS_PER_SLAB; i++) {
+            free.get(sizeClass.ordinal()).add(slab.slice(i * size, size));
+        }
+        allocated[sizeClass.ordinal()].addAndGet(BUFFERS_PER_SLAB);
+        return slab.slice(0, size);
+    }
+
+    /**
+     * Returns a leased buffer to its free list. Buffers that did not come from a pool, heap buffers included,
+     * are ignored, so callers can release whatever they wrote.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        SizeClass sizeClass = SizeClass.ofCapacity(buffer.capacity());
+        if (sizeClass == null) {
+            return;
+        }
+
+        if (debug) {
+            synchronized (outstanding) {
+                if (outstanding.remove(buffer) == null) {
+                    new IllegalStateException("Buffer released twice or not leased from this pool").printStackTrace();
+                    return;
+                }
+            }
+        }
+        released[sizeClass.ordinal()].incrementAndGet();
+        free.get(sizeClass.ordinal()).add(buffer);
+    }
+
+    public long getInUse(SizeClass sizeClass) {
+        return leased[sizeClass.ordinal()].get() - released[sizeClass.ordinal()].get();
+    }
+
+    public long getLeased(SizeClass sizeClass) {
+        return leased[sizeClass.ordinal()].get();
+    }
+
+    public long getAllocated(SizeClass sizeClass) {
+        return allocated[sizeClass.ordinal()].get();
+    }
+
+    /**
+     * Prints where every buffer that is still leased was taken. Only available in debug mode.
+     *
+     * @return number of outstanding leases
+     */
+    public int reportLeaks() {
+        if (!debug) {
+            return -1;
+        }
+        synchronized (outstanding) {
+            outstanding.values()
+                    .forEach(Throwable::printStackTrace);
+            return outstanding.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("BufferPool[");
+        for (SizeClass sizeClass : SizeClass.values()) {
+            builder.append(String.format("%s: inUse=%d, leased=%d, allocated=%d; ", sizeClass, getInUse(sizeClass),
+                                         getLeased(sizeClass), getAllocated(sizeClass)));
+        }
+        return builder.append(']')
+                .toString();
+    }
+}
@@ -0,0 +1,27 @@
+package network;
+
+import core.PeerConnection;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Callbacks a {@link Reactor} makes on its own thread for the connections it owns.
+ */
+public interface ConnectionHandler {
+
+    /**
+     * Called after bytes were read into the connection buffer. The buffer is flipped for reading,
+     * whatever is left unread is compacted and kept for the next read.
+     */
+    void onRead(PeerConnection connection, ByteBuffer buffer);
+
+    /**
+     * Called once every queued outbound message of the connection was written to the socket.
+     */
+    void onFlushed(PeerConnection connection);
+
+    /**
+     * Called once the channel of the connection was closed, either by the peer or locally.
+     */
+    void onClosed(PeerConnection connection);
+}
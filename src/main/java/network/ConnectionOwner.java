@@ -0,0 +1,16 @@
+package network;
+
+import core.PeerConnection;
+
+/**
+ * Whatever currently drives the I/O of a connection, a {@link Reactor} or a {@link VirtualThreadEngine}.
+ */
+public interface ConnectionOwner {
+
+    /**
+     * Asks the owner to write the messages queued on the connection.
+     */
+    void requestWrite(PeerConnection connection);
+
+    void close(PeerConnection connection);
+}
@@ -0,0 +1,55 @@
+package network;
+
+/**
+ * Snapshot of the counters every {@link PeerEngine} keeps, so both engines can be compared on the same workload.
+ * The torrent manager logs one every ten seconds along with the read rate; the engines are compared by running the
+ * same torrent once with -Djbit.engine=nio and once with -Djbit.engine=virtual and reading those lines side by side.
+ */
+public final class EngineMetrics {
+
+    private final String engine;
+    private final int connections;
+    private final long bytesRead;
+    private final long reads;
+    private final long writes;
+
+    public EngineMetrics(String engine, int connections, long bytesRead, long reads, long writes) {
+        this.engine = engine;
+        this.connections = connections;
+        this.bytesRead = bytesRead;
+        this.reads = reads;
+        this.writes = writes;
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return number of read calls that returned data
+     */
+    public long getReads() {
+        return reads;
+    }
+
+    /**
+     * @return number of flushes of queued outbound messages
+     */
+    public long getWrites() {
+        return writes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[connections=%d, bytesRead=%d, reads=%d, writes=%d]", engine, connections, bytesRead,
+                             reads, writes);
+    }
+}
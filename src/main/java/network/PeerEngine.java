@@ -0,0 +1,22 @@
+package network;
+
+import core.PeerConnection;
+
+/**
+ * Runs the socket I/O of handshaken peer connections, selected with -Djbit.engine.
+ */
+public interface PeerEngine {
+
+    void start();
+
+    /**
+     * Takes over a connection whose handshake is done. The channel must not be registered with any selector.
+     */
+    void register(PeerConnection connection);
+
+    void close(PeerConnection connection);
+
+    EngineMetrics getMetrics();
+
+    void stop();
+}
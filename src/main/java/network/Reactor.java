@@ -0,0 +1,318 @@
+package network;
+
+import core.PeerConnection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Selector loop running on a single thread that owns a subset of the peer connections.
+ * Other threads never touch the selector or its keys, they queue registrations and closes which the loop
+ * picks up after a wakeup.
+ */
+public class Reactor implements Runnable, ConnectionOwner {
+
+    private static final long STOP_TIMEOUT_MS = 5000;
+
+    private final int id;
+    private final Selector selector;
+    private final ConnectionHandler handler;
+    private final Queue<PeerConnection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final Queue<PeerConnection> pendingCloses = new ConcurrentLinkedQueue<>();
+    private final Queue<PeerConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger connections = new AtomicInteger(0);
+    private final AtomicLong bytesRead = new AtomicLong(0);
+    private final AtomicLong reads = new AtomicLong(0);
+    private final AtomicLong writes = new AtomicLong(0);
+    private final AtomicLong selects = new AtomicLong(0);
+    private final AtomicLong busyNanos = new AtomicLong(0);
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public Reactor(int id, ConnectionHandler handler) throws IOException {
+        this.id = id;
+        this.handler = handler;
+        this.selector = Selector.open();
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "Reactor-" + id);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Hands the connection over to this reactor, it is registered on the next loop iteration.
+     */
+    public void register(PeerConnection connection) {
+        connections.incrementAndGet();
+        connection.setOwner(this);
+        pendingRegistrations.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Closes the connection on the reactor thread.
+     */
+    @Override
+    public void close(PeerConnection connection) {
+        pendingCloses.add(connection);
+        selector.wakeup();
+    }
+
+    @Override
+    public void requestWrite(PeerConnection connection) {
+        pendingWrites.add(connection);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            loop();
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void loop() {
+        while (running) {
+            try {
+                selector.select();
+                long start = System.nanoTime();
+                selects.incrementAndGet();
+
+                processRegistrations();
+                processCloses();
+                processWrites();
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys()
+                        .iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    process(key);
+                }
+                busyNanos.addAndGet(System.nanoTime() - start);
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Closes every connection still owned by this reactor once the loop ended, so their buffers go back to the pool.
+     */
+    private void closeAll() {
+        PeerConnection connection;
+        while ((connection = pendingRegistrations.poll()) != null) {
+            close(null, connection);
+        }
+        if (selector.isOpen()) {
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                if (key.attachment() instanceof PeerConnection owned) {
+                    close(key, owned);
+                }
+            }
+        }
+        closeSelector();
+    }
+
+    private void closeSelector() {
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void processRegistrations() {
+        PeerConnection connection;
+        while ((connection = pendingRegistrations.poll()) != null) {
+            try {
+                connection.getChannel()
+                        .configureBlocking(false);
+                int ops = connection.hasPendingWrites() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE :
+                        SelectionKey.OP_READ;
+                connection.getChannel()
+                        .register(selector, ops, connection);
+            } catch (IOException e) {
+                e.printStackTrace();
+                close(connection.getChannel()
+                              .keyFor(selector), connection);
+            }
+        }
+    }
+
+    private void processCloses() {
+        PeerConnection connection;
+        while ((connection = pendingCloses.poll()) != null) {
+            close(connection.getChannel()
+                          .keyFor(selector), connection);
+        }
+    }
+
+    private void processWrites() {
+        PeerConnection connection;
+        while ((connection = pendingWrites.poll()) != null) {
+            SelectionKey key = connection.getChannel()
+                    .keyFor(selector);
+            // a key waiting for OP_WRITE is flushed once the socket has room again
+            if (key != null && key.isValid() && (key.interestOps() & SelectionKey.OP_WRITE) == 0) {
+                write(key, connection);
+            }
+        }
+    }
+
+    private void process(SelectionKey key) {
+        if (!(key.attachment() instanceof PeerConnection connection)) {
+            System.out.println("Key not valid");
+            key.cancel();
+            return;
+        }
+
+        try {
+            if (key.isValid() && key.isReadable()) {
+                read(key, connection);
+            }
+            if (key.isValid() && key.isWritable()) {
+                write(key, connection);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            close(key, connection);
+        }
+    }
+
+    private void write(SelectionKey key, PeerConnection connection) {
+        try {
+            writes.incrementAndGet();
+            if (connection.flush()) {
+                key.interestOps(SelectionKey.OP_READ);
+                handler.onFlushed(connection);
+            } else {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            close(key, connection);
+        }
+    }
+
+    private void read(SelectionKey key, PeerConnection connection) throws IOException {
+        SocketChannel channel = connection.getChannel();
+        ByteBuffer buffer = connection.getBuffer();
+
+        int read = channel.read(buffer);
+        if (read == -1) {
+            System.out.println("Removing connection");
+            close(key, connection);
+            return;
+        }
+        bytesRead.addAndGet(read);
+        reads.incrementAndGet();
+
+        buffer.flip();
+        handler.onRead(connection, buffer);
+        buffer.compact();
+    }
+
+    private void close(SelectionKey key, PeerConnection connection) {
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            connection.getChannel()
+                    .close();
+        } catch (IOException ignored) {
+        }
+        if (connection.getOwner() == this) {
+            connection.setOwner(null);
+            connection.releaseBuffers();
+            connections.decrementAndGet();
+            handler.onClosed(connection);
+        }
+    }
+
+    /**
+     * Stops the loop and waits for it to close its connections.
+     */
+    public void stop() {
+        running = false;
+        Thread loop;
+        synchronized (this) {
+            loop = thread;
+        }
+        if (loop == null) {
+            closeSelector();
+            return;
+        }
+
+        selector.wakeup();
+        try {
+            loop.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                    .interrupt();
+        }
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getConnections() {
+        return connections.get();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * @return number of flushes, each one issues a gathering write per batch of queued messages
+     */
+    public long getWrites() {
+        return writes.get();
+    }
+
+    public long getReads() {
+        return reads.get();
+    }
+
+    public long getSelects() {
+        return selects.get();
+    }
+
+    /**
+     * @return time spent handling ready keys, as opposed to waiting in select
+     */
+    public long getBusyNanos() {
+        return busyNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Reactor-%d[connections=%d, bytesRead=%d, writes=%d, selects=%d, busyMs=%d]", id,
+                             connections.get(), bytesRead.get(), writes.get(), selects.get(),
+                             busyNanos.get() / 1_000_000);
+    }
+}
@@ -0,0 +1,90 @@
+package network;
+
+import core.PeerConnection;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Fixed set of {@link Reactor}s, new connections go to the reactor currently owning the fewest.
+ */
+public class ReactorGroup implements PeerEngine {
+
+    private final Reactor[] reactors;
+
+    public ReactorGroup(int size, ConnectionHandler handler) throws IOException {
+        if (size < 1) {
+            throw new IllegalArgumentException("Reactor group needs at least one reactor");
+        }
+        this.reactors = new Reactor[size];
+        for (int i = 0; i < size; i++) {
+            reactors[i] = new Reactor(i, handler);
+        }
+    }
+
+    @Override
+    public void start() {
+        for (Reactor reactor : reactors) {
+            reactor.start();
+        }
+    }
+
+    @Override
+    public void register(PeerConnection connection) {
+        Arrays.stream(reactors)
+                .min(Comparator.comparingInt(Reactor::getConnections))
+                .orElseThrow()
+                .register(connection);
+    }
+
+    /**
+     * Closes the connection on the thread of the reactor owning it, or right away if it is not registered.
+     */
+    @Override
+    public void close(PeerConnection connection) {
+        ConnectionOwner owner = connection.getOwner();
+        if (owner != null) {
+            owner.close(connection);
+            return;
+        }
+        try {
+            connection.getChannel()
+                    .close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public List<Reactor> getReactors() {
+        return List.of(reactors);
+    }
+
+    @Override
+    public EngineMetrics getMetrics() {
+        int connections = 0;
+        long bytesRead = 0;
+        long reads = 0;
+        long writes = 0;
+        for (Reactor reactor : reactors) {
+            connections += reactor.getConnections();
+            bytesRead += reactor.getBytesRead();
+            reads += reactor.getReads();
+            writes += reactor.getWrites();
+        }
+        return new EngineMetrics("nio", connections, bytesRead, reads, writes);
+    }
+
+    @Override
+    public void stop() {
+        for (Reactor reactor : reactors) {
+            reactor.stop();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(reactors);
+    }
+}
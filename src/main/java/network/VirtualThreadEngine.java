@@ -0,0 +1,170 @@
+package network;
+
+import core.PeerConnection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs every connection on its own pair of virtual threads with blocking socket calls, one reading and
+ * one writing the outbound queue. Back-pressure comes from the blocking write instead of OP_WRITE.
+ */
+public class VirtualThreadEngine implements PeerEngine, ConnectionOwner {
+
+    private final ConnectionHandler handler;
+    private final Map<PeerConnection, Session> sessions = new ConcurrentHashMap<>();
+
+    private final AtomicLong bytesRead = new AtomicLong(0);
+    private final AtomicLong reads = new AtomicLong(0);
+    private final AtomicLong writes = new AtomicLong(0);
+
+    private volatile boolean running;
+
+    public VirtualThreadEngine(ConnectionHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void register(PeerConnection connection) {
+        try {
+            connection.getChannel()
+                    .configureBlocking(true);
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeChannel(connection);
+            return;
+        }
+
+        Session session = new Session();
+        session.reader = Thread.ofVirtual()
+                .name("Peer-read-" + connection.getPeer())
+                .unstarted(() -> read(connection, session));
+        session.writer = Thread.ofVirtual()
+                .name("Peer-write-" + connection.getPeer())
+                .unstarted(() -> write(connection, session));
+
+        sessions.put(connection, session);
+        connection.setOwner(this);
+        session.reader.start();
+        session.writer.start();
+
+        if (connection.hasPendingWrites()) {
+            requestWrite(connection);
+        }
+    }
+
+    private void read(PeerConnection connection, Session session) {
+        SocketChannel channel = connection.getChannel();
+        ByteBuffer buffer = connection.getBuffer();
+
+        try {
+            while (running) {
+                int read = channel.read(buffer);
+                if (read == -1) {
+                    break;
+                }
+                bytesRead.addAndGet(read);
+                reads.incrementAndGet();
+
+                buffer.flip();
+                handler.onRead(connection, buffer);
+                buffer.compact();
+            }
+        } catch (Exception e) {
+            if (channel.isOpen()) {
+                e.printStackTrace();
+            }
+        }
+        close(connection);
+
+        // only the reading thread touches the read buffer, it returns the buffers once the writer stopped too
+        try {
+            session.writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                    .interrupt();
+        }
+        connection.releaseBuffers();
+    }
+
+    private void write(PeerConnection connection, Session session) {
+        try {
+            while (running) {
+                session.signal.acquire();
+                session.signal.drainPermits();
+
+                writes.incrementAndGet();
+                // blocking channel, flush returns only once everything queued so far was written
+                connection.flush();
+                handler.onFlushed(connection);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                    .interrupt();
+        } catch (IOException e) {
+            if (connection.getChannel()
+                    .isOpen()) {
+                e.printStackTrace();
+            }
+            close(connection);
+        }
+    }
+
+    @Override
+    public void requestWrite(PeerConnection connection) {
+        Session session = sessions.get(connection);
+        if (session != null) {
+            session.signal.release();
+        }
+    }
+
+    @Override
+    public void close(PeerConnection connection) {
+        Session session = sessions.remove(connection);
+        closeChannel(connection);
+        if (session == null) {
+            return;
+        }
+
+        connection.setOwner(null);
+        session.writer.interrupt();
+        handler.onClosed(connection);
+    }
+
+    private void closeChannel(PeerConnection connection) {
+        try {
+            connection.getChannel()
+                    .close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public EngineMetrics getMetrics() {
+        return new EngineMetrics("virtual", sessions.size(), bytesRead.get(), reads.get(), writes.get());
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        sessions.keySet()
+                .forEach(this::close);
+    }
+
+    private static final class Session {
+
+        private final Semaphore signal = new Semaphore(0);
+        private Thread reader;
+        private Thread writer;
+    }
+}
@@ -0,0 +1,151 @@
+package piece;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntPredicate;
+
+/**
+ * Piece availability of one torrent, kept incrementally instead of being recounted from every peer bitfield.
+ * Pieces are stored in an array ordered by availability, with the start of every availability bucket recorded,
+ * so a change of one piece is a single swap at a bucket border. Finished pieces are moved to a bucket in front
+ * of all others and are not looked at again unless they are restored.
+ */
+public class AvailabilityIndex {
+
+    private final int[] order;
+    private final int[] positions;
+    private final int[] availability;
+    private final boolean[] removed;
+    private int[] bucketStarts;
+
+    public AvailabilityIndex(int pieces) {
+        this.order = new int[pieces];
+        this.positions = new int[pieces];
+        this.availability = new int[pieces];
+        this.removed = new boolean[pieces];
+        for (int i = 0; i < pieces; i++) {
+            order[i] = i;
+            positions[i] = i;
+        }
+        // bucket 0 holds removed pieces, bucket a + 1 pieces that a peers have
+        this.bucketStarts = new int[8];
+        Arrays.fill(bucketStarts, 2, bucketStarts.length, pieces);
+    }
+
+    public synchronized void increment(int piece) {
+        availability[piece]++;
+        if (removed[piece]) {
+            return;
+        }
+        int bucket = availability[piece];
+        ensureBucket(bucket + 1);
+
+        // last piece of the old bucket becomes the first of the next one
+        int last = bucketStarts[bucket + 1] - 1;
+        swap(positions[piece], last);
+        bucketStarts[bucket + 1]--;
+    }
+
+    public synchronized void decrement(int piece) {
+        if (availability[piece] == 0) {
+            return;
+        }
+        availability[piece]--;
+        if (removed[piece]) {
+            return;
+        }
+        int bucket = availability[piece] + 2;
+
+        int first = bucketStarts[bucket];
+        swap(positions[piece], first);
+        bucketStarts[bucket]++;
+    }
+
+    public synchronized void add(BitSet pieces) {
+        for (int i = pieces.nextSetBit(0); i >= 0 && i < order.length; i = pieces.nextSetBit(i + 1)) {
+            increment(i);
+        }
+    }
+
+    public synchronized void subtract(BitSet pieces) {
+        for (int i = pieces.nextSetBit(0); i >= 0 && i < order.length; i = pieces.nextSetBit(i + 1)) {
+            decrement(i);
+        }
+    }
+
+    /**
+     * Takes a piece out of the selection, e.g. once it was verified. Its availability is still counted.
+     */
+    public synchronized void remove(int piece) {
+        if (removed[piece]) {
+            return;
+        }
+        for (int bucket = availability[piece] + 1; bucket > 0; bucket--) {
+            swap(positions[piece], bucketStarts[bucket]);
+            bucketStarts[bucket]++;
+        }
+        removed[piece] = true;
+    }
+
+    /**
+     * Puts a removed piece back into the selection, e.g. when a recheck found its data bad. The piece returns to
+     * the bucket of the availability counted while it was removed.
+     */
+    public synchronized void restore(int piece) {
+        if (!removed[piece]) {
+            return;
+        }
+        ensureBucket(availability[piece] + 1);
+        // the reverse of remove, the last piece of every bucket up to the target moves one bucket down
+        for (int bucket = 1; bucket <= availability[piece] + 1; bucket++) {
+            bucketStarts[bucket]--;
+            swap(positions[piece], bucketStarts[bucket]);
+        }
+        removed[piece] = false;
+    }
+
+    /**
+     * Walks the pieces at least one peer has, rarest first.
+     *
+     * @param done   pieces matching it are removed from the index on the way
+     * @param accept condition the returned piece has to meet
+     * @return rarest accepted piece, -1 if there is none
+     */
+    public synchronized int findRarest(IntPredicate done, IntPredicate accept) {
+        int position = bucketStarts.length > 2 ? bucketStarts[2] : order.length;
+
+        while (position < order.length) {
+            int piece = order[position];
+            if (done.test(piece)) {
+                // moves pieces from in front of the position only, nothing that is still ahead gets skipped
+                remove(piece);
+            } else if (accept.test(piece)) {
+                return piece;
+            }
+            position++;
+        }
+        return -1;
+    }
+
+    public synchronized int getAvailability(int piece) {
+        return availability[piece];
+    }
+
+    private void ensureBucket(int bucket) {
+        if (bucket + 1 < bucketStarts.length) {
+            return;
+        }
+        int oldLength = bucketStarts.length;
+        bucketStarts = Arrays.copyOf(bucketStarts, Math.max(bucket + 2, oldLength * 2));
+        Arrays.fill(bucketStarts, oldLength, bucketStarts.length, order.length);
+    }
+
+    private void swap(int a, int b) {
+        int pieceA = order[a];
+        int pieceB = order[b];
+        order[a] = pieceB;
+        order[b] = pieceA;
+        positions[pieceB] = a;
+        positions[pieceA] = b;
+    }
+}
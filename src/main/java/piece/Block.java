@@ -1,5 +1,7 @@
 package piece;
 
+import core.PeerConnection;
+
 import java.time.LocalDateTime;
 
 public class Block {
@@ -9,7 +11,7 @@ public class Block {
     int downloadState; // 0: not downloaded, 1: downloaded, 2: requested
     int pieceIndex;
     LocalDateTime requestTime;
-
+    PeerConnection requester;
 
     public Block(int offset, int length, int downloadState, int pieceIndex) {
         this.offset = offset;
@@ -26,6 +28,17 @@ public class Block {
         return requestTime;
     }
 
+    /**
+     * @return peer the block was last requested from, null if it was never requested
+     */
+    public PeerConnection getRequester() {
+        return requester;
+    }
+
+    public void setRequester(PeerConnection requester) {
+        this.requester = requester;
+    }
+
     public int getOffset() {
         return offset;
     }
@@ -1,23 +1,39 @@
 package piece;
 
 import core.PeerConnection;
+import network.BufferPool;
 
 import java.nio.ByteBuffer;
 
 public class Cancel extends Message {
 
+    private final int length = 13;
+    private final byte id = 8;
+
+    private final int index;
+    private final int begin;
+    private final int blockLength;
+
     public Cancel(PeerConnection peerConnection) {
-        super(peerConnection);
+        this(0, 0, 0, peerConnection);
     }
 
-    @Override
-    public boolean parse(ByteBuffer buffer) {
-        System.out.println("cancel");
-        return false;
+    public Cancel(int index, int begin, int blockLength, PeerConnection peerConnection) {
+        super(peerConnection);
+        this.index = index;
+        this.begin = begin;
+        this.blockLength = blockLength;
     }
 
     @Override
     public ByteBuffer create() {
-        return null;
+        ByteBuffer buffer = BufferPool.shared()
+                .lease(length + 4);
+        buffer.putInt(length);
+        buffer.put(id);
+        buffer.putInt(index);
+        buffer.putInt(begin);
+        buffer.putInt(blockLength);
+        return buffer;
     }
 }
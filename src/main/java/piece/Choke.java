@@ -1,6 +1,7 @@
 package piece;
 
 import core.PeerConnection;
+import network.BufferPool;
 
 import java.nio.ByteBuffer;
 
@@ -15,30 +16,11 @@ public class Choke extends Message {
 
     @Override
     public ByteBuffer create() {
-        ByteBuffer buffer = ByteBuffer.allocate(5);
+        ByteBuffer buffer = BufferPool.shared()
+                .lease(length + 4);
         System.out.println("Choke");
         buffer.putInt(length);
         buffer.put(id);
         return buffer;
     }
-
-    //Note: check if checking is mandatory due to switch case already checking id
-    @Override
-    public boolean parse(ByteBuffer buffer) {
-        int length = buffer.getInt();
-
-        if (length != this.length) {
-            throw new RuntimeException("Invalid length");
-        }
-
-        byte id = buffer.get();
-
-        if (id != this.id) {
-            throw new RuntimeException("Invalid id");
-        }
-
-        this.peerConnection.setPeerChoking(1);
-        return true;
-
-    }
 }
@@ -1,6 +1,8 @@
 package piece;
 
 import core.bencode.TorrentFile;
+import network.BufferPool;
+import util.GlobalConfig;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
@@ -31,7 +33,8 @@ public class Handshake {
 //        byte[] peerId = "-JB0001-325123235742".getBytes(StandardCharsets.UTF_8);
 //        if (peerId.length != 20) throw new RuntimeException("Invalid peerId length!");
 //        buffer.put(peerId);
-        ByteBuffer buffer = ByteBuffer.allocate(HANDSHAKE_SIZE);
+        ByteBuffer buffer = BufferPool.shared()
+                .lease(BufferPool.SizeClass.HANDSHAKE);
         buffer.put((byte) 19);
         buffer.put("BitTorrent protocol".getBytes(StandardCharsets.UTF_8)); // pstr
         buffer.put(new byte[8]);
@@ -40,7 +43,7 @@ public class Handshake {
         if (infoHash.length != 20) throw new RuntimeException("Invalid infoHash length!");
         buffer.put(infoHash);
 
-        byte[] peerId = "-JB0001-325123235742".getBytes(StandardCharsets.UTF_8);
+        byte[] peerId = GlobalConfig.PEER_ID.getBytes(StandardCharsets.UTF_8);
         if (peerId.length != 20) throw new RuntimeException("Invalid peerId length!");
         buffer.put(peerId);
         return buffer;
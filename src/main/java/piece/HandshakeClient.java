@@ -3,11 +3,11 @@ package piece;
 import core.PeerConnection;
 import core.bencode.TorrentFile;
 import core.network.Peer;
+import network.BufferPool;
+import network.PeerEngine;
 
 import java.io.IOException;
-import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
@@ -19,10 +19,10 @@ import java.util.List;
 public class HandshakeClient {
 
     private static final int CONNECTION_TIMEOUT_MS = 10000;
-    private final Selector se;
+    private final PeerEngine peerEngine;
 
-    public HandshakeClient(Selector selector) {
-        this.se = selector;
+    public HandshakeClient(PeerEngine peerEngine) {
+        this.peerEngine = peerEngine;
     }
 
     public List<PeerConnection> handshake(List<Peer> peers, TorrentFile torrentFile) {
@@ -40,7 +40,7 @@ public class HandshakeClient {
 
                     SocketChannel socketChannel = SocketChannel.open();
                     socketChannel.configureBlocking(false);
-                    socketChannel.connect(new InetSocketAddress(peer.getAddress(), peer.getPort()));
+                    socketChannel.connect(peer.toSocketAddress());
                     countC++;
 
                     socketChannel.register(selector, SelectionKey.OP_CONNECT, peer);
@@ -74,9 +74,13 @@ public class HandshakeClient {
                                     key.interestOps(SelectionKey.OP_WRITE);
                                     ByteBuffer writeBuffer = handshakeMessage.create()
                                             .flip();
-
-                                    while (writeBuffer.hasRemaining()) {
-                                        socketChannel.write(writeBuffer);
+                                    try {
+                                        while (writeBuffer.hasRemaining()) {
+                                            socketChannel.write(writeBuffer);
+                                        }
+                                    } finally {
+                                        BufferPool.shared()
+                                                .release(writeBuffer);
                                     }
                                     countSent++;
                                     key.interestOps(SelectionKey.OP_READ);
@@ -100,8 +104,9 @@ public class HandshakeClient {
                             }
                         } else if (key.isReadable()) {
                             SocketChannel socketChannel = (SocketChannel) key.channel();
+                            ByteBuffer readBuffer = BufferPool.shared()
+                                    .lease(BufferPool.SizeClass.HANDSHAKE);
                             try {
-                                ByteBuffer readBuffer = ByteBuffer.allocate(68);
                                 int read = socketChannel.read(readBuffer);
                                 if (read == -1) {
                                     key.cancel();
@@ -112,10 +117,7 @@ public class HandshakeClient {
                                     PeerConnection peerConnection =
                                             new PeerConnection((Peer) key.attachment(), torrentFile, socketChannel);
                                     connections.add(peerConnection);
-                                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
-                                    SelectableChannel channel = key.channel();
                                     key.cancel();
-                                    channel.register(se, SelectionKey.OP_READ | SelectionKey.OP_WRITE, peerConnection);
                                 } else {
                                     key.cancel();
                                     socketChannel.close();
@@ -124,6 +126,9 @@ public class HandshakeClient {
                                 e.printStackTrace();
                                 key.cancel();
                                 socketChannel.close();
+                            } finally {
+                                BufferPool.shared()
+                                        .release(readBuffer);
                             }
                         }
 
@@ -134,7 +139,8 @@ public class HandshakeClient {
                 e.printStackTrace();
             } finally {
                 selector.close();
-                this.se.wakeup();
+                // channels are deregistered from the handshake selector now, hand them to the engine
+                connections.forEach(peerEngine::register);
                 System.out.println("Connections established: " + connected + " Iterations: " + iterations);
                 System.out.println("Handshake sent: " + countSent + " Handshake read: " + countRead);
             }
@@ -15,18 +15,6 @@ public class Have extends Message {
         this.pieceIndex = pieceIndex;
     }
 
-
-    @Override
-    public boolean parse(ByteBuffer buffer) {
-
-        int length = buffer.getInt();
-        int id = buffer.get();
-        int pieceIndex = buffer.getInt();
-
-        peerConnection.setPieceIndex(pieceIndex);
-        return false;
-    }
-
     @Override
     public ByteBuffer create() {
         return null;
@@ -1,6 +1,7 @@
 package piece;
 
 import core.PeerConnection;
+import network.BufferPool;
 
 import java.nio.ByteBuffer;
 
@@ -18,18 +19,10 @@ public class Interested extends Message {
     public ByteBuffer create() {
         System.out.println("Interested");
         peerConnection.setAmInterested(1);
-        ByteBuffer buffer = ByteBuffer.allocate(5);
+        ByteBuffer buffer = BufferPool.shared()
+                .lease(length + 4);
         buffer.putInt(length);
         buffer.put(id);
         return buffer;
     }
-
-    @Override
-    public boolean parse(ByteBuffer buffer) {
-        int length = buffer.getInt();
-        byte id = buffer.get();
-        assert id == 2;
-        peerConnection.setPeerInterested(1);
-        return false;
-    }
 }
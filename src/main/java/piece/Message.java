@@ -12,8 +12,6 @@ public abstract class Message {
         this.peerConnection = peerConnection;
     }
 
-    public abstract boolean parse(ByteBuffer buffer);
-
     public abstract ByteBuffer create();
 
     public PeerConnection getPeerConnection() {
@@ -1,6 +1,7 @@
 package piece;
 
 import core.PeerConnection;
+import network.BufferPool;
 
 import java.nio.ByteBuffer;
 
@@ -13,19 +14,11 @@ public class NotInterested extends Message {
         super(peerConnection);
     }
 
-    @Override
-    public boolean parse(ByteBuffer buffer) {
-        int length = buffer.getInt();
-        int id = buffer.get();
-        assert  id == 3;
-        peerConnection.setPeerInterested(0);
-        return false;
-    }
-
     @Override
     public ByteBuffer create() {
         peerConnection.setAmInterested(0);
-        ByteBuffer buffer = ByteBuffer.allocate(length + 4);
+        ByteBuffer buffer = BufferPool.shared()
+                .lease(length + 4);
         buffer.putInt(length);
         buffer.put(id);
         return buffer;
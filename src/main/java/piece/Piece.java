@@ -1,7 +1,6 @@
 package piece;
 
 import core.PeerConnection;
-import storage.PieceStorage;
 
 import java.nio.ByteBuffer;
 
@@ -21,25 +20,6 @@ public class Piece extends Message {
         this.length = 9 + block.length;
     }
 
-    @Override
-    public boolean parse(ByteBuffer buffer) {
-        int length = buffer.getInt();
-        int id = buffer.get();
-        int index = buffer.getInt();
-        int begin = buffer.getInt();
-        assert buffer.remaining() == length - 9;
-        byte[] block = new byte[buffer.remaining()];
-        buffer.get(block);
-        PieceStorage pieceStorage = peerConnection.getTorrentFile()
-                .getInfo()
-                .getPiecesStorage()
-                .get(index);
-        assert pieceStorage.getIndex() == index;
-        pieceStorage.updateBlock(begin, block);
-        peerConnection.updateLastPieceReceived();
-        return false;
-    }
-
     @Override
     public ByteBuffer create() {
         peerConnection.updateLastPieceReceived();
@@ -1,10 +1,28 @@
 package piece;
 
+import core.PeerConnection;
 import core.bencode.TorrentFile;
 import storage.PieceStorage;
 
+import java.util.BitSet;
+
 public interface PiecePicker {
 
-    PieceStorage find(TorrentFile torrentFile);
+    /**
+     * @return piece to request blocks of from the peer, null if the peer has nothing we need
+     */
+    PieceStorage find(PeerConnection peerConnection);
+
+    void onBitField(PeerConnection peerConnection, BitSet pieces);
+
+    void onHave(PeerConnection peerConnection, int pieceIndex);
+
+    void onDisconnect(PeerConnection peerConnection);
+
+    /**
+     * Called when a piece has to be downloaded again, e.g. after a failed hash check or when a recheck found the
+     * data of a verified piece bad.
+     */
+    void onPieceReset(TorrentFile torrentFile, int pieceIndex);
 
 }
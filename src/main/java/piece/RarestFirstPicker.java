@@ -1,76 +1,195 @@
 package piece;
 
+import common.TorrentState;
 import core.PeerConnection;
 import core.bencode.TorrentFile;
+import storage.PiecePool;
 import storage.PieceStorage;
 
-import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Picks pieces rarest first, with two preferences on top. Every peer keeps to its own piece until all of its
+ * blocks are requested, so a piece mostly comes from one source, and pieces that are already partially downloaded
+ * are finished before a new one is started, which keeps the number of pieces in flight low.
+ */
 public class RarestFirstPicker implements PiecePicker {
 
-    private final Map<TorrentFile, List<PeerConnection>> torrentConnections;
-    private final Map<TorrentFile, PieceStorage> torrentPieces;
+    private final Map<TorrentFile, Swarm> swarms;
+    private final Map<PeerConnection, PieceStorage> affinity;
+    private final Map<PieceStorage, PeerConnection> owners;
+    private final PiecePool piecePool;
 
-    public RarestFirstPicker(Map<TorrentFile, List<PeerConnection>> torrentConnections) {
-        this.torrentConnections = torrentConnections;
-        this.torrentPieces = new ConcurrentHashMap<>();
+    public RarestFirstPicker(PiecePool piecePool) {
+        this.swarms = new ConcurrentHashMap<>();
+        this.affinity = new ConcurrentHashMap<>();
+        this.owners = new ConcurrentHashMap<>();
+        this.piecePool = piecePool;
     }
 
     @Override
-    public PieceStorage find(TorrentFile torrentFile) {
+    public PieceStorage find(PeerConnection peerConnection) {
         try {
-            PieceStorage currentPiece = torrentPieces.get(torrentFile);
-            List<PeerConnection> peers = new ArrayList<>(torrentConnections.get(torrentFile));
-            List<PieceStorage> pieceStorages = torrentFile.getInfo()
-                    .getPiecesStorage();
+            if (peerConnection.getTorrentFile()
+                    .getMetaData()
+                    .getState() == TorrentState.CHECKING) {
+                return null;
+            }
 
-            int totalPieces = pieceStorages.size();
-            int[] pieces = new int[totalPieces];
+            PieceStorage ownPiece = affinity.get(peerConnection);
+            if (ownPiece != null && isRequestable(ownPiece, peerConnection)) {
+                return ownPiece;
+            }
 
-            for (PeerConnection peer : peers) {
+            Swarm swarm = swarm(peerConnection.getTorrentFile());
+            PieceStorage partialPiece = findPartial(swarm, peerConnection, false);
+            if (partialPiece != null) {
+                return assign(peerConnection, partialPiece);
+            }
 
-                for (int i = peer.getBitField()
-                        .nextSetBit(0); i >= 0; i = peer.getBitField()
-                        .nextSetBit(i + 1)) {
-                    pieces[i]++;
-                }
+            List<PieceStorage> pieceStorages = peerConnection.getTorrentFile()
+                    .getInfo()
+                    .getPiecesStorage();
+            int rarestPieceIndex = swarm.index.findRarest(i -> pieceStorages.get(i)
+                    .isVerified(), i -> peerConnection.havePiece(i) && !pieceStorages.get(i)
+                    .isAttached());
+
+            // buffers are attached only to selected pieces, once the pool is exhausted share pieces already in flight
+            if (rarestPieceIndex != -1 && piecePool.attach(pieceStorages.get(rarestPieceIndex))) {
+                PieceStorage rarestPiece = pieceStorages.get(rarestPieceIndex);
+                swarm.partial.add(rarestPiece);
+                return assign(peerConnection, rarestPiece);
             }
 
-            if (currentPiece != null && pieces[currentPiece.getIndex()] > 0 && !currentPiece.isVerified() && !currentPiece.areAllBlockRequested()) {
-                return currentPiece;
+            PieceStorage sharedPiece = findPartial(swarm, peerConnection, true);
+            return sharedPiece != null ? assign(peerConnection, sharedPiece) : null;
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * @param shared whether pieces another peer is working on may be returned
+     * @return piece in flight the peer can continue, the one with the most downloaded data first
+     */
+    private PieceStorage findPartial(Swarm swarm, PeerConnection peerConnection, boolean shared) {
+        PieceStorage best = null;
+
+        Iterator<PieceStorage> iterator = swarm.partial.iterator();
+        while (iterator.hasNext()) {
+            PieceStorage piece = iterator.next();
+            if (piece.isVerified() || !piece.isAttached()) {
+                iterator.remove();
+                continue;
             }
 
-            int rarest = -1;
-            int rarestPieceIndex = -1;
-
-            for (int i = 0; i < pieces.length; i++) {
-                int pieceAmount = pieces[i];
-                if (!pieceStorages.get(i)
-                        .isVerified() && !pieceStorages.get(i)
-                        .areAllBlockRequested() && pieceAmount > 0 && pieceAmount > rarest) {
-                    rarest = pieceAmount;
-                    rarestPieceIndex = i;
-                }
+            PeerConnection owner = owners.get(piece);
+            boolean ownedByOther = owner != null && owner != peerConnection && owner.getOwner() != null;
+            if ((shared || !ownedByOther) && isRequestable(piece, peerConnection)
+                    && (best == null || piece.getAmountOfDownloadedBytes() > best.getAmountOfDownloadedBytes())) {
+                best = piece;
             }
+        }
+        return best;
+    }
 
+    private boolean isRequestable(PieceStorage piece, PeerConnection peerConnection) {
+        return peerConnection.havePiece(piece.getIndex()) && !piece.isVerified() && piece.isAttached()
+                && !piece.areAllBlockRequested();
+    }
 
-            if (rarestPieceIndex != -1) {
-                currentPiece = pieceStorages.get(rarestPieceIndex);
+    private PieceStorage assign(PeerConnection peerConnection, PieceStorage piece) {
+        PieceStorage previous = affinity.put(peerConnection, piece);
+        if (previous != null && previous != piece) {
+            owners.remove(previous, peerConnection);
+        }
+        owners.put(piece, peerConnection);
+        return piece;
+    }
 
-                this.torrentPieces.put(torrentFile, currentPiece);
+    @Override
+    public void onBitField(PeerConnection peerConnection, BitSet pieces) {
+        Swarm swarm = swarm(peerConnection.getTorrentFile());
+        synchronized (swarm) {
+            // the connection may have been closed while its BITFIELD was queued on a ReadTaskWorker lane
+            if (peerConnection.getOwner() == null) {
+                return;
+            }
+            BitSet counted = swarm.counted.get(peerConnection);
+            if (counted != null) {
+                swarm.index.subtract(counted);
             }
+            swarm.index.add(pieces);
+            swarm.counted.put(peerConnection, (BitSet) pieces.clone());
+        }
+    }
 
+    @Override
+    public void onHave(PeerConnection peerConnection, int pieceIndex) {
+        Swarm swarm = swarm(peerConnection.getTorrentFile());
+        synchronized (swarm) {
+            if (peerConnection.getOwner() == null || pieceIndex < 0 || pieceIndex >= swarm.pieces) {
+                return;
+            }
+            BitSet counted = swarm.counted.computeIfAbsent(peerConnection, p -> new BitSet(swarm.pieces));
+            if (!counted.get(pieceIndex)) {
+                counted.set(pieceIndex);
+                swarm.index.increment(pieceIndex);
+            }
+        }
+    }
 
-            return currentPiece;
+    @Override
+    public void onDisconnect(PeerConnection peerConnection) {
+        PieceStorage ownPiece = affinity.remove(peerConnection);
+        if (ownPiece != null) {
+            owners.remove(ownPiece, peerConnection);
+        }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
+        Swarm swarm = swarm(peerConnection.getTorrentFile());
+        synchronized (swarm) {
+            BitSet counted = swarm.counted.remove(peerConnection);
+            if (counted != null) {
+                swarm.index.subtract(counted);
+            }
         }
     }
 
+    @Override
+    public void onPieceReset(TorrentFile torrentFile, int pieceIndex) {
+        // a verified piece was removed from the index on the way, it has to be selectable again
+        swarm(torrentFile).index.restore(pieceIndex);
+    }
+
+    private Swarm swarm(TorrentFile torrentFile) {
+        return swarms.computeIfAbsent(torrentFile, t -> new Swarm(t.getInfo()
+                                                                           .getPiecesStorage()
+                                                                           .size()));
+    }
+
+    /**
+     * Availability of the pieces of one torrent, together with what every peer contributed to it and the pieces
+     * that are in flight.
+     */
+    private static final class Swarm {
+
+        private final int pieces;
+        private final AvailabilityIndex index;
+        private final Map<PeerConnection, BitSet> counted = new HashMap<>();
+        private final Set<PieceStorage> partial = ConcurrentHashMap.newKeySet();
+
+        private Swarm(int pieces) {
+            this.pieces = pieces;
+            this.index = new AvailabilityIndex(pieces);
+        }
+    }
 
 }
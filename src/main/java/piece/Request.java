@@ -1,6 +1,7 @@
 package piece;
 
 import core.PeerConnection;
+import network.BufferPool;
 import exceptions.NoAvailableBlock;
 import storage.PieceStorage;
 
@@ -12,44 +13,58 @@ public class Request extends Message {
     private final byte id = 6;
 
     private final PieceStorage pieceStorage;
+    private final Block block;
+    private Block sent;
 
     public Request(PieceStorage pieceStorage, PeerConnection peerConnection) {
         super(peerConnection);
         this.pieceStorage = pieceStorage;
+        this.block = null;
     }
 
-    public Request(PeerConnection peerConnection) {
+    /**
+     * Requests the given block again, without taking it from the piece, used for duplicate requests in end game.
+     */
+    public Request(Block block, PeerConnection peerConnection) {
         super(peerConnection);
         this.pieceStorage = null;
+        this.block = block;
     }
 
-    @Override
-    public boolean parse(ByteBuffer buffer) {
-        buffer.flip();
-        int length = buffer.getInt();
-        int id = buffer.get();
-        if(length != this.length && id != this.id) {
-            throw new IllegalStateException("Invalid message");
-        }
-        int index = buffer.getInt();
-        int begin = buffer.getInt();
-        int blockLength = buffer.getInt();
-        return false;
+    public Request(PeerConnection peerConnection) {
+        super(peerConnection);
+        this.pieceStorage = null;
+        this.block = null;
     }
 
     @Override
     public ByteBuffer create() {
+        if (this.block != null) {
+            return create(this.block.getPieceIndex(), this.block);
+        }
         if(pieceStorage == null ){
             throw new RuntimeException("No piece available");
         }
         int index = pieceStorage.getIndex();
-        Block block = pieceStorage.getNextBlock();
+        Block block = pieceStorage.getNextBlock(peerConnection);
 
         if (block == null) {
             throw new NoAvailableBlock(String.format("No available block for piece with index %d", index));
         }
+        return create(index, block);
+    }
+
+    /**
+     * @return block the last {@link #create()} requested, null before
+     */
+    public Block getBlock() {
+        return sent;
+    }
 
-        ByteBuffer buffer = ByteBuffer.allocate(length + 4);
+    private ByteBuffer create(int index, Block block) {
+        this.sent = block;
+        ByteBuffer buffer = BufferPool.shared()
+                .lease(length + 4);
         buffer.putInt(length);
         buffer.put(id);
         buffer.putInt(index);
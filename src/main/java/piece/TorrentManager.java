@@ -1,46 +1,74 @@
 package piece;
 
+import common.TorrentState;
 import core.PeerConnection;
 import core.SessionLoader;
 import core.bencode.TorrentFile;
 import core.network.Peer;
-import storage.PieceStorage;
+import network.BufferPool;
+import network.ConnectionHandler;
+import network.EngineMetrics;
+import network.PeerEngine;
+import network.ReactorGroup;
+import network.VirtualThreadEngine;
+import storage.*;
 import tasks.*;
-import util.FileUtils;
+import util.UserConfig;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
-import java.nio.channels.SocketChannel;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 public class TorrentManager {
 
-    private final Selector selector;
+    private static final int MAX_PIECES_IN_FLIGHT = 64;
+    private static final byte PIECE_ID = 7;
+    private static final int MAINTENANCE_PERIOD_SECONDS = 10;
+
+    private final PeerEngine peerEngine;
     private final Map<TorrentFile, List<Peer>> torrentPeers;
     private final Map<TorrentFile, List<PeerConnection>> torrentConnections;
     private final Set<TorrentFile> managedTorrents;
+    private final Map<TorrentFile, FileLayout> layouts;
+    private final ExecutorService allocator;
     private final ReadTaskWorker readTaskWorker;
     private final DownloadScheduler downloadScheduler;
-    private final FileUtils fileUtils;
+    private final DiskWriter diskWriter;
+    private final PieceVerifier pieceVerifier;
+    private final RecheckService recheckService;
     private final HandshakeClient handshakeClient;
     private final SessionLoader sessionLoader;
+    private final PiecePool piecePool;
+    private EngineMetrics lastMetrics;
 
     public TorrentManager() {
         try {
-            this.selector = Selector.open();
+            this.peerEngine = createEngine();
             this.torrentPeers = new ConcurrentHashMap<>();
             this.torrentConnections = new ConcurrentHashMap<>();
-            this.downloadScheduler = new DownloadScheduler(new RarestFirstPicker(torrentConnections));
+            this.piecePool = new PiecePool(MAX_PIECES_IN_FLIGHT);
+            this.downloadScheduler = new DownloadScheduler(new RarestFirstPicker(piecePool));
             this.readTaskWorker = new ReadTaskWorker(downloadScheduler);
-            this.managedTorrents = new HashSet<>();
-            this.fileUtils = new FileUtils(managedTorrents);
-            this.handshakeClient = new HandshakeClient(selector);
+            this.managedTorrents = ConcurrentHashMap.newKeySet();
+            this.layouts = new ConcurrentHashMap<>();
+            // files are allocated one torrent at a time, preallocating writes every byte of them
+            this.allocator = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "FileLayout");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // pool slots of persisted pieces are free again, peers that ran out of pieces can continue
+            this.diskWriter = new DiskWriter(piecePool, this::requestMore);
+            this.pieceVerifier = new PieceVerifier(UserConfig.HASH_THREADS);
+            this.recheckService = new RecheckService(UserConfig.HASH_THREADS, this::requestMore);
+            this.handshakeClient = new HandshakeClient(peerEngine);
             this.sessionLoader = new SessionLoader();
         } catch (IOException e) {
             e.printStackTrace();
@@ -50,16 +78,71 @@ public class TorrentManager {
 
     public void init() {
         List<TorrentFile> torrentFiles = sessionLoader.onLoad();
-        managedTorrents.addAll(torrentFiles);
-        torrentFiles.forEach(t-> torrentConnections.put(t, new ArrayList<>()));
+        torrentFiles.forEach(torrentFile -> addTorrent(torrentFile).thenAccept(created -> {
+            if (needsRecheck(torrentFile, created)) {
+                recheckService.start(torrentFile);
+            } else if (sessionLoader.isMissingResume(torrentFile)) {
+                // nothing was ever written, record that so the next start does not have to look at the disk
+                torrentFile.getMetaData()
+                        .sync();
+            }
+        }));
         executeSelector();
         readTaskWorker.start();
         downloadScheduler.start();
-        fileUtils.init();
+        diskWriter.start();
+        Runtime.getRuntime()
+                .addShutdownHook(new Thread(this::stop, "TorrentManager-shutdown"));
 
         readTasks();
     }
 
+    /**
+     * Stops the engine and the workers. With jbit.bufferDebug set, every buffer that is still leased once the
+     * connections are closed is reported as a leak.
+     */
+    public void stop() {
+        peerEngine.stop();
+        readTaskWorker.stop();
+        downloadScheduler.stop();
+        diskWriter.stop();
+        pieceVerifier.stop();
+        recheckService.stop();
+        allocator.shutdownNow();
+
+        if (UserConfig.BUFFER_DEBUG) {
+            int leaks = BufferPool.shared()
+                    .reportLeaks();
+            System.out.println("Buffers still leased at shutdown: " + leaks);
+        }
+    }
+
+    /**
+     * A torrent without resume data is only checked when its files were already on disk, e.g. data that was
+     * downloaded elsewhere. Files that were just created hold nothing but zeros.
+     */
+    private boolean needsRecheck(TorrentFile torrentFile, boolean createdFiles) {
+        return UserConfig.RECHECK_ON_START || (sessionLoader.isMissingResume(torrentFile) && !createdFiles)
+                || torrentFile.getMetaData()
+                .getState() == TorrentState.CHECKING;
+    }
+
+    /**
+     * Lets every unchoked connection of the torrent request again, e.g. after blocks were reset or a recheck
+     * finished.
+     */
+    private void requestMore(TorrentFile torrentFile) {
+        new ArrayList<>(torrentConnections.getOrDefault(torrentFile, List.of()))
+                .stream()
+                .filter(connection -> connection.getPeerChoking() == 0)
+                .forEach(connection -> downloadScheduler.enqueueEvent(
+                        new WriteEvent(connection, WriteEvent.EventType.FREE_SPACE)));
+    }
+
+    public RecheckService getRecheckService() {
+        return recheckService;
+    }
+
     public Map<TorrentFile, List<PeerConnection>> getTorrentPeers() {
         return this.torrentConnections;
     }
@@ -81,119 +164,168 @@ public class TorrentManager {
 
 
     public void executeSelector() {
-        Executors.newSingleThreadExecutor()
-                .execute(() -> {
-                    while (true) {
-                        try {
-                            selector.select();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                            throw new RuntimeException(e);
-                        }
-                        Iterator<SelectionKey> iterator = selector.selectedKeys()
-                                .iterator();
-
-
-                        while (iterator.hasNext()) {
-                            SelectionKey key = iterator.next();
-                            iterator.remove();
-                            try {
-
-                                if (key.isReadable()) {
-                                    SocketChannel channel = (SocketChannel) key.channel();
-                                    if (!(key.attachment() instanceof PeerConnection peerConnection)) {
-                                        System.out.println("Key not valid");
-                                        key.cancel();
-                                        channel.close();
-                                        continue;
-                                    }
-
-
-                                    ByteBuffer buffer = peerConnection.getBuffer();
-
-                                    int read = 0;
-                                    try {
-                                        read = channel.read(buffer);
-                                    } catch (Exception e) {
-                                        e.printStackTrace();
-                                        key.cancel();
-                                        channel.close();
-                                        torrentConnections.get(peerConnection.getTorrentFile())
-                                                .remove(peerConnection);
-                                    }
-
-
-                                    if (read == -1) {
-                                        PeerConnection peer = (PeerConnection) key.attachment();
-                                        System.out.println("Removing connection");
-                                        torrentConnections.get(peer.getTorrentFile())
-                                                .remove(peer);
-                                        key.cancel();
-                                        channel.close();
-                                    }
-
-                                    buffer.flip();
-
-                                    while (buffer.remaining() >= 4) {
-                                        buffer.mark();
-
-                                        int messageLength = buffer.getInt();
-                                        //byte id = buffer.get();
-                                        //System.out.println("Message length: " + messageLength + " ID: " + id);
-
-                                        if (buffer.remaining() < messageLength) {
-                                            buffer.reset();
-                                            break;
-                                        }
-
-                                        //read a whole message, make immutable message object and add it to the task queue
-                                        byte[] messageBytes = new byte[messageLength + 4];
-                                        buffer.reset();
-                                        buffer.get(messageBytes);
-                                        Task task = new Task(messageBytes, TaskType.READ, peerConnection);
-                                        peerConnection.getTasks()
-                                                .addTask(task);
-                                        readTaskWorker.addTask(task);
-
-                                    }
-
-                                    buffer.compact();
-
-                                } else if (key.isWritable()) {
-
-                                    PeerConnection peerConnection = (PeerConnection) key.attachment();
-                                    TasksContext tasks = peerConnection.getTasks();
-                                    Task task = tasks.getTask(TaskType.WRITE);
-                                    if (task != null) {
-                                        ByteBuffer buffer = ByteBuffer.wrap(task.getMessage());
-                                        while (buffer.hasRemaining()) {
-                                            peerConnection.getChannel()
-                                                    .write(buffer);
-                                        }
-                                        downloadScheduler.enqueueEvent(
-                                                new WriteEvent(peerConnection, WriteEvent.EventType.FREE_SPACE));
-                                    }
-                                }
-                            } catch (IOException e) {
-                                try {
-                                    key.channel()
-                                            .close();
-                                } catch (Exception ignored) {}
-                                key.cancel();
-                                e.printStackTrace();
-                            }
-                        }
+        peerEngine.start();
+    }
+
+    private PeerEngine createEngine() throws IOException {
+        if ("virtual".equalsIgnoreCase(UserConfig.ENGINE)) {
+            // every connection has a reading thread of its own, messages are handled on it without a copy
+            return new VirtualThreadEngine(connectionHandler(true));
+        }
+        return new ReactorGroup(UserConfig.REACTOR_THREADS, connectionHandler(false));
+    }
+
+    /**
+     * PIECE messages are always ingested on the thread that read them. Other messages are decoded in place on
+     * that thread too when dispatching inline, otherwise a copy is queued on the lane of the connection, so a
+     * reactor serving many peers does not handle their messages between reads.
+     */
+    private ConnectionHandler connectionHandler(boolean inlineDispatch) {
+        return new ConnectionHandler() {
+            @Override
+            public void onRead(PeerConnection peerConnection, ByteBuffer buffer) {
+                while (buffer.remaining() >= 4) {
+                    int start = buffer.position();
+                    int messageLength = buffer.getInt(start);
+
+                    if (buffer.remaining() - 4 < messageLength) {
+                        break;
                     }
-                });
+
+                    if (messageLength > 9 && buffer.get(start + 4) == PIECE_ID) {
+                        buffer.position(start + 4);
+                        ingestPiece(peerConnection, buffer, messageLength);
+                        continue;
+                    }
+
+                    if (inlineDispatch) {
+                        readTaskWorker.process(peerConnection, buffer, start);
+                    } else {
+                        readTaskWorker.addTask(peerConnection, buffer, start);
+                    }
+                    buffer.position(start + 4 + messageLength);
+                }
+            }
+
+            @Override
+            public void onFlushed(PeerConnection peerConnection) {
+                downloadScheduler.enqueueEvent(new WriteEvent(peerConnection, WriteEvent.EventType.FREE_SPACE));
+            }
+
+            @Override
+            public void onClosed(PeerConnection peerConnection) {
+                downloadScheduler.onDisconnect(peerConnection);
+                List<PeerConnection> connections = torrentConnections.get(peerConnection.getTorrentFile());
+                if (connections != null) {
+                    connections.remove(peerConnection);
+                }
+            }
+        };
+    }
+
+    /**
+     * PIECE fast path, decodes the header in place and hands the block payload to the piece storage
+     * straight from the connection buffer. The buffer is positioned after the message when this returns.
+     */
+    private void ingestPiece(PeerConnection peerConnection, ByteBuffer buffer, int messageLength) {
+        int messageEnd = buffer.position() + messageLength;
+        int limit = buffer.limit();
+
+        buffer.get();
+        int index = buffer.getInt();
+        int begin = buffer.getInt();
+
+        List<PieceStorage> pieces = peerConnection.getTorrentFile()
+                .getInfo()
+                .getPiecesStorage();
+
+        if (index >= 0 && index < pieces.size()) {
+            buffer.limit(messageEnd);
+            int length = buffer.remaining();
+            if (pieces.get(index)
+                    .updateBlock(begin, buffer)) {
+                peerConnection.getTorrentFile()
+                        .getStats()
+                        .addDownloaded(length);
+                downloadScheduler.onBlockReceived(peerConnection, index, begin, length);
+            }
+            buffer.limit(limit);
+            peerConnection.updateLastPieceReceived();
+            if (peerConnection.getRequestWindow()
+                    .onBlockReceived(index, begin, messageLength - 9)) {
+                downloadScheduler.enqueueEvent(new WriteEvent(peerConnection, WriteEvent.EventType.FREE_SPACE));
+            }
+        }
+
+        buffer.position(messageEnd);
     }
 
     public void addTorrentPeers(TorrentFile torrentFile, List<Peer> peers) {
         this.torrentPeers.put(torrentFile, peers);
     }
 
-    public void addTorrent(TorrentFile torrentFile){
-        this.managedTorrents.add(torrentFile);
-        this.torrentConnections.put(torrentFile, new ArrayList<>());
+    /**
+     * Allocates the files of the torrent in the background, the torrent is managed, and announced, once they are.
+     *
+     * @return future completed with true if every file of the torrent was created by the allocation, i.e. nothing
+     * of it was on disk yet
+     */
+    public CompletableFuture<Boolean> addTorrent(TorrentFile torrentFile){
+        PieceListener listener = new PieceListener() {
+            @Override
+            public void onPieceCompleted(PieceStorage piece) {
+                pieceVerifier.submit(piece);
+            }
+
+            @Override
+            public void onPieceVerified(PieceStorage piece) {
+                diskWriter.submit(torrentFile, piece);
+            }
+
+            @Override
+            public void onPieceFailed(PieceStorage piece) {
+                downloadScheduler.onPieceReset(torrentFile, piece.getIndex());
+                // blocks of the piece were reset, let unchoked peers request them again
+                requestMore(torrentFile);
+            }
+        };
+        torrentFile.getInfo()
+                .getPiecesStorage()
+                .forEach(piece -> piece.setListener(listener));
+        FileLayout layout = new FileLayout(torrentFile.getStorage());
+        layouts.put(torrentFile, layout);
+        return CompletableFuture.supplyAsync(() -> allocate(layout), allocator)
+                .thenApply(created -> {
+                    this.torrentConnections.put(torrentFile, new CopyOnWriteArrayList<>());
+                    this.managedTorrents.add(torrentFile);
+                    return created;
+                });
+    }
+
+    private boolean allocate(FileLayout layout) {
+        try {
+            layout.allocate(UserConfig.ALLOCATION_MODE);
+            return layout.hasCreatedAllFiles();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * @return share of the files of the torrent that are allocated, 1.0 once the torrent is managed
+     */
+    public double getAllocationProgress(TorrentFile torrentFile) {
+        FileLayout layout = layouts.get(torrentFile);
+        return layout == null || managedTorrents.contains(torrentFile) ? 1.0 : layout.getProgress();
+    }
+
+    public PeerEngine getPeerEngine() {
+        return peerEngine;
+    }
+
+    public PiecePool getPiecePool() {
+        return piecePool;
     }
 
     public List<PeerConnection> getTorrentConnections(TorrentFile torrentFile) {
@@ -209,6 +341,13 @@ public class TorrentManager {
                 .scheduleAtFixedRate(() -> {
                     try {
                         LocalDateTime now = LocalDateTime.now();
+                        layouts.keySet()
+                                .stream()
+                                .filter(torrentFile -> !managedTorrents.contains(torrentFile))
+                                .forEach(torrentFile -> System.out.printf("Allocating %s: %.1f%%%n",
+                                                                          torrentFile.getInfo()
+                                                                                  .getName(),
+                                                                          getAllocationProgress(torrentFile) * 100));
                         for (TorrentFile torrentFile : managedTorrents) {
 
                             List<PieceStorage> piecesStorage = torrentFile.getInfo()
@@ -220,24 +359,30 @@ public class TorrentManager {
                             for (PeerConnection peerConnection : peerConnections) {
                                 if (now.minusSeconds(60)
                                         .isAfter(peerConnection.getLastPieceReceived())) {
-                                    try {
-                                        System.out.println("Removing IDLE connection");
-                                        peerConnection.getPeerChannel()
-                                                .close();
-                                        torrentConnections.get(torrentFile)
-                                                .remove(peerConnection);
-                                    } catch (Exception e) {
-                                        e.printStackTrace();
-                                    }
+                                    System.out.println("Removing IDLE connection");
+                                    torrentConnections.get(torrentFile)
+                                            .remove(peerConnection);
+                                    peerEngine.close(peerConnection);
                                 }
                             }
                         }
+                        logEngineMetrics();
                     } catch (Exception e) {
                         System.out.println("Error in read tasks");
                         e.printStackTrace();
                     }
-                }, 0, 10, TimeUnit.SECONDS);
+                }, 0, MAINTENANCE_PERIOD_SECONDS, TimeUnit.SECONDS);
 
 
     }
+
+    /**
+     * Logs the counters of the engine together with the read rate since the previous call.
+     */
+    private void logEngineMetrics() {
+        EngineMetrics metrics = peerEngine.getMetrics();
+        long bytesRead = metrics.getBytesRead() - (lastMetrics == null ? 0 : lastMetrics.getBytesRead());
+        System.out.printf("%s, %.2f MB/s%n", metrics, bytesRead / (1024.0 * 1024.0) / MAINTENANCE_PERIOD_SECONDS);
+        lastMetrics = metrics;
+    }
 }
@@ -0,0 +1,130 @@
+package storage;
+
+import common.TorrentState;
+import core.bencode.TorrentFile;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Persists verified pieces on a dedicated thread. Pieces are queued as they are verified and drained in batches.
+ * Every piece is forced to disk through the mapping it was written through, in index order so that adjacent pieces
+ * are written back in file order. Forcing a whole run at once would mean mapping it again just to sync it. The
+ * journal records of a batch are appended per torrent with a single force. Submitting never blocks the hashing
+ * threads: a verified piece keeps its {@link PiecePool} slot until it is persisted, so a slow disk exhausts the
+ * pool and the picker stops starting new pieces, which pushes back on request scheduling instead.
+ */
+public class DiskWriter {
+
+    private static final int MAX_BATCH = 64;
+
+    private final BlockingQueue<PendingPiece> queue;
+    private final PiecePool piecePool;
+    private final Consumer<TorrentFile> onPersisted;
+
+    private Thread thread;
+    private volatile boolean running = false;
+
+    /**
+     * @param onPersisted called with every torrent after a batch of its pieces was persisted and their pool
+     *                    slots were released
+     */
+    public DiskWriter(PiecePool piecePool, Consumer<TorrentFile> onPersisted) {
+        this.piecePool = piecePool;
+        this.onPersisted = onPersisted;
+        // bounded by the piece pool, every queued piece holds one of its slots
+        this.queue = new LinkedBlockingQueue<>();
+    }
+
+    public synchronized void start() {
+        if (running) {
+            throw new IllegalStateException("DiskWriter is already running");
+        }
+        running = true;
+        thread = new Thread(this::write, "DiskWriter");
+        thread.start();
+    }
+
+    public void submit(TorrentFile torrentFile, PieceStorage piece) {
+        queue.add(new PendingPiece(torrentFile, piece));
+    }
+
+    private void write() {
+        List<PendingPiece> batch = new ArrayList<>(MAX_BATCH);
+
+        while (running) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                persist(batch);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+                Thread.currentThread()
+                        .interrupt();
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void persist(List<PendingPiece> batch) {
+        Map<TorrentFile, List<PieceStorage>> byTorrent = new LinkedHashMap<>();
+        for (PendingPiece pending : batch) {
+            byTorrent.computeIfAbsent(pending.torrentFile, t -> new ArrayList<>())
+                    .add(pending.piece);
+        }
+
+        byTorrent.forEach((torrentFile, pieces) -> {
+            pieces.sort(Comparator.comparingInt(PieceStorage::getIndex));
+            pieces.forEach(PieceStorage::flush);
+            torrentFile.getMetaData()
+                    .updateBitField(pieces.stream()
+                                            .mapToInt(PieceStorage::getIndex)
+                                            .toArray());
+            pieces.forEach(piecePool::release);
+
+            int totalPieces = torrentFile.getInfo()
+                    .getPiecesStorage()
+                    .size();
+            if (torrentFile.getMetaData()
+                    .getBitField()
+                    .cardinality() == totalPieces) {
+                torrentFile.getMetaData()
+                        .setState(TorrentState.FINISHED);
+            }
+            onPersisted.accept(torrentFile);
+        });
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private static final class PendingPiece {
+
+        private final TorrentFile torrentFile;
+        private final PieceStorage piece;
+
+        private PendingPiece(TorrentFile torrentFile, PieceStorage piece) {
+            this.torrentFile = torrentFile;
+            this.piece = piece;
+        }
+    }
+}
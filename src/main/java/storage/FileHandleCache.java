@@ -0,0 +1,65 @@
+package storage;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of open file channels, the least recently used channel is closed once the limit is reached.
+ * Buffers mapped from an evicted channel stay valid.
+ */
+public class FileHandleCache {
+
+    private final int capacity;
+    private final Map<Path, FileChannel> channels;
+
+    public FileHandleCache(int capacity) {
+        this.capacity = capacity;
+        this.channels = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, FileChannel> eldest) {
+                if (size() > FileHandleCache.this.capacity) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized FileChannel get(Path path) throws IOException {
+        FileChannel channel = channels.get(path);
+
+        if (channel == null || !channel.isOpen()) {
+            Files.createDirectories(path.getParent());
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE);
+            channels.put(path, channel);
+        }
+
+        return channel;
+    }
+
+    public synchronized void close(Path path) {
+        FileChannel channel = channels.remove(path);
+        if (channel != null) {
+            closeQuietly(channel);
+        }
+    }
+
+    public synchronized int size() {
+        return channels.size();
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
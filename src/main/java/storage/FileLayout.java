@@ -0,0 +1,106 @@
+package storage;
+
+import common.AllocationMode;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates the directory tree and the files of a torrent before any piece is written,
+ * instead of letting them grow at whatever offsets the pieces arrive in.
+ */
+public class FileLayout {
+
+    private static final int ZERO_CHUNK = 1024 * 1024;
+
+    private final Path[] paths;
+    private final FileSpanIndex spanIndex;
+    private final AtomicLong allocatedBytes = new AtomicLong(0);
+    private int createdFiles;
+
+    public FileLayout(MappedFileStorage storage) {
+        this.paths = storage.getPaths();
+        this.spanIndex = storage.getSpanIndex();
+    }
+
+    /**
+     * Brings every file to its final length. Data that is already on disk is never overwritten and
+     * files that are longer than expected are left alone.
+     */
+    public void allocate(AllocationMode mode) throws IOException {
+        allocatedBytes.set(0);
+        createdFiles = 0;
+        // the zeros are never modified, one buffer serves every file
+        ByteBuffer zeros = mode == AllocationMode.PREALLOCATE ? ByteBuffer.allocateDirect(ZERO_CHUNK) : null;
+
+        for (int i = 0; i < paths.length; i++) {
+            Path parent = paths[i].getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            if (Files.notExists(paths[i])) {
+                createdFiles++;
+            }
+
+            if (mode == AllocationMode.PREALLOCATE) {
+                preallocate(paths[i], spanIndex.getFileLength(i), zeros);
+            } else {
+                extend(paths[i], spanIndex.getFileLength(i));
+            }
+        }
+    }
+
+    private void extend(Path path, long length) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            if (file.length() < length) {
+                file.setLength(length);
+            }
+        }
+        allocatedBytes.addAndGet(length);
+    }
+
+    private void preallocate(Path path, long length, ByteBuffer zeros) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long position = Math.min(channel.size(), length);
+            allocatedBytes.addAndGet(position);
+
+            while (position < length) {
+                zeros.clear();
+                zeros.limit((int) Math.min(ZERO_CHUNK, length - position));
+
+                while (zeros.hasRemaining()) {
+                    int written = channel.write(zeros, position);
+                    position += written;
+                    allocatedBytes.addAndGet(written);
+                }
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * @return true if the last allocation created every file, so there is no data on disk that needs checking
+     */
+    public boolean hasCreatedAllFiles() {
+        return createdFiles == paths.length;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    public long getTotalBytes() {
+        return spanIndex.getTotalLength();
+    }
+
+    public double getProgress() {
+        long totalBytes = spanIndex.getTotalLength();
+        return totalBytes == 0 ? 1.0 : (double) allocatedBytes.get() / totalBytes;
+    }
+}
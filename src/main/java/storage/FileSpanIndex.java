@@ -0,0 +1,142 @@
+package storage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable prefix sum index over the files of a torrent. Maps a piece or a payload byte range to the
+ * file spans it covers with a binary search, instead of walking the file list for every lookup.
+ */
+public final class FileSpanIndex {
+
+    private final long[] starts;
+    private final long pieceLength;
+
+    /**
+     * @param lengths     file lengths in torrent order
+     * @param pieceLength nominal piece length of the torrent
+     */
+    public FileSpanIndex(long[] lengths, long pieceLength) {
+        this.starts = new long[lengths.length + 1];
+        this.pieceLength = pieceLength;
+
+        for (int i = 0; i < lengths.length; i++) {
+            if (lengths[i] < 0) {
+                throw new IllegalArgumentException(String.format("File %d has negative length %d", i, lengths[i]));
+            }
+            starts[i + 1] = starts[i] + lengths[i];
+        }
+    }
+
+    /**
+     * @return index of the file holding the payload byte at the given offset, zero length files are never returned
+     */
+    public int fileAt(long offset) {
+        if (offset < 0 || offset >= getTotalLength()) {
+            throw new IndexOutOfBoundsException(String.format("Offset %d outside of payload of %d bytes", offset,
+                                                              getTotalLength()));
+        }
+
+        // first file whose end lies past the offset
+        int low = 0;
+        int high = getFileCount() - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle + 1] > offset) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    public List<Span> pieceSpans(int pieceIndex, int length) {
+        return spans(pieceIndex * pieceLength, length);
+    }
+
+    /**
+     * @return spans covering the payload range [offset, offset + length) in file order
+     */
+    public List<Span> spans(long offset, long length) {
+        if (length < 0 || offset + length > getTotalLength()) {
+            throw new IndexOutOfBoundsException(String.format("Range %d+%d exceeds torrent payload", offset, length));
+        }
+
+        List<Span> spans = new ArrayList<>(2);
+        if (length == 0) {
+            return spans;
+        }
+
+        long end = offset + length;
+        long position = offset;
+        for (int i = fileAt(offset); position < end; i++) {
+            long count = Math.min(starts[i + 1], end) - position;
+            if (count > 0) {
+                spans.add(new Span(i, position - starts[i], position - offset, count));
+                position += count;
+            }
+        }
+        return spans;
+    }
+
+    public int getFileCount() {
+        return starts.length - 1;
+    }
+
+    public long getFileStart(int fileIndex) {
+        return starts[fileIndex];
+    }
+
+    public long getFileLength(int fileIndex) {
+        return starts[fileIndex + 1] - starts[fileIndex];
+    }
+
+    public long getTotalLength() {
+        return starts[starts.length - 1];
+    }
+
+    public long getPieceLength() {
+        return pieceLength;
+    }
+
+    /**
+     * Part of a payload range that falls into a single file.
+     */
+    public static final class Span {
+
+        private final int fileIndex;
+        private final long fileOffset;
+        private final long rangeOffset;
+        private final long length;
+
+        Span(int fileIndex, long fileOffset, long rangeOffset, long length) {
+            this.fileIndex = fileIndex;
+            this.fileOffset = fileOffset;
+            this.rangeOffset = rangeOffset;
+            this.length = length;
+        }
+
+        public int getFileIndex() {
+            return fileIndex;
+        }
+
+        /**
+         * @return offset of the span inside its file
+         */
+        public long getFileOffset() {
+            return fileOffset;
+        }
+
+        /**
+         * @return offset of the span relative to the start of the requested range
+         */
+        public long getRangeOffset() {
+            return rangeOffset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package storage;
+
+import core.bencode.TorrentFile;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Disk backed piece store. Blocks are written straight into memory mapped regions of the target files,
+ * so the heap footprint does not depend on the size of the torrent.
+ */
+public class MappedFileStorage implements AutoCloseable {
+
+    private static final int MAX_OPEN_FILES = 128;
+    private static final FileHandleCache HANDLES = new FileHandleCache(MAX_OPEN_FILES);
+
+    private final Path[] paths;
+    private final FileSpanIndex spanIndex;
+
+    public MappedFileStorage(TorrentFile.Info info, Path root) {
+        this.spanIndex = info.getSpanIndex();
+        Path normalizedRoot = root.toAbsolutePath()
+                .normalize();
+
+        List<TorrentFile.Info.Files> files = info.getFiles();
+        if (files != null) {
+            this.paths = new Path[files.size()];
+
+            for (int i = 0; i < files.size(); i++) {
+                TorrentFile.Info.Files file = files.get(i);
+                String filePath = file.getPath()
+                        .startsWith("/") ? file.getPath()
+                        .substring(1) : file.getPath();
+                this.paths[i] = resolve(normalizedRoot, filePath);
+            }
+        } else {
+            String name = info.getName() != null ? info.getName() : "TorrentFileName";
+            this.paths = new Path[]{resolve(normalizedRoot, name)};
+        }
+    }
+
+    private static Path resolve(Path root, String relative) {
+        Path path = root.resolve(relative)
+                .normalize();
+        if (!path.startsWith(root)) {
+            throw new IllegalArgumentException(String.format("File path %s escapes download directory", relative));
+        }
+        return path;
+    }
+
+    public MappedRegion mapPiece(int pieceIndex, int length) throws IOException {
+        return map(pieceIndex * spanIndex.getPieceLength(), length);
+    }
+
+    /**
+     * Maps the payload range [offset, offset + length) for reading and writing.
+     * Target files and their parent directories are created on demand.
+     */
+    public MappedRegion map(long offset, int length) throws IOException {
+        return map(offset, length, false);
+    }
+
+    /**
+     * Maps the payload range [offset, offset + length) read only, without creating or growing any file.
+     *
+     * @throws IOException if a file in the range is missing or shorter than the layout expects
+     */
+    public MappedRegion mapReadOnly(long offset, int length) throws IOException {
+        return map(offset, length, true);
+    }
+
+    private MappedRegion map(long offset, int length, boolean readOnly) throws IOException {
+        List<FileSpanIndex.Span> spans = spanIndex.spans(offset, length);
+        MappedByteBuffer[] segments = new MappedByteBuffer[spans.size()];
+        int[] starts = new int[spans.size()];
+
+        for (int i = 0; i < spans.size(); i++) {
+            FileSpanIndex.Span span = spans.get(i);
+            int count = (int) span.getLength();
+
+            segments[i] = readOnly ? mapReadOnly(span.getFileIndex(), span.getFileOffset(), count) : map(
+                    span.getFileIndex(), span.getFileOffset(), count);
+            starts[i] = (int) span.getRangeOffset();
+        }
+
+        return new MappedRegion(segments, starts, length);
+    }
+
+    /**
+     * Reads the payload range starting at offset until the destination buffer is full, e.g. to serve a block
+     * to a peer. Uses positional reads, so nothing gets mapped for small reads.
+     *
+     * @throws EOFException if the data is not on disk yet
+     */
+    public void read(long offset, ByteBuffer dst) throws IOException {
+        for (FileSpanIndex.Span span : spanIndex.spans(offset, dst.remaining())) {
+            int limit = dst.limit();
+            dst.limit(dst.position() + (int) span.getLength());
+
+            long position = span.getFileOffset();
+            FileChannel channel = channel(span.getFileIndex());
+            while (dst.hasRemaining()) {
+                int read = channel.read(dst, position);
+                if (read < 0) {
+                    throw new EOFException(String.format("%s is shorter than expected", paths[span.getFileIndex()]));
+                }
+                position += read;
+            }
+            dst.limit(limit);
+        }
+    }
+
+    private FileChannel channel(int fileIndex) throws IOException {
+        FileChannel channel = HANDLES.get(paths[fileIndex]);
+        // channel may have been evicted from the handle cache by another thread in the meantime
+        return channel.isOpen() ? channel : HANDLES.get(paths[fileIndex]);
+    }
+
+    private MappedByteBuffer map(int fileIndex, long fileOffset, int count) throws IOException {
+        try {
+            return HANDLES.get(paths[fileIndex])
+                    .map(FileChannel.MapMode.READ_WRITE, fileOffset, count);
+        } catch (ClosedChannelException e) {
+            // channel was evicted from the handle cache by another thread, reopen it
+            return HANDLES.get(paths[fileIndex])
+                    .map(FileChannel.MapMode.READ_WRITE, fileOffset, count);
+        }
+    }
+
+    private MappedByteBuffer mapReadOnly(int fileIndex, long fileOffset, int count) throws IOException {
+        try (FileChannel channel = FileChannel.open(paths[fileIndex], StandardOpenOption.READ)) {
+            if (channel.size() < fileOffset + count) {
+                throw new EOFException(String.format("%s is shorter than expected", paths[fileIndex]));
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, fileOffset, count);
+        }
+    }
+
+    Path[] getPaths() {
+        return paths.clone();
+    }
+
+    public FileSpanIndex getSpanIndex() {
+        return spanIndex;
+    }
+
+    public long getPieceLength() {
+        return spanIndex.getPieceLength();
+    }
+
+    @Override
+    public void close() {
+        for (Path path : paths) {
+            HANDLES.close(path);
+        }
+    }
+}
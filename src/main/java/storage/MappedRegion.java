@@ -0,0 +1,101 @@
+package storage;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * A contiguous range of the torrent payload backed by one or more memory mapped file segments.
+ * Offsets are relative to the start of the region, segments are kept in file order.
+ */
+public class MappedRegion {
+
+    private final MappedByteBuffer[] segments;
+    private final int[] starts;
+    private final int length;
+
+    MappedRegion(MappedByteBuffer[] segments, int[] starts, int length) {
+        this.segments = segments;
+        this.starts = starts;
+        this.length = length;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Copies the remaining bytes of the source buffer into the region, starting at the given offset.
+     * The source position is advanced by the amount of bytes written.
+     */
+    public void write(int offset, ByteBuffer src) {
+        if (offset < 0 || offset + src.remaining() > length) {
+            throw new IndexOutOfBoundsException(String.format("Write of %d bytes at %d exceeds region of %d bytes",
+                                                              src.remaining(), offset, length));
+        }
+
+        while (src.hasRemaining()) {
+            int segmentIndex = segmentAt(offset);
+            MappedByteBuffer segment = segments[segmentIndex];
+            int segmentOffset = offset - starts[segmentIndex];
+            int count = Math.min(src.remaining(), segment.capacity() - segmentOffset);
+
+            segment.put(segmentOffset, src, src.position(), count);
+            src.position(src.position() + count);
+            offset += count;
+        }
+    }
+
+    /**
+     * Copies bytes from the region into the destination buffer until it is full.
+     */
+    public void read(int offset, ByteBuffer dst) {
+        if (offset < 0 || offset + dst.remaining() > length) {
+            throw new IndexOutOfBoundsException(String.format("Read of %d bytes at %d exceeds region of %d bytes",
+                                                              dst.remaining(), offset, length));
+        }
+
+        while (dst.hasRemaining()) {
+            int segmentIndex = segmentAt(offset);
+            MappedByteBuffer segment = segments[segmentIndex];
+            int segmentOffset = offset - starts[segmentIndex];
+            int count = Math.min(dst.remaining(), segment.capacity() - segmentOffset);
+
+            dst.put(dst.position(), segment, segmentOffset, count);
+            dst.position(dst.position() + count);
+            offset += count;
+        }
+    }
+
+    /**
+     * Feeds the bytes in range [from, to) into the digest without copying them to the heap first.
+     */
+    public void digest(MessageDigest digest, int from, int to) {
+        int offset = from;
+
+        while (offset < to) {
+            int segmentIndex = segmentAt(offset);
+            MappedByteBuffer segment = segments[segmentIndex];
+            int segmentOffset = offset - starts[segmentIndex];
+            int count = Math.min(to - offset, segment.capacity() - segmentOffset);
+
+            digest.update(segment.slice(segmentOffset, count));
+            offset += count;
+        }
+    }
+
+    public void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    private int segmentAt(int offset) {
+        for (int i = segments.length - 1; i > 0; i--) {
+            if (starts[i] <= offset) {
+                return i;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,65 @@
+package storage;
+
+import piece.Block;
+
+import java.security.MessageDigest;
+
+/**
+ * Per piece download state that only exists while the piece is in flight.
+ * Instances are recycled through {@link PiecePool}.
+ */
+public class PieceBuffer {
+
+    static final int BLOCK_SIZE = 16384;
+
+    private final MessageDigest digest = PieceVerifier.sha1();
+    private Block[] blocks = new Block[0];
+    private int hashedBytes;
+
+    void reset(int pieceIndex, int pieceLength) {
+        digest.reset();
+        hashedBytes = 0;
+
+        int numberOfBlocks = (pieceLength + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+        if (blocks.length != numberOfBlocks) {
+            Block[] resized = new Block[numberOfBlocks];
+            System.arraycopy(blocks, 0, resized, 0, Math.min(blocks.length, numberOfBlocks));
+            blocks = resized;
+        }
+
+        int offset = 0;
+        for (int i = 0; i < numberOfBlocks; i++) {
+            int blockLength = Math.min(BLOCK_SIZE, pieceLength - offset);
+            if (blocks[i] == null) {
+                blocks[i] = new Block(offset, blockLength, 0, pieceIndex);
+            } else {
+                blocks[i].setOffset(offset);
+                blocks[i].setLength(blockLength);
+                blocks[i].setDownloadState(0);
+                blocks[i].setPieceIndex(pieceIndex);
+                blocks[i].setRequestTime(null);
+            }
+            offset += blockLength;
+        }
+    }
+
+    Block[] getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Running digest over the prefix of the piece that arrived in order, see {@link #getHashedBytes()}.
+     */
+    MessageDigest getDigest() {
+        return digest;
+    }
+
+    int getHashedBytes() {
+        return hashedBytes;
+    }
+
+    void advanceHashedBytes(int count) {
+        hashedBytes += count;
+    }
+}
@@ -0,0 +1,11 @@
+package storage;
+
+public interface PieceListener {
+
+    void onPieceCompleted(PieceStorage piece);
+
+    void onPieceVerified(PieceStorage piece);
+
+    void onPieceFailed(PieceStorage piece);
+
+}
@@ -0,0 +1,93 @@
+package storage;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Size capped pool of {@link PieceBuffer}s. The capacity bounds the amount of pieces that can be in flight at once,
+ * so resident memory follows the download pipeline instead of the size of the torrent.
+ */
+public class PiecePool {
+
+    private final int capacity;
+    private final Deque<PieceBuffer> free = new ArrayDeque<>();
+
+    private int allocated;
+    private int inUse;
+    private int highWaterMark;
+    private long hits;
+    private long misses;
+
+    public PiecePool(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Pool capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Attaches a buffer to the piece, reusing a released one when possible.
+     *
+     * @return false if the piece could not be attached because the pool is exhausted
+     */
+    public synchronized boolean attach(PieceStorage piece) {
+        if (piece.isAttached()) {
+            return true;
+        }
+
+        PieceBuffer buffer = free.poll();
+
+        if (buffer != null) {
+            hits++;
+        } else if (allocated < capacity) {
+            buffer = new PieceBuffer();
+            allocated++;
+            misses++;
+        } else {
+            return false;
+        }
+
+        inUse++;
+        highWaterMark = Math.max(highWaterMark, inUse);
+        piece.attach(buffer);
+        return true;
+    }
+
+    public synchronized void release(PieceStorage piece) {
+        PieceBuffer buffer = piece.detach();
+        if (buffer == null) {
+            return;
+        }
+        inUse--;
+        free.push(buffer);
+    }
+
+    public synchronized boolean isExhausted() {
+        return inUse >= capacity;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int getInUse() {
+        return inUse;
+    }
+
+    public synchronized int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PiecePool{" + "capacity=" + capacity + ", inUse=" + inUse + ", highWaterMark=" + highWaterMark + ", hits=" + hits + ", misses=" + misses + '}';
+    }
+}
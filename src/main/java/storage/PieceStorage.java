@@ -1,20 +1,27 @@
 package storage;
 
+import core.PeerConnection;
 import piece.Block;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class PieceStorage {
 
     private final int index;
-    private final Block[] blocks;
-    private final ByteBuffer dataBuffer;
+    private final int length;
     private final byte[] expectedHash;
-    private boolean verified;
+    private MappedFileStorage storage;
+    private MappedRegion region;
+    private PieceBuffer buffer;
+    private PieceListener listener;
+    private volatile boolean verified;
     private final AtomicInteger blocksCompleted = new AtomicInteger(0);
     private final AtomicBoolean requested = new AtomicBoolean(false);
     private final AtomicBoolean finished = new AtomicBoolean(false);
@@ -22,31 +29,70 @@ public class PieceStorage {
 
     public PieceStorage(int index, int pieceLength, byte[] expectedHash) {
         this.index = index;
+        this.length = pieceLength;
         this.expectedHash = expectedHash;
-        this.dataBuffer = ByteBuffer.allocate(pieceLength);
         this.verified = false;
+    }
 
-        int numberOfBlocks = (int) Math.ceil((double) pieceLength / 16384);
-        this.blocks = new Block[numberOfBlocks];
-        int offset = 0;
+    public void setStorage(MappedFileStorage storage) {
+        this.storage = storage;
+    }
 
-        for (int i = 0; i < numberOfBlocks; i++) {
-            int blockLength = Math.min(16384, pieceLength - offset);
-            blocks[i] = new Block(offset, blockLength, 0, index);
-            offset += blockLength;
-        }
+    public void setListener(PieceListener listener) {
+        this.listener = listener;
+    }
+
+    synchronized void attach(PieceBuffer buffer) {
+        buffer.reset(index, length);
+        this.buffer = buffer;
+        this.blocksCompleted.set(0);
+        this.requested.set(false);
+    }
+
+    synchronized PieceBuffer detach() {
+        PieceBuffer detached = this.buffer;
+        this.buffer = null;
+        return detached;
+    }
+
+    public synchronized boolean isAttached() {
+        return buffer != null;
     }
 
     public int getAmountOfDownloadedBytes(){
         return blocksCompleted.get() * 16384;
     }
 
-    public synchronized boolean updateBlock(int offset, byte[] blockData) {
+    public boolean updateBlock(int offset, ByteBuffer blockData) {
+        boolean completed;
+
+        synchronized (this) {
+            if (!writeBlock(offset, blockData)) {
+                return false;
+            }
+            completed = blocksCompleted.get() == buffer.getBlocks().length;
+        }
+
+        // hashing is left to the listener so the thread that delivered the last block never stalls on it
+        if (completed && listener != null) {
+            listener.onPieceCompleted(this);
+        }
+        return true;
+    }
+
+    private boolean writeBlock(int offset, ByteBuffer blockData) {
+        if (buffer == null) {
+            return false;
+        }
 
+        Block[] blocks = buffer.getBlocks();
         int blockIndex = offset / 16384;
+        if (offset < 0 || blockIndex >= blocks.length) {
+            return false;
+        }
         Block block = blocks[blockIndex];
 
-        if(block.getOffset() != offset){
+        if(block.getOffset() != offset || block.getLength() != blockData.remaining()){
             return false;
         }
 
@@ -54,18 +100,29 @@ public class PieceStorage {
             return false;
         }
 
+        try {
+            if (region == null) {
+                region = storage.mapPiece(index, length);
+            }
+            region.write(offset, blockData);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        // block continues the in-order prefix, hash it while it is still hot in cache
+        if (offset == buffer.getHashedBytes()) {
+            region.digest(buffer.getDigest(), offset, offset + block.getLength());
+            buffer.advanceHashedBytes(block.getLength());
+        }
+
         block.setDownloadState(1);
-        dataBuffer.position(offset);
-        dataBuffer.put(blockData);
         int i = blocksCompleted.incrementAndGet();
 
         if(i == blocks.length){
             System.out.println("ALL BLOCKS DOWNLOADED");
-            verify();
         }
 
-        blocks[blockIndex] = block;
-
        return true;
 
     }
@@ -78,10 +135,11 @@ public class PieceStorage {
         return requested.get();
     }
 
-    public boolean areAllBlockRequested(){
+    public synchronized boolean areAllBlockRequested(){
         if(requested.get()) return true;
+        if (buffer == null) return false;
 
-        for (Block block : blocks) {
+        for (Block block : buffer.getBlocks()) {
             if (block.getDownloadState() == 0) {
                 return false;
             }
@@ -92,12 +150,16 @@ public class PieceStorage {
 
 
 
-    public synchronized Block getNextBlock() {
+    public synchronized Block getNextBlock(PeerConnection requester) {
+        if (buffer == null) {
+            return null;
+        }
 
-        for (Block block : blocks) {
+        for (Block block : buffer.getBlocks()) {
             if (block.getDownloadState() == 0) {
                 block.setDownloadState(2);
                 block.setRequestTime(LocalDateTime.now());
+                block.setRequester(requester);
                 return block;
             }
         }
@@ -105,34 +167,104 @@ public class PieceStorage {
         return null;
     }
 
-    public boolean verify() {
+    /**
+     * @return copies of the blocks that were requested but did not arrive yet
+     */
+    public synchronized List<Block> getRequestedBlocks() {
+        if (buffer == null) {
+            return List.of();
+        }
+
+        List<Block> requestedBlocks = new ArrayList<>();
+        for (Block block : buffer.getBlocks()) {
+            if (block.getDownloadState() == 2) {
+                Block copy = new Block(block.getOffset(), block.getLength(), 2, index);
+                copy.setRequester(block.getRequester());
+                requestedBlocks.add(copy);
+            }
+        }
+        return requestedBlocks;
+    }
+
+    /**
+     * Hashes the completed piece and publishes the result to the listener. Blocks that arrived in order were
+     * already fed to the running digest of the piece buffer, only the remaining tail is hashed here, with the
+     * given digest used when nothing arrived in order. Runs without holding the monitor, the region no longer
+     * changes once every block is written.
+     */
+    public boolean verify(MessageDigest digest) {
+        MappedRegion completedRegion;
+        int hashedBytes = 0;
+        synchronized (this) {
+            completedRegion = region;
+            if (buffer != null && buffer.getHashedBytes() > 0) {
+                digest = buffer.getDigest();
+                hashedBytes = buffer.getHashedBytes();
+            }
+        }
+        if (completedRegion == null) {
+            return false;
+        }
+
+        boolean matches;
         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-1");
-            byte[] hash = digest.digest(dataBuffer.array());
-            if (MessageDigest.isEqual(hash, expectedHash)) {
+            if (hashedBytes == 0) {
+                digest.reset();
+            }
+            completedRegion.digest(digest, hashedBytes, length);
+            matches = MessageDigest.isEqual(digest.digest(), expectedHash);
+        } catch (Exception e) {
+            e.printStackTrace();
+            matches = false;
+        }
+
+        synchronized (this) {
+            if (matches) {
                 verified = true;
                 finished.set(true);
-                System.out.println("HASHES EQUAL");
-                return true;
+            } else if (buffer != null) {
+                // corrupt data, start the piece over
+                buffer.reset(index, length);
+                blocksCompleted.set(0);
+                requested.set(false);
+            }
+        }
+
+        if (listener != null) {
+            if (matches) {
+                listener.onPieceVerified(this);
             } else {
                 System.out.println("HASHES NOT EQUAL");
-                return false;
+                listener.onPieceFailed(this);
             }
-        }catch (Exception e){
-            e.printStackTrace();
-            return false;
         }
-
+        return matches;
     }
 
     public void setVerified(boolean verified){
         this.verified = verified;
     }
 
+    /**
+     * Marks a verified piece as missing again, e.g. when a recheck found its data bad, and tells the listener
+     * so the piece is downloaded again.
+     */
+    public void invalidate() {
+        boolean wasVerified;
+        synchronized (this) {
+            wasVerified = verified;
+            verified = false;
+            finished.set(false);
+        }
+        if (wasVerified && listener != null) {
+            listener.onPieceFailed(this);
+        }
+    }
+
 
     public synchronized void clearStale(){
-        if (!finished.get() && isRequested()) {
-            for (Block block : blocks) {
+        if (buffer != null && !finished.get() && isRequested()) {
+            for (Block block : buffer.getBlocks()) {
                 if (block.getDownloadState() == 2) {
                     block.setDownloadState(0);
                     requested.set(false);
@@ -141,8 +273,22 @@ public class PieceStorage {
         }
     }
 
-    public byte[] getData(){
-        return dataBuffer.array();
+    /**
+     * Forces the mapped piece data to disk and drops the mapping, the piece no longer needs it once persisted.
+     */
+    public synchronized void flush() {
+        if (region != null) {
+            region.force();
+            region = null;
+        }
+    }
+
+    public boolean matches(byte[] hash) {
+        return MessageDigest.isEqual(hash, expectedHash);
+    }
+
+    public int getLength() {
+        return length;
     }
 
     public boolean isVerified() {
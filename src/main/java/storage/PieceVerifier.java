@@ -0,0 +1,54 @@
+package storage;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashing stage between the network and the disk writer. Completed pieces are hashed on a dedicated pool,
+ * every thread reuses its own SHA-1 digest. Results are published through the piece's {@link PieceListener}.
+ */
+public class PieceVerifier {
+
+    private final ExecutorService executorService;
+    private final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(PieceVerifier::sha1);
+    private final AtomicInteger pending = new AtomicInteger(0);
+
+    public PieceVerifier(int threads) {
+        AtomicInteger counter = new AtomicInteger(0);
+        this.executorService = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "PieceVerifier-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void submit(PieceStorage piece) {
+        pending.incrementAndGet();
+        executorService.execute(() -> {
+            try {
+                piece.verify(digests.get());
+            } finally {
+                pending.decrementAndGet();
+            }
+        });
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    public void stop() {
+        executorService.shutdown();
+    }
+
+    static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package storage;
+
+import common.TorrentState;
+import core.bencode.TorrentFile;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Verifies the data of a torrent that is already on disk and rebuilds its bitfield from it.
+ * Pieces are split into stripes that are hashed in parallel, each stripe is read sequentially through large
+ * read only mappings. However the scan ends, completed, cancelled or failed, the pieces checked so far are merged
+ * and the torrent leaves {@link TorrentState#CHECKING}. Pieces it did not get to keep their bit, starting the
+ * same recheck again only hashes those.
+ */
+public class Recheck {
+
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+    private static final int STRIPES_PER_THREAD = 4;
+
+    private final TorrentFile torrentFile;
+    private final BitSet checked;
+    private final BitSet valid;
+    private final BitSet verifiedAtStart;
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    private final AtomicLong bytesHashed = new AtomicLong(0);
+    private final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(PieceVerifier::sha1);
+
+    private long elapsedNanos;
+    private CompletableFuture<Void> running;
+
+    public Recheck(TorrentFile torrentFile) {
+        this.torrentFile = torrentFile;
+        int pieces = torrentFile.getInfo()
+                .getPiecesStorage()
+                .size();
+        this.checked = new BitSet(pieces);
+        this.valid = new BitSet(pieces);
+        this.verifiedAtStart = new BitSet(pieces);
+    }
+
+    /**
+     * Starts, or resumes, hashing every piece that was not checked yet.
+     *
+     * @return future completed once all pieces were checked, the recheck was cancelled or it failed
+     */
+    public synchronized CompletableFuture<Void> start(Executor executor, int threads) {
+        if (running != null && !running.isDone()) {
+            return running;
+        }
+        cancelled.set(false);
+        torrentFile.getMetaData()
+                .setState(TorrentState.CHECKING);
+
+        List<PieceStorage> pieces = torrentFile.getInfo()
+                .getPiecesStorage();
+        if (checked.isEmpty()) {
+            pieces.stream()
+                    .filter(PieceStorage::isVerified)
+                    .forEach(piece -> verifiedAtStart.set(piece.getIndex()));
+        }
+        List<int[]> stripes = stripes(pieces.size(), threads * STRIPES_PER_THREAD);
+        long startTime = System.nanoTime();
+
+        CompletableFuture<?>[] futures = stripes.stream()
+                .map(stripe -> CompletableFuture.runAsync(() -> checkStripe(pieces, stripe[0], stripe[1]),
+                                                          executor))
+                .toArray(CompletableFuture[]::new);
+
+        running = CompletableFuture.allOf(futures)
+                .whenComplete((ignored, error) -> {
+                    synchronized (this) {
+                        elapsedNanos += System.nanoTime() - startTime;
+                    }
+                    if (error != null) {
+                        error.printStackTrace();
+                    }
+                    finish(pieces);
+                });
+        return running;
+    }
+
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    private List<int[]> stripes(int pieces, int count) {
+        List<int[]> stripes = new ArrayList<>();
+        int size = Math.max(1, (pieces + count - 1) / count);
+
+        for (int from = 0; from < pieces; from += size) {
+            stripes.add(new int[]{from, Math.min(pieces, from + size)});
+        }
+        return stripes;
+    }
+
+    private void checkStripe(List<PieceStorage> pieces, int from, int to) {
+        MappedFileStorage storage = torrentFile.getStorage();
+        long pieceLength = storage.getPieceLength();
+        int piecesPerWindow = (int) Math.max(1, WINDOW_SIZE / pieceLength);
+
+        for (int first = from; first < to && !cancelled.get(); first += piecesPerWindow) {
+            int last = Math.min(to, first + piecesPerWindow);
+            PieceStorage lastPiece = pieces.get(last - 1);
+            long offset = first * pieceLength;
+            int length = (int) (lastPiece.getIndex() * pieceLength + lastPiece.getLength() - offset);
+
+            try {
+                MappedRegion window = storage.mapReadOnly(offset, length);
+                for (int i = first; i < last && !cancelled.get(); i++) {
+                    int start = (int) (i * pieceLength - offset);
+                    check(pieces.get(i), window, start);
+                }
+            } catch (IOException e) {
+                // part of the window is missing on disk, look at the pieces one at a time
+                for (int i = first; i < last && !cancelled.get(); i++) {
+                    PieceStorage piece = pieces.get(i);
+                    try {
+                        check(piece, storage.mapReadOnly(i * pieceLength, piece.getLength()), 0);
+                    } catch (IOException missing) {
+                        record(piece.getIndex(), false);
+                    }
+                }
+            }
+        }
+    }
+
+    private void check(PieceStorage piece, MappedRegion region, int start) {
+        synchronized (this) {
+            if (checked.get(piece.getIndex())) {
+                return;
+            }
+        }
+
+        MessageDigest digest = digests.get();
+        digest.reset();
+        region.digest(digest, start, start + piece.getLength());
+        bytesHashed.addAndGet(piece.getLength());
+        record(piece.getIndex(), piece.matches(digest.digest()));
+    }
+
+    private synchronized void record(int pieceIndex, boolean matches) {
+        checked.set(pieceIndex);
+        valid.set(pieceIndex, matches);
+    }
+
+    /**
+     * Merges the result into the current state instead of replacing it. A live torrent keeps verifying pieces
+     * while the scan runs, and the scan may have read those before their data was complete, so only pieces that
+     * were read and found bad, and not verified since, are cleared. The state follows from the merged pieces.
+     */
+    private void finish(List<PieceStorage> pieces) {
+        BitSet found;
+        BitSet bad;
+        synchronized (this) {
+            found = (BitSet) valid.clone();
+            bad = (BitSet) checked.clone();
+            bad.andNot(valid);
+        }
+
+        for (PieceStorage piece : pieces) {
+            int index = piece.getIndex();
+            if (found.get(index)) {
+                piece.setVerified(true);
+            } else if (bad.get(index)) {
+                if (piece.isVerified() && !verifiedAtStart.get(index)) {
+                    bad.clear(index);
+                } else {
+                    piece.invalidate();
+                }
+            }
+        }
+        torrentFile.getMetaData()
+                .mergeBitField(found, bad);
+
+        long verified = pieces.stream()
+                .filter(PieceStorage::isVerified)
+                .count();
+        torrentFile.getMetaData()
+                .setState(verified == pieces.size() ? TorrentState.FINISHED : TorrentState.DOWNLOADING);
+
+        System.out.printf("Recheck of %s %s: %d/%d pieces checked, %d/%d valid, %.1f MB/s%n", torrentFile.getInfo()
+                .getName(), cancelled.get() ? "cancelled" : "done", checkedCount(), pieces.size(), verified,
+                          pieces.size(), getThroughput());
+    }
+
+    public synchronized double getProgress() {
+        int total = torrentFile.getInfo()
+                .getPiecesStorage()
+                .size();
+        return total == 0 ? 1.0 : (double) checked.cardinality() / total;
+    }
+
+    private synchronized int checkedCount() {
+        return checked.cardinality();
+    }
+
+    /**
+     * @return hashing throughput in MB/s over the time spent checking
+     */
+    public synchronized double getThroughput() {
+        long nanos = elapsedNanos;
+        if (running != null && !running.isDone()) {
+            return 0;
+        }
+        return nanos == 0 ? 0 : bytesHashed.get() / (1024.0 * 1024.0) / (nanos / 1_000_000_000.0);
+    }
+
+    public TorrentFile getTorrentFile() {
+        return torrentFile;
+    }
+}
@@ -0,0 +1,66 @@
+package storage;
+
+import core.bencode.TorrentFile;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs {@link Recheck}s on a shared pool, at most one per torrent.
+ */
+public class RecheckService {
+
+    private final int threads;
+    private final ExecutorService executorService;
+    private final Map<TorrentFile, Recheck> rechecks = new ConcurrentHashMap<>();
+    private final Consumer<TorrentFile> onChecked;
+
+    /**
+     * @param onChecked called with every torrent whose recheck ended, the torrent is no longer checking then
+     */
+    public RecheckService(int threads, Consumer<TorrentFile> onChecked) {
+        this.threads = threads;
+        this.onChecked = onChecked;
+        AtomicInteger counter = new AtomicInteger(0);
+        this.executorService = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Recheck-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public CompletableFuture<Void> start(TorrentFile torrentFile) {
+        return rechecks.computeIfAbsent(torrentFile, Recheck::new)
+                .start(executorService, threads)
+                .whenComplete((ignored, error) -> {
+                    // a cancelled recheck is kept, starting it again only hashes the pieces it did not get to
+                    Recheck recheck = rechecks.get(torrentFile);
+                    if (recheck != null && !recheck.isCancelled()) {
+                        rechecks.remove(torrentFile);
+                    }
+                    onChecked.accept(torrentFile);
+                });
+    }
+
+    public void cancel(TorrentFile torrentFile) {
+        Recheck recheck = rechecks.get(torrentFile);
+        if (recheck != null) {
+            recheck.cancel();
+        }
+    }
+
+    public Recheck getRecheck(TorrentFile torrentFile) {
+        return rechecks.get(torrentFile);
+    }
+
+    public void stop() {
+        rechecks.values()
+                .forEach(Recheck::cancel);
+        executorService.shutdown();
+    }
+}
@@ -1,18 +1,22 @@
 package tasks;
 
+import common.TorrentState;
 import core.PeerConnection;
+import core.RequestWindow;
+import core.bencode.TorrentFile;
+import core.message.MessageType;
 import exceptions.NoAvailableBlock;
 import piece.*;
 import storage.PieceStorage;
 
+import java.util.BitSet;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
 public class DownloadScheduler {
 
-    private static final int MAX_WRITE_TASKS = 30;
-
     private final PiecePicker picker;
+    private final EndGame endGame = new EndGame();
     private final BlockingQueue<WriteEvent> events;
 
     private Thread thread;
@@ -61,9 +65,8 @@ public class DownloadScheduler {
 
         if (peerConnection.getAmInterested() == 0 && peerConnection.isInteresting()) {
             Message interested = new Interested(peerConnection);
-            peerConnection.getTasks()
-                    .addTask(new Task(interested.create()
-                                              .array(), TaskType.WRITE, peerConnection));
+            peerConnection.send(interested.create()
+                                        .flip());
 
             events.add(new WriteEvent(peerConnection, WriteEvent.EventType.FREE_SPACE));
         }
@@ -74,29 +77,72 @@ public class DownloadScheduler {
     }
 
     private void addRequestTask(PeerConnection peerConnection) {
-        PieceStorage pieceStorage = picker.find(peerConnection.getTorrentFile());
-        while (peerConnection.getTasks()
-                .sizeOfWriteTasks() < MAX_WRITE_TASKS  && !peerConnection.getTorrentFile().isCompleted()) {
+        TorrentFile torrentFile = peerConnection.getTorrentFile();
+        // the bitfield is being rebuilt from disk, connections are asked to request again once it is done
+        if (torrentFile.getMetaData()
+                .getState() == TorrentState.CHECKING) {
+            return;
+        }
+
+        PieceStorage pieceStorage = picker.find(peerConnection);
+        RequestWindow window = peerConnection.getRequestWindow();
+        while (pieceStorage != null && window.hasRoom() && !torrentFile.isCompleted()) {
             try {
-                Message request = new Request(pieceStorage, peerConnection);
-                peerConnection.getTasks()
-                        .addTask(new Task(request.create()
-                                                  .array(), TaskType.WRITE, peerConnection));
+                Request request = new Request(pieceStorage, peerConnection);
+                peerConnection.send(request.create()
+                                            .flip());
+                window.onRequestSent(pieceStorage.getIndex(), request.getBlock()
+                        .getOffset());
             } catch (NoAvailableBlock e) {
-                pieceStorage = picker.find(peerConnection.getTorrentFile());
+                PieceStorage next = picker.find(peerConnection);
+                // nothing new to request, e.g. every piece the pool can hold is already fully requested
+                if (next == pieceStorage) {
+                    break;
+                }
+                pieceStorage = next;
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
+
+        if (torrentFile.isCompleted()) {
+            endGame.onTorrentFinished(torrentFile);
+        } else if (window.hasRoom() && peerConnection.getPeerChoking() == 0 && endGame.isActive(torrentFile)) {
+            endGame.request(peerConnection);
+        }
+    }
+
+    /**
+     * Called for every block that was written, so duplicates requested in end game can be cancelled.
+     */
+    public void onBlockReceived(PeerConnection peerConnection, int pieceIndex, int begin, int length) {
+        endGame.onBlockReceived(peerConnection, pieceIndex, begin, length);
     }
 
-    public void listen(Message message) {
-        if (message instanceof BitField || message instanceof Have) {
-            events.add(new WriteEvent(message.getPeerConnection(), WriteEvent.EventType.HAVE_BITFIELD));
-        } else if (message instanceof Unchoke) {
-            events.add(new WriteEvent(message.getPeerConnection(), WriteEvent.EventType.UNCHOKE));
-        } else if (message instanceof Request) {
-            events.add(new WriteEvent(message.getPeerConnection(), WriteEvent.EventType.REQUEST));
+    public void onBitField(PeerConnection peerConnection, BitSet pieces) {
+        picker.onBitField(peerConnection, pieces);
+    }
+
+    public void onHave(PeerConnection peerConnection, int pieceIndex) {
+        picker.onHave(peerConnection, pieceIndex);
+    }
+
+    public void onDisconnect(PeerConnection peerConnection) {
+        picker.onDisconnect(peerConnection);
+    }
+
+    public void onPieceReset(TorrentFile torrentFile, int pieceIndex) {
+        endGame.onPieceReset(torrentFile, pieceIndex);
+        picker.onPieceReset(torrentFile, pieceIndex);
+    }
+
+    public void listen(MessageType messageType, PeerConnection peerConnection) {
+        switch (messageType) {
+            case BITFIELD, HAVE -> events.add(new WriteEvent(peerConnection, WriteEvent.EventType.HAVE_BITFIELD));
+            case UNCHOKE -> events.add(new WriteEvent(peerConnection, WriteEvent.EventType.UNCHOKE));
+            case REQUEST -> events.add(new WriteEvent(peerConnection, WriteEvent.EventType.REQUEST));
+            default -> {
+            }
         }
     }
 
@@ -0,0 +1,126 @@
+package tasks;
+
+import core.PeerConnection;
+import core.RequestWindow;
+import core.bencode.TorrentFile;
+import piece.Block;
+import piece.Cancel;
+import piece.Request;
+import storage.PieceStorage;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * End game of a download. Once every block that is still missing has been requested, the blocks in flight are
+ * requested again from other unchoked peers, and whoever else was asked for a block gets a CANCEL as soon as
+ * the first copy of it is written. The peer a block was requested from first counts towards the peers it is
+ * requested from.
+ */
+public class EndGame {
+
+    private static final int MAX_PEERS_PER_BLOCK = 3;
+
+    private final Map<TorrentFile, Map<Long, Set<PeerConnection>>> duplicates = new ConcurrentHashMap<>();
+
+    /**
+     * @return true if no piece of the torrent has blocks left that were never requested
+     */
+    public boolean isActive(TorrentFile torrentFile) {
+        boolean remaining = false;
+        for (PieceStorage piece : torrentFile.getInfo()
+                .getPiecesStorage()) {
+            if (piece.isVerified()) {
+                continue;
+            }
+            if (!piece.isAttached() || !piece.areAllBlockRequested()) {
+                return false;
+            }
+            remaining = true;
+        }
+        return remaining;
+    }
+
+    /**
+     * Sends duplicate requests for blocks in flight that the peer has, until its request window is full.
+     *
+     * @return number of requests sent
+     */
+    public int request(PeerConnection peerConnection) {
+        TorrentFile torrentFile = peerConnection.getTorrentFile();
+        RequestWindow window = peerConnection.getRequestWindow();
+        Map<Long, Set<PeerConnection>> requested = duplicates.computeIfAbsent(torrentFile,
+                                                                              t -> new ConcurrentHashMap<>());
+        int sent = 0;
+
+        for (PieceStorage piece : torrentFile.getInfo()
+                .getPiecesStorage()) {
+            if (piece.isVerified() || !peerConnection.havePiece(piece.getIndex())) {
+                continue;
+            }
+
+            List<Block> blocks = piece.getRequestedBlocks();
+            for (Block block : blocks) {
+                if (!window.hasRoom()) {
+                    return sent;
+                }
+                Set<PeerConnection> peers = requested.computeIfAbsent(
+                        RequestWindow.key(block.getPieceIndex(), block.getOffset()), k -> {
+                            Set<PeerConnection> owners = ConcurrentHashMap.newKeySet();
+                            if (block.getRequester() != null) {
+                                owners.add(block.getRequester());
+                            }
+                            return owners;
+                        });
+                if (peers.size() < MAX_PEERS_PER_BLOCK && peers.add(peerConnection)) {
+                    peerConnection.send(new Request(block, peerConnection).create()
+                                                .flip());
+                    window.onRequestSent(block.getPieceIndex(), block.getOffset());
+                    sent++;
+                }
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Cancels the block at every other peer it was requested from, called once the first copy was accepted.
+     * The cancelled request is taken out of the peer's window right away instead of waiting for it to expire.
+     */
+    public void onBlockReceived(PeerConnection from, int pieceIndex, int begin, int length) {
+        Map<Long, Set<PeerConnection>> requested = duplicates.get(from.getTorrentFile());
+        if (requested == null) {
+            return;
+        }
+        Set<PeerConnection> peers = requested.remove(RequestWindow.key(pieceIndex, begin));
+        if (peers == null) {
+            return;
+        }
+
+        for (PeerConnection peer : peers) {
+            if (peer != from) {
+                peer.send(new Cancel(pieceIndex, begin, length, peer).create()
+                                  .flip());
+                peer.getRequestWindow()
+                        .onCancelled(pieceIndex, begin);
+            }
+        }
+    }
+
+    /**
+     * Forgets the duplicates of a piece whose blocks were reset, e.g. after a failed hash check.
+     */
+    public void onPieceReset(TorrentFile torrentFile, int pieceIndex) {
+        Map<Long, Set<PeerConnection>> requested = duplicates.get(torrentFile);
+        if (requested != null) {
+            requested.keySet()
+                    .removeIf(key -> (int) (key >>> 32) == pieceIndex);
+        }
+    }
+
+    public void onTorrentFinished(TorrentFile torrentFile) {
+        duplicates.remove(torrentFile);
+    }
+}
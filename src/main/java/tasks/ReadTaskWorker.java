@@ -1,51 +1,62 @@
 package tasks;
 
 import core.PeerConnection;
-import piece.*;
+import core.message.MessageParser;
+import core.message.MessageView;
+import network.BufferPool;
+import storage.PieceStorage;
+import util.UserConfig;
 
 import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 
+/**
+ * Handles inbound messages on a fixed set of lanes. Every connection is hashed to one lane, so the messages of
+ * a peer are processed in the order they arrived, on one thread, while different peers run in parallel and the
+ * thread that read them goes back to reading. A queued message is a pooled copy of its frame, the read buffer is
+ * compacted as soon as the read was handled. Messages can also be handled right away on the reading thread when
+ * that thread belongs to the connection alone.
+ */
 public class ReadTaskWorker {
 
-    private final BlockingQueue<Task> tasks;
-    private final ExecutorService executorService;
+    private final Lane[] lanes;
+    private final ThreadLocal<MessageParser> parsers = ThreadLocal.withInitial(MessageParser::new);
     private final DownloadScheduler downloadScheduler;
 
-    private Thread consumerThread;
     private volatile boolean running = false;
 
     public ReadTaskWorker(DownloadScheduler downloadScheduler) {
-        this.tasks = new LinkedBlockingQueue<>();
-        this.executorService = Executors.newFixedThreadPool(10);
-        this.downloadScheduler = downloadScheduler;
+        this(downloadScheduler, UserConfig.READ_LANES);
     }
 
+    public ReadTaskWorker(DownloadScheduler downloadScheduler, int laneCount) {
+        this.downloadScheduler = downloadScheduler;
+        this.lanes = new Lane[Math.max(1, laneCount)];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane();
+        }
+    }
 
     public synchronized void start() {
         if (running) {
             throw new IllegalStateException("ReadTaskWorker is already running");
         }
         running = true;
-        consumerThread = new Thread(this::consumeTasks, "ReadTaskWorker");
-        consumerThread.start();
+        for (int i = 0; i < lanes.length; i++) {
+            Lane lane = lanes[i];
+            lane.thread = new Thread(() -> consumeTasks(lane), "ReadTaskWorker-" + i);
+            lane.thread.setDaemon(true);
+            lane.thread.start();
+        }
     }
 
-    private void consumeTasks() {
+    private void consumeTasks(Lane lane) {
         while (running) {
             try {
-                Task task = tasks.take();
-                executorService.execute(() -> {
-                    Message message = determineMessage(task);
-                    if (message != null) {
-                        message.parse(ByteBuffer.wrap(task.getMessage()));
-                        downloadScheduler.listen(message);
-                    }
-                });
-
+                process(lane.tasks.take());
             } catch (InterruptedException e) {
                 if (!running) {
                     break;
@@ -58,44 +69,141 @@ public class ReadTaskWorker {
         }
     }
 
-
+    /**
+     * Stops the lanes and returns the copies of the messages that are still queued.
+     */
     public synchronized void stop() {
         running = false;
 
-        if (consumerThread != null) {
-            consumerThread.interrupt();
+        for (Lane lane : lanes) {
+            if (lane.thread != null) {
+                lane.thread.interrupt();
+            }
+            Task task;
+            while ((task = lane.tasks.poll()) != null) {
+                BufferPool.shared()
+                        .release(task.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Copies the frame at the offset of the buffer into a pooled buffer and queues it on the lane of the
+     * connection. The position and limit of the buffer are left untouched.
+     *
+     * @param offset position of the length prefix in the buffer
+     */
+    public void addTask(PeerConnection peerConnection, ByteBuffer buffer, int offset) {
+        int frameLength = 4 + buffer.getInt(offset);
+        ByteBuffer message = BufferPool.shared()
+                .lease(frameLength);
+        message.put(0, buffer, offset, frameLength);
+        laneOf(peerConnection).tasks.add(new Task(message, TaskType.READ, peerConnection));
+    }
+
+    private Lane laneOf(PeerConnection peerConnection) {
+        int hash = System.identityHashCode(peerConnection);
+        // spread the identity hash, its low bits are not uniformly distributed
+        hash ^= hash >>> 16;
+        return lanes[Math.floorMod(hash, lanes.length)];
+    }
+
+    /**
+     * @return number of queued messages per lane
+     */
+    public int[] getBacklog() {
+        int[] backlog = new int[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            backlog[i] = lanes[i].tasks.size();
         }
-        executorService.shutdown();
+        return backlog;
     }
 
-    public void addTask(Task task) {
-        tasks.add(task);
+    private void process(Task task) {
+        try {
+            process(task.getPeerConnection(), task.getMessage(), 0);
+        } finally {
+            BufferPool.shared()
+                    .release(task.getMessage());
+        }
     }
 
-    private Message determineMessage(Task task) {
+    /**
+     * Decodes the frame at the offset of the buffer in place and handles it. The position and limit of the
+     * buffer are left untouched, nothing refers to the frame once this returns.
+     *
+     * @param offset position of the length prefix in the buffer
+     */
+    public void process(PeerConnection peerConnection, ByteBuffer buffer, int offset) {
+        MessageView message = parsers.get()
+                .parseMessage(buffer, offset);
+        if (message == null) {
+            return;
+        }
 
-        if (task == null) {
-            return null;
+        switch (message.getType()) {
+            case CHOKE -> {
+                peerConnection.setPeerChoking(1);
+                peerConnection.getRequestWindow()
+                        .onChoked();
+            }
+            case UNCHOKE -> peerConnection.setPeerChoking(0);
+            case INTERESTED -> peerConnection.setPeerInterested(1);
+            case NOT_INTERESTED -> peerConnection.setPeerInterested(0);
+            case HAVE -> {
+                peerConnection.setPieceIndex(message.getPieceIndex());
+                downloadScheduler.onHave(peerConnection, message.getPieceIndex());
+            }
+            case BITFIELD -> onBitField(peerConnection, message);
+            case PIECE -> onPiece(peerConnection, message);
+            default -> {
+            }
         }
+        downloadScheduler.listen(message.getType(), peerConnection);
+    }
 
-        byte[] message = task.getMessage();
-        ByteBuffer buffer = ByteBuffer.wrap(message);
-        buffer.getInt();
-        byte id = buffer.get();
-        PeerConnection peerConnection = task.getPeerConnection();
-
-        return switch (id) {
-            case 0 -> new Choke(peerConnection);
-            case 1 -> new Unchoke(peerConnection);
-            case 2 -> new Interested(peerConnection);
-            case 3 -> new NotInterested(peerConnection);
-            case 4 -> new Have(0, peerConnection);
-            case 5 -> new BitField(peerConnection);
-            case 6 -> new Request(peerConnection);
-            case 7 -> new Piece(0, 0, new byte[0], peerConnection);
-            case 8 -> new Cancel(peerConnection);
-            default -> null;
-        };
+    private void onBitField(PeerConnection peerConnection, MessageView message) {
+        int pieces = peerConnection.getTorrentFile()
+                .getInfo()
+                .getPiecesStorage()
+                .size();
+        BitSet bitSet = new BitSet(pieces);
+        message.copyBitField(bitSet, pieces);
+        peerConnection.setBitField(bitSet);
+        downloadScheduler.onBitField(peerConnection, bitSet);
     }
 
+    /**
+     * Blocks normally take the fast path on the reading thread, this only sees PIECE messages that did not.
+     */
+    private void onPiece(PeerConnection peerConnection, MessageView message) {
+        List<PieceStorage> pieces = peerConnection.getTorrentFile()
+                .getInfo()
+                .getPiecesStorage();
+        int index = message.getPieceIndex();
+        if (index < 0 || index >= pieces.size()) {
+            return;
+        }
+
+        int length = message.getPayloadLength() - 8;
+        if (pieces.get(index)
+                .updateBlock(message.getBegin(), message.buffer()
+                        .slice(message.getPayloadOffset() + 8, length))) {
+            peerConnection.getTorrentFile()
+                    .getStats()
+                    .addDownloaded(length);
+            downloadScheduler.onBlockReceived(peerConnection, index, message.getBegin(), length);
+        }
+        peerConnection.updateLastPieceReceived();
+        if (peerConnection.getRequestWindow()
+                .onBlockReceived(index, message.getBegin(), length)) {
+            downloadScheduler.enqueueEvent(new WriteEvent(peerConnection, WriteEvent.EventType.FREE_SPACE));
+        }
+    }
+
+    private static final class Lane {
+
+        private final BlockingQueue<Task> tasks = new LinkedBlockingQueue<>();
+        private Thread thread;
+    }
 }
@@ -2,20 +2,22 @@ package tasks;
 
 import core.PeerConnection;
 
+import java.nio.ByteBuffer;
+
 public class Task {
 
-    private final byte[] message;
+    private final ByteBuffer message;
     private final TaskType taskType;
     private final PeerConnection peerConnection;
 
-    public Task(byte[] message, TaskType taskType, PeerConnection peerConnection) {
+    public Task(ByteBuffer message, TaskType taskType, PeerConnection peerConnection) {
         this.message = message;
         this.taskType = taskType;
         this.peerConnection = peerConnection;
     }
 
 
-    public byte[] getMessage() {
+    public ByteBuffer getMessage() {
         return message;
     }
 
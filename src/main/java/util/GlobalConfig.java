@@ -3,15 +3,30 @@ package util;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.SecureRandom;
 import java.util.Locale;
 
 public class GlobalConfig {
 
     public static final String APP_NAME = "jbit";
     public static final String RESUME_SUFFIX = ".resume";
+    public static final String JOURNAL_SUFFIX = ".journal";
     public static final String TORRENT_SUFFIX = ".torrent";
     public static final String OS = System.getProperty("os.name").toLowerCase(Locale.ROOT);
     public static final String APP_DATA = appDataPath();
+    public static final String PEER_ID = peerId();
+
+    /**
+     * Azureus style peer id, client prefix followed by random digits, generated once per run.
+     */
+    private static String peerId() {
+        StringBuilder sb = new StringBuilder("-JB0001-");
+        SecureRandom random = new SecureRandom();
+        while (sb.length() < 20) {
+            sb.append(random.nextInt(10));
+        }
+        return sb.toString();
+    }
 
     private static String appDataPath() {
         try {
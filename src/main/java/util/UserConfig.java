@@ -1,6 +1,16 @@
 package util;
 
+import common.AllocationMode;
+
 public class UserConfig {
 
     public static final String  DOWNLOAD_DIR = System.getProperty("user.home");
+    public static final int HASH_THREADS = Integer.getInteger("jbit.hashThreads", Runtime.getRuntime().availableProcessors());
+    public static final AllocationMode ALLOCATION_MODE = AllocationMode.valueOf(System.getProperty("jbit.allocation", "SPARSE").toUpperCase());
+    public static final String ENGINE = System.getProperty("jbit.engine", "nio");
+    public static final int REACTOR_THREADS = Integer.getInteger("jbit.reactors", Runtime.getRuntime().availableProcessors());
+    public static final int READ_LANES = Integer.getInteger("jbit.readLanes", Runtime.getRuntime().availableProcessors());
+    public static final boolean BUFFER_DEBUG = Boolean.getBoolean("jbit.bufferDebug");
+    public static final boolean RECHECK_ON_START = Boolean.getBoolean("jbit.recheck");
+    public static final int PORT = Integer.getInteger("jbit.port", 6881);
 }
@@ -0,0 +1,149 @@
+package core;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("RequestWindow Tests")
+class RequestWindowTest {
+
+    private static final int BLOCK = RequestWindow.BLOCK_SIZE;
+
+    private long now;
+    private RequestWindow window;
+
+    @BeforeEach
+    void setUp() {
+        now = TimeUnit.SECONDS.toNanos(1);
+        window = new RequestWindow(() -> now);
+    }
+
+    @Test
+    @DisplayName("Should start with a window of four outstanding requests")
+    void testInitialWindow() {
+        for (int i = 0; i < 4; i++) {
+            assertTrue(window.hasRoom());
+            window.onRequestSent(0, i * BLOCK);
+        }
+
+        assertFalse(window.hasRoom());
+        assertEquals(4, window.getOutstanding());
+    }
+
+    @Test
+    @DisplayName("Should smooth round trip samples with a gain of 1/8")
+    void testRttMovingAverage() {
+        window.onRequestSent(0, 0);
+        advanceMillis(100);
+        window.onBlockReceived(0, 0, BLOCK);
+        assertEquals(100.0, window.getRttMillis(), 1e-9, "First sample is taken as is");
+
+        window.onRequestSent(0, BLOCK);
+        advanceMillis(200);
+        window.onBlockReceived(0, BLOCK, BLOCK);
+        assertEquals(112.5, window.getRttMillis(), 1e-9);
+    }
+
+    @Test
+    @DisplayName("Should only sample blocks that are still outstanding")
+    void testUnrequestedAndCancelledBlocksAreNotSampled() {
+        window.onRequestSent(0, 0);
+        window.onRequestSent(0, BLOCK);
+        window.onCancelled(0, BLOCK);
+        assertEquals(1, window.getOutstanding(), "Cancelled request should free its room");
+
+        advanceMillis(500);
+        window.onBlockReceived(0, BLOCK, BLOCK);
+        window.onBlockReceived(7, 0, BLOCK);
+        assertEquals(0.0, window.getRttMillis());
+
+        window.onBlockReceived(0, 0, BLOCK);
+        assertEquals(500.0, window.getRttMillis(), 1e-9);
+    }
+
+    @Test
+    @DisplayName("Should size the window from the bandwidth-delay product plus headroom")
+    void testBandwidthDelaySizing() {
+        window.onRequestSent(0, 0);
+        advanceMillis(100);
+        window.onBlockReceived(0, 0, BLOCK);
+
+        // 1 MiB in one second at a 100 ms round trip, 6.4 blocks in flight
+        receive(62, BLOCK);
+        advanceMillis(1000);
+        receive(1, BLOCK);
+        assertEquals(1024 * 1024, window.getThroughput(), 1e-6);
+        assertEquals(7 + 2, window.getWindow());
+
+        // 3 MiB in the next second moves the average half way, to 2 MiB/s
+        receive(191, BLOCK);
+        advanceMillis(1000);
+        receive(1, BLOCK);
+        assertEquals(2 * 1024 * 1024, window.getThroughput(), 1e-6);
+        assertEquals(13 + 2, window.getWindow());
+    }
+
+    @Test
+    @DisplayName("Should keep probing on a trickle and cap the window")
+    void testWindowBounds() {
+        window.onRequestSent(0, 0);
+        advanceMillis(1000);
+        window.onBlockReceived(0, 0, 1);
+        advanceMillis(1000);
+        receive(1, 1);
+        assertEquals(1 + 2, window.getWindow(), "Less than a block in flight still leaves headroom");
+
+        receive(100_000, BLOCK);
+        advanceMillis(1000);
+        receive(1, BLOCK);
+        assertEquals(RequestWindow.MAX_WINDOW, window.getWindow());
+    }
+
+    @Test
+    @DisplayName("Should ask for a refill once when half of the window drained")
+    void testRefillSignal() {
+        for (int i = 0; i < 4; i++) {
+            window.onRequestSent(0, i * BLOCK);
+        }
+
+        assertFalse(window.onBlockReceived(0, 0, BLOCK), "Three of four still outstanding");
+        assertTrue(window.onBlockReceived(0, BLOCK, BLOCK));
+        assertFalse(window.onBlockReceived(0, 2 * BLOCK, BLOCK), "Refill was already asked for");
+
+        window.onRequestSent(1, 0);
+        assertTrue(window.onBlockReceived(0, 3 * BLOCK, BLOCK), "A new request rearms the signal");
+    }
+
+    @Test
+    @DisplayName("Should free the room of requests that timed out or were dropped by a choke")
+    void testExpiryAndChoke() {
+        for (int i = 0; i < 4; i++) {
+            window.onRequestSent(0, i * BLOCK);
+        }
+        advanceMillis(30_000);
+        assertFalse(window.hasRoom(), "Requests expire only after 30 seconds");
+        advanceMillis(1);
+        assertTrue(window.hasRoom());
+        assertEquals(0, window.getOutstanding());
+
+        window.onRequestSent(1, 0);
+        window.onChoked();
+        assertEquals(0, window.getOutstanding());
+    }
+
+    private void receive(int blocks, int bytes) {
+        for (int i = 0; i < blocks; i++) {
+            window.onBlockReceived(Integer.MAX_VALUE, i, bytes);
+        }
+    }
+
+    private void advanceMillis(long millis) {
+        now += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,193 @@
+package core;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("ResumeJournal Tests")
+class ResumeJournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    @DisplayName("Should replay every appended piece")
+    void testReplayAppendedPieces() throws IOException {
+        Path path = dir.resolve("hash.journal");
+        try (ResumeJournal journal = new ResumeJournal(path)) {
+            journal.append(3);
+            journal.append(7);
+            journal.append(1024);
+        }
+
+        BitSet bitField = new BitSet();
+        try (ResumeJournal journal = new ResumeJournal(path)) {
+            assertEquals(3, journal.replay(bitField), "All three records should be replayed");
+        }
+        assertTrue(bitField.get(3));
+        assertTrue(bitField.get(7));
+        assertTrue(bitField.get(1024));
+        assertEquals(3, bitField.cardinality());
+    }
+
+    @Test
+    @DisplayName("Should append a batch of pieces behind the existing records")
+    void testAppendBatch() throws IOException {
+        Path path = dir.resolve("hash.journal");
+        try (ResumeJournal journal = new ResumeJournal(path)) {
+            journal.append(1);
+            journal.append(4, 5, 6);
+            assertEquals(4, journal.getRecords());
+        }
+        assertEquals(4L * ResumeJournal.RECORD_SIZE, Files.size(path));
+
+        BitSet bitField = new BitSet();
+        try (ResumeJournal journal = new ResumeJournal(path)) {
+            assertEquals(4, journal.replay(bitField));
+        }
+        assertEquals(BitSet.valueOf(new long[]{0b111_0010}), bitField);
+    }
+
+    @Test
+    @DisplayName("Should discard a torn record at the end of the journal")
+    void testTornTailIsDiscarded() throws IOException {
+        Path path = dir.resolve("hash.journal");
+        try (ResumeJournal journal = new ResumeJournal(path)) {
+            journal.append(5);
+        }
+        Files.write(path, new byte[]{0, 0, 0, 9, 1, 2}, StandardOpenOption.APPEND);
+
+        BitSet bitField = new BitSet();
+        try (ResumeJournal journal = new ResumeJournal(path)) {
+            assertEquals(1, journal.replay(bitField), "Only the intact record should be replayed");
+            journal.append(6);
+        }
+        assertEquals(2L * ResumeJournal.RECORD_SIZE, Files.size(path), "Torn tail should be cut before appending");
+        assertFalse(bitField.get(9));
+    }
+
+    @Test
+    @DisplayName("Should stop replaying at a record with a wrong checksum")
+    void testCorruptRecordStopsReplay() throws IOException {
+        Path path = dir.resolve("hash.journal");
+        try (ResumeJournal journal = new ResumeJournal(path)) {
+            journal.append(1);
+            journal.append(2);
+        }
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[ResumeJournal.RECORD_SIZE + Integer.BYTES] ^= 0x01;
+        Files.write(path, bytes);
+
+        BitSet bitField = new BitSet();
+        try (ResumeJournal journal = new ResumeJournal(path)) {
+            assertEquals(1, journal.replay(bitField));
+        }
+        assertTrue(bitField.get(1));
+        assertFalse(bitField.get(2));
+    }
+
+    @Test
+    @DisplayName("Should replay nothing after truncation")
+    void testTruncate() throws IOException {
+        Path path = dir.resolve("hash.journal");
+        try (ResumeJournal journal = new ResumeJournal(path)) {
+            journal.append(1);
+            journal.truncate();
+            assertEquals(0, journal.getRecords());
+        }
+
+        try (ResumeJournal journal = new ResumeJournal(path)) {
+            assertEquals(0, journal.replay(new BitSet()));
+        }
+    }
+
+    @Test
+    @DisplayName("Should detect a record whose piece index was damaged")
+    void testDamagedIndexStopsReplay() throws IOException {
+        Path path = dir.resolve("hash.journal");
+        try (ResumeJournal journal = new ResumeJournal(path)) {
+            journal.append(4);
+        }
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[Integer.BYTES - 1] ^= 0x01;
+        Files.write(path, bytes);
+
+        BitSet bitField = new BitSet();
+        try (ResumeJournal journal = new ResumeJournal(path)) {
+            assertEquals(0, journal.replay(bitField));
+        }
+        assertTrue(bitField.isEmpty(), "Neither piece 4 nor piece 5 should be replayed");
+    }
+
+    @Test
+    @DisplayName("Should not replay a zero filled tail as piece 0")
+    void testZeroFilledTail() throws IOException {
+        Path path = dir.resolve("hash.journal");
+        try (ResumeJournal journal = new ResumeJournal(path)) {
+            journal.append(2);
+        }
+        Files.write(path, new byte[ResumeJournal.RECORD_SIZE * 3], StandardOpenOption.APPEND);
+
+        BitSet bitField = new BitSet();
+        try (ResumeJournal journal = new ResumeJournal(path)) {
+            assertEquals(1, journal.replay(bitField));
+        }
+        assertFalse(bitField.get(0));
+        assertEquals((long) ResumeJournal.RECORD_SIZE, Files.size(path));
+    }
+
+    @Test
+    @DisplayName("Should drop everything after a corrupt record and append in its place")
+    void testAppendAfterCorruptRecord() throws IOException {
+        Path path = dir.resolve("hash.journal");
+        try (ResumeJournal journal = new ResumeJournal(path)) {
+            journal.append(1);
+            journal.append(2);
+            journal.append(3);
+        }
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[ResumeJournal.RECORD_SIZE] ^= 0x40;
+        Files.write(path, bytes);
+
+        try (ResumeJournal journal = new ResumeJournal(path)) {
+            assertEquals(1, journal.replay(new BitSet()));
+            journal.append(8);
+        }
+
+        BitSet bitField = new BitSet();
+        try (ResumeJournal journal = new ResumeJournal(path)) {
+            assertEquals(2, journal.replay(bitField));
+        }
+        assertEquals(BitSet.valueOf(new long[]{1L << 1 | 1L << 8}), bitField, "Record 3 was behind the corrupt one");
+    }
+
+    @Test
+    @DisplayName("Should keep appending behind existing records when reopened without replaying")
+    void testAppendAfterReopen() throws IOException {
+        Path path = dir.resolve("hash.journal");
+        try (ResumeJournal journal = new ResumeJournal(path)) {
+            journal.append(10);
+        }
+        try (ResumeJournal journal = new ResumeJournal(path)) {
+            journal.append(11);
+            assertEquals(2, journal.getRecords());
+        }
+
+        BitSet bitField = new BitSet();
+        try (ResumeJournal journal = new ResumeJournal(path)) {
+            assertEquals(2, journal.replay(bitField));
+        }
+        assertTrue(bitField.get(10));
+        assertTrue(bitField.get(11));
+    }
+}
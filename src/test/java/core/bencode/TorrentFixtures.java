@@ -0,0 +1,111 @@
+package core.bencode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.stream.LongStream;
+
+/**
+ * Builds small multi-file torrents for tests. The files are named a.bin, b.bin, ... in the order of their lengths.
+ */
+public final class TorrentFixtures {
+
+    private TorrentFixtures() {
+    }
+
+    /**
+     * @param data the payload, its pieces are hashed so that blocks written from it verify
+     * @param fileLengths lengths of the files the payload is split into, one file holding all of it when empty
+     */
+    public static TorrentFile.Info info(int pieceLength, byte[] data, long... fileLengths) {
+        if (fileLengths.length == 0) {
+            fileLengths = new long[]{data.length};
+        }
+        return new TorrentFile.Info(BencodeDictionary.parse(new ByteArrayInputStream(
+                encodeInfo(pieceLength, hashes(pieceLength, data), fileLengths))));
+    }
+
+    /**
+     * @param dir directory the payload and the internal copy of the torrent are kept in
+     * @param trackers the announce URL followed by the announce list, one tracker per tier
+     */
+    public static TorrentFile torrent(Path dir, List<String> trackers, int pieceLength, long... fileLengths) {
+        long totalLength = LongStream.of(fileLengths)
+                .sum();
+        int pieces = (int) ((totalLength + pieceLength - 1) / pieceLength);
+        // nothing is verified against these hashes
+        return torrent(dir, trackers, encodeInfo(pieceLength, new byte[pieces * 20], fileLengths));
+    }
+
+    /**
+     * @param data the payload, its pieces are hashed so that data written from it verifies
+     */
+    public static TorrentFile torrent(Path dir, int pieceLength, byte[] data) {
+        return torrent(dir, List.of("udp://tracker.example:6969/announce"), encodeInfo(pieceLength, hashes(
+                pieceLength, data), data.length));
+    }
+
+    private static TorrentFile torrent(Path dir, List<String> trackers, byte[] info) {
+        StringBuilder bencoded = new StringBuilder("d8:announce").append(string(trackers.get(0)));
+        if (trackers.size() > 1) {
+            bencoded.append("13:announce-listl");
+            trackers.subList(1, trackers.size())
+                    .forEach(tracker -> bencoded.append('l')
+                            .append(string(tracker))
+                            .append('e'));
+            bencoded.append('e');
+        }
+        bencoded.append("13:creation datei0e4:info");
+
+        ByteArrayOutputStream torrent = new ByteArrayOutputStream();
+        torrent.writeBytes(bencoded.toString()
+                                   .getBytes(StandardCharsets.US_ASCII));
+        torrent.writeBytes(info);
+        torrent.write('e');
+
+        return new TorrentFile(BencodeDictionary.parse(new ByteArrayInputStream(torrent.toByteArray())), dir, dir);
+    }
+
+    public static String string(String value) {
+        return value.length() + ":" + value;
+    }
+
+    static byte[] encodeInfo(int pieceLength, byte[] hashes, long... fileLengths) {
+        StringBuilder files = new StringBuilder("5:filesl");
+        for (int i = 0; i < fileLengths.length; i++) {
+            files.append("d6:lengthi")
+                    .append(fileLengths[i])
+                    .append("e4:pathl")
+                    .append(string((char) ('a' + i) + ".bin"))
+                    .append("ee");
+        }
+        files.append('e');
+
+        ByteArrayOutputStream info = new ByteArrayOutputStream();
+        info.writeBytes(("d" + files + "4:name" + string("test") + "12:piece lengthi" + pieceLength + "e6:pieces"
+                + hashes.length + ":").getBytes(StandardCharsets.US_ASCII));
+        info.writeBytes(hashes);
+        info.write('e');
+        return info.toByteArray();
+    }
+
+    private static byte[] hashes(int pieceLength, byte[] data) {
+        MessageDigest sha1;
+        try {
+            sha1 = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        ByteArrayOutputStream hashes = new ByteArrayOutputStream();
+        for (int offset = 0; offset < data.length; offset += pieceLength) {
+            sha1.update(data, offset, Math.min(pieceLength, data.length - offset));
+            hashes.writeBytes(sha1.digest());
+        }
+        return hashes.toByteArray();
+    }
+}
@@ -0,0 +1,151 @@
+package core.message;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("MessageParser Tests")
+class MessageParserTest {
+
+    private final MessageParser parser = new MessageParser();
+
+    @Test
+    @DisplayName("Should decode a keep alive from an empty frame")
+    void testKeepAlive() {
+        MessageView view = parser.parseMessage(frame(), 0);
+
+        assertEquals(MessageType.KEEP_ALIVE, view.getType());
+        assertEquals(0, view.getPayloadLength());
+    }
+
+    @Test
+    @DisplayName("Should decode the messages without payload")
+    void testStateMessages() {
+        assertEquals(MessageType.CHOKE, parser.parseMessage(frame(0), 0)
+                .getType());
+        assertEquals(MessageType.UNCHOKE, parser.parseMessage(frame(1), 0)
+                .getType());
+        assertEquals(MessageType.INTERESTED, parser.parseMessage(frame(2), 0)
+                .getType());
+        assertEquals(MessageType.NOT_INTERESTED, parser.parseMessage(frame(3), 0)
+                .getType());
+    }
+
+    @Test
+    @DisplayName("Should decode the piece index of a HAVE")
+    void testHave() {
+        MessageView view = parser.parseMessage(frame(4, 0, 0, 1, 2), 0);
+
+        assertEquals(MessageType.HAVE, view.getType());
+        assertEquals(258, view.getPieceIndex());
+    }
+
+    @Test
+    @DisplayName("Should read BITFIELD bits high bit first and ignore spare bits")
+    void testBitField() {
+        MessageView view = parser.parseMessage(frame(5, 0b1010_0000, 0b0000_0011), 0);
+        BitSet pieces = new BitSet();
+        view.copyBitField(pieces, 15);
+
+        assertEquals(MessageType.BITFIELD, view.getType());
+        assertTrue(view.hasPiece(0));
+        assertFalse(view.hasPiece(1));
+        assertTrue(view.hasPiece(15));
+        assertFalse(view.hasPiece(16), "Pieces past the payload are not set");
+        assertEquals(BitSet.valueOf(new long[]{0b0100_0000_0000_0101}), pieces);
+    }
+
+    @Test
+    @DisplayName("Should decode index, begin and length of REQUEST and CANCEL")
+    void testRequestAndCancel() {
+        for (int id : new int[]{6, 8}) {
+            MessageView view = parser.parseMessage(frame(id, 0, 0, 0, 9, 0, 0, 0x40, 0, 0, 0, 0x40, 0), 0);
+
+            assertEquals(MessageType.getMessageType(id), view.getType());
+            assertEquals(9, view.getPieceIndex());
+            assertEquals(16384, view.getBegin());
+            assertEquals(16384, view.getBlockLength());
+        }
+    }
+
+    @Test
+    @DisplayName("Should expose the block of a PIECE in place")
+    void testPiece() {
+        ByteBuffer buffer = frame(7, 0, 0, 0, 3, 0, 0, 0, 0, 0xAA, 0xBB);
+        MessageView view = parser.parseMessage(buffer, 0);
+
+        assertEquals(MessageType.PIECE, view.getType());
+        assertEquals(3, view.getPieceIndex());
+        assertEquals(0, view.getBegin());
+        assertEquals(10, view.getPayloadLength());
+        assertSame(buffer, view.buffer());
+        assertEquals((byte) 0xAA, view.buffer()
+                .get(view.getPayloadOffset() + 8));
+    }
+
+    @Test
+    @DisplayName("Should parse at an offset without moving the buffer and reuse the view")
+    void testOffsetAndReuse() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(32);
+        buffer.put(new byte[]{0, 0, 0, 1, 1, 0, 0, 0, 5, 4, 0, 0, 0, 7})
+                .flip();
+        buffer.position(5);
+
+        MessageView first = parser.parseMessage(buffer, 0);
+        assertEquals(MessageType.UNCHOKE, first.getType());
+        MessageView second = parser.parseMessage(buffer, 5);
+
+        assertSame(first, second);
+        assertEquals(MessageType.HAVE, second.getType());
+        assertEquals(7, second.getPieceIndex());
+        assertEquals(5, buffer.position());
+        assertEquals(14, buffer.limit());
+    }
+
+    @Test
+    @DisplayName("Should return null for unknown ids")
+    void testUnknownId() {
+        assertNull(parser.parseMessage(frame(20, 1, 2), 0));
+        assertNull(parser.parseMessage(frame(0xFF), 0));
+    }
+
+    @Test
+    @DisplayName("Should reject truncated frames and invalid length prefixes")
+    void testInvalidLength() {
+        assertThrows(IllegalArgumentException.class, () -> parser.parseMessage(ByteBuffer.wrap(new byte[]{0, 0, 0}), 0));
+        assertThrows(IllegalArgumentException.class, () -> parser.parseMessage(ByteBuffer.wrap(new byte[]{0, 0, 0, 5, 4}),
+                                                                               0));
+        assertThrows(IllegalArgumentException.class, () -> parser.parseMessage(
+                ByteBuffer.wrap(new byte[]{(byte) 0x80, 0, 0, 0, 4}), 0));
+    }
+
+    @Test
+    @DisplayName("Should reject payloads too short for their type")
+    void testShortPayload() {
+        assertThrows(IllegalArgumentException.class, () -> parser.parseMessage(frame(4, 0, 0, 1), 0));
+        assertThrows(IllegalArgumentException.class, () -> parser.parseMessage(frame(6, 0, 0, 0, 1, 0, 0, 0, 0), 0));
+        assertThrows(IllegalArgumentException.class, () -> parser.parseMessage(frame(7, 0, 0, 0, 1, 0, 0), 0));
+        assertThrows(IllegalArgumentException.class, () -> parser.parseMessage(frame(8, 0, 0, 0, 1), 0));
+    }
+
+    /**
+     * @return heap buffer holding a frame with the given id and payload bytes, or a keep alive if there are none
+     */
+    private static ByteBuffer frame(int... bytes) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + bytes.length);
+        buffer.putInt(bytes.length);
+        for (int b : bytes) {
+            buffer.put((byte) b);
+        }
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,99 @@
+package core.network;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("PeerListDecoder Tests")
+class PeerListDecoderTest {
+
+    @Test
+    @DisplayName("Should decode compact IPv4 entries and ignore a trailing partial entry")
+    void testCompactIpv4() {
+        byte[] bytes = {(byte) 192, (byte) 168, 1, 10, 0x1A, (byte) 0xE1, 10, 0, 0, 1, (byte) 0xC8, (byte) 0xD5, 1, 2};
+
+        List<Peer> peers = PeerListDecoder.decodeCompact(bytes, 0, bytes.length, PeerListDecoder.IPV4_LENGTH);
+
+        assertEquals(List.of(new Peer("192.168.1.10", 6881), new Peer("10.0.0.1", 51413)), peers);
+        assertEquals("192.168.1.10", peers.get(0)
+                .getAddress());
+    }
+
+    @Test
+    @DisplayName("Should decode compact IPv6 entries")
+    void testCompactIpv6() {
+        byte[] bytes = new byte[18];
+        bytes[0] = 0x20;
+        bytes[1] = 0x01;
+        bytes[2] = 0x0d;
+        bytes[3] = (byte) 0xb8;
+        bytes[15] = 1;
+        bytes[16] = 0x1A;
+        bytes[17] = (byte) 0xE1;
+
+        List<Peer> peers = PeerListDecoder.decodeCompact(bytes, 0, bytes.length, PeerListDecoder.IPV6_LENGTH);
+
+        assertEquals(1, peers.size());
+        assertTrue(peers.get(0)
+                           .isIpv6());
+        assertEquals(new Peer("2001:db8::1", 6881), peers.get(0));
+    }
+
+    @Test
+    @DisplayName("Should decode peers, peers6 and the dictionary model from an HTTP response")
+    void testHttpResponse() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("d8:completei5e10:incompletei2e8:intervali1800e12:min intervali60e5:peersld2:ip8:10.0.0.27:peer id20:-JB0001-0000000000004:porti6881eed2:ip11:example.org4:porti51413eee6:peers618:".getBytes(
+                StandardCharsets.US_ASCII));
+        byte[] ipv6 = new byte[18];
+        ipv6[15] = 1;
+        ipv6[17] = 80;
+        out.write(ipv6);
+        out.write('e');
+
+        TrackerNetworkResponse response = TrackerNetworkResponse.of(
+                new BufferedInputStream(new ByteArrayInputStream(out.toByteArray())));
+
+        assertEquals(1800, response.getInterval());
+        assertEquals(60, response.getMinInterval());
+        assertEquals(5, response.getComplete());
+        assertEquals(List.of(new Peer("10.0.0.2", 6881), new Peer("example.org", 51413), new Peer("::1", 80)),
+                     response.getPeers());
+    }
+
+    @Test
+    @DisplayName("Should decode a compact response with 1000 peers")
+    void testThousandPeers() throws Exception {
+        byte[] compact = new byte[1000 * 6];
+        for (int i = 0; i < 1000; i++) {
+            compact[i * 6] = 10;
+            compact[i * 6 + 2] = (byte) (i >> 8);
+            compact[i * 6 + 3] = (byte) i;
+            compact[i * 6 + 4] = 0x1A;
+            compact[i * 6 + 5] = (byte) 0xE1;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(("d8:intervali900e5:peers" + compact.length + ":").getBytes(StandardCharsets.US_ASCII));
+        out.write(compact);
+        out.write('e');
+
+        List<Peer> peers = TrackerNetworkResponse.of(new ByteArrayInputStream(out.toByteArray()))
+                .getPeers();
+
+        assertEquals(1000, peers.size());
+        assertEquals(new Peer("10.0.3.231", 6881), peers.get(999));
+        assertArrayEquals(new byte[]{10, 0, 3, (byte) 231}, peers.get(999)
+                .toSocketAddress()
+                .getAddress()
+                .getAddress());
+    }
+}
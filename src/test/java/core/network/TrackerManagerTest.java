@@ -0,0 +1,164 @@
+package core.network;
+
+import common.TorrentState;
+import core.bencode.TorrentFile;
+import core.bencode.TorrentFixtures;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@DisplayName("TrackerManager Tests")
+class TrackerManagerTest {
+
+    private static final String UDP_URL = "udp://tracker.example:6969/announce";
+    private static final String HTTP_URL = "http://tracker.example/announce";
+
+    @TempDir
+    Path dir;
+
+    private FakeTrackerClient http;
+    private FakeTrackerClient udp;
+    private TrackerManager manager;
+    private TorrentFile torrentFile;
+
+    @BeforeEach
+    void setUp() {
+        http = new FakeTrackerClient();
+        udp = new FakeTrackerClient();
+        torrentFile = TorrentFixtures.torrent(dir, List.of(UDP_URL, HTTP_URL), 16384, 16384);
+        manager = new TrackerManager(null, http, udp);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        manager.stop();
+        torrentFile.getStorage()
+                .close();
+    }
+
+    @Test
+    @DisplayName("Should announce started to every tracker through its client and wait for the interval")
+    void testTickAnnouncesDueTrackers() {
+        long now = start();
+        manager.tick(torrentFile, TorrentState.DOWNLOADING, 10, now);
+
+        assertEquals(List.of(HTTP_URL + " STARTED"), http.announces);
+        assertEquals(List.of(UDP_URL + " STARTED"), udp.announces);
+
+        manager.tick(torrentFile, TorrentState.DOWNLOADING, 10, now + seconds(61));
+        assertEquals(1, http.announces.size(), "Enough connections, the interval has to pass first");
+
+        manager.tick(torrentFile, TorrentState.DOWNLOADING, 0, now + seconds(61));
+        assertEquals(List.of(HTTP_URL + " STARTED", HTTP_URL + " NONE"), http.announces,
+                     "Peers are needed, the min interval is enough");
+
+        manager.tick(torrentFile, TorrentState.DOWNLOADING, 10, now + seconds(61 + 1800));
+        assertEquals(3, udp.announces.size());
+    }
+
+    @Test
+    @DisplayName("Should back off a failing tracker without holding back the others")
+    void testTickBacksOffFailingTracker() {
+        udp.fail = true;
+        long now = start();
+        manager.tick(torrentFile, TorrentState.DOWNLOADING, 0, now);
+        manager.tick(torrentFile, TorrentState.DOWNLOADING, 0, now + seconds(14));
+        manager.tick(torrentFile, TorrentState.DOWNLOADING, 0, now + seconds(16));
+
+        assertEquals(List.of(UDP_URL + " STARTED", UDP_URL + " STARTED"), udp.announces);
+        assertEquals(1, http.announces.size());
+
+        List<Tracker> trackers = manager.getTrackers(torrentFile);
+        assertEquals(HTTP_URL, trackers.get(0)
+                .getUrl(), "The healthy tracker should be asked first");
+        assertEquals(2, trackers.get(1)
+                .getFailures());
+    }
+
+    @Test
+    @DisplayName("Should announce completed once when finished and stopped when shutting down")
+    void testCompletedAndStopped() {
+        long now = start();
+        manager.tick(torrentFile, TorrentState.DOWNLOADING, 10, now);
+        manager.tick(torrentFile, TorrentState.FINISHED, 10, now + seconds(1));
+        manager.tick(torrentFile, TorrentState.FINISHED, 10, now + seconds(3600));
+
+        assertEquals(List.of(HTTP_URL + " STARTED", HTTP_URL + " COMPLETED"), http.announces);
+
+        manager.stop();
+        assertEquals(HTTP_URL + " STOPPED", http.announces.get(2));
+        assertEquals(UDP_URL + " STOPPED", udp.announces.get(2));
+    }
+
+    @Test
+    @DisplayName("Should only tell trackers that saw the torrent started that it stopped")
+    void testStoppedOnlyAfterStarted() {
+        udp.fail = true;
+        manager.tick(torrentFile, TorrentState.DOWNLOADING, 10, start());
+
+        manager.stop();
+        assertEquals(List.of(HTTP_URL + " STARTED", HTTP_URL + " STOPPED"), http.announces);
+        assertEquals(List.of(UDP_URL + " STARTED"), udp.announces);
+    }
+
+    @Test
+    @DisplayName("Should not announce completed to trackers that never saw the torrent started")
+    void testCompletedOnlyAfterStarted() {
+        manager.tick(torrentFile, TorrentState.FINISHED, 0, start());
+
+        assertEquals(List.of(), http.announces);
+        assertEquals(List.of(), udp.announces);
+    }
+
+    /**
+     * Trackers are due from the moment they were created, create them before taking the time. Outcomes are
+     * recorded at the time they arrived, slightly after it.
+     */
+    private long start() {
+        manager.getTrackers(torrentFile);
+        return System.nanoTime();
+    }
+
+    private static long seconds(long seconds) {
+        return TimeUnit.SECONDS.toNanos(seconds);
+    }
+
+    /**
+     * Answers every announce right away with an interval of 30 minutes and no peers, or fails it.
+     */
+    private static final class FakeTrackerClient implements TrackerClient {
+
+        private final List<String> announces = new CopyOnWriteArrayList<>();
+        private volatile boolean fail;
+
+        @Override
+        public CompletableFuture<TrackerNetworkResponse> announce(TrackerNetworkRequest request, AnnounceEvent event,
+                                                                  String url) {
+            announces.add(url + " " + event);
+            if (fail) {
+                return CompletableFuture.failedFuture(new IOException("unreachable"));
+            }
+            byte[] response = ByteBuffer.allocate(20)
+                    .putInt(8, 1800)
+                    .array();
+            return CompletableFuture.completedFuture(TrackerNetworkResponse.of(response));
+        }
+
+        @Override
+        public CompletableFuture<List<ScrapeResult>> scrape(String url, List<byte[]> infoHashes) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+    }
+}
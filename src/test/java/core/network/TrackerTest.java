@@ -0,0 +1,139 @@
+package core.network;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("Tracker Tests")
+class TrackerTest {
+
+    private static final long START = 1_000L;
+    private static final String URL = "http://tracker.example/announce";
+
+    @Test
+    @DisplayName("Should be due right away and claimed by one caller only")
+    void testTryBeginClaimsOnce() {
+        Tracker tracker = new Tracker(URL, START);
+
+        assertFalse(tracker.tryBegin(START - 1, true), "Tracker should not be due before it was created");
+        assertTrue(tracker.tryBegin(START, false));
+        assertFalse(tracker.tryBegin(START, false), "An announce is already in flight");
+        assertFalse(tracker.tryBegin(START + seconds(3600), true), "An announce is already in flight");
+
+        tracker.onFailure(START);
+        assertTrue(tracker.tryBegin(START + seconds(15), false), "Outcome was reported, tracker can be claimed again");
+    }
+
+    @Test
+    @DisplayName("Should respect the interval, and only the min interval when peers are needed")
+    void testIntervalScheduling() {
+        Tracker tracker = new Tracker(URL, START);
+        assertTrue(tracker.tryBegin(START, false));
+        tracker.onSuccess(response("d8:intervali1800e12:min intervali300ee"), START, AnnounceEvent.STARTED);
+
+        assertFalse(tracker.tryBegin(START + seconds(299), true));
+        assertFalse(tracker.tryBegin(START + seconds(300), false), "Regular announces wait for the interval");
+        assertTrue(tracker.tryBegin(START + seconds(300), true), "Min interval passed and peers are needed");
+
+        tracker.onSuccess(response("d8:intervali1800e12:min intervali300ee"), START, AnnounceEvent.NONE);
+        assertFalse(tracker.tryBegin(START + seconds(1799), false));
+        assertTrue(tracker.tryBegin(START + seconds(1800), false));
+    }
+
+    @Test
+    @DisplayName("Should fall back to a min interval of a minute, never above the interval")
+    void testDefaultMinInterval() {
+        Tracker tracker = new Tracker(URL, START);
+        tracker.tryBegin(START, false);
+        tracker.onSuccess(response("d8:intervali1800ee"), START, AnnounceEvent.STARTED);
+
+        assertFalse(tracker.tryBegin(START + seconds(59), true));
+        assertTrue(tracker.tryBegin(START + seconds(60), true));
+
+        tracker.onSuccess(response("d8:intervali20ee"), START, AnnounceEvent.NONE);
+        assertTrue(tracker.tryBegin(START + seconds(20), true), "Min interval should be capped by the interval");
+    }
+
+    @Test
+    @DisplayName("Should back off from 15 seconds, doubling per failure and capped at an hour")
+    void testBackoff() {
+        Tracker tracker = new Tracker(URL, START);
+        long now = START;
+        double health = tracker.getHealth();
+
+        for (int failures = 1; failures <= 20; failures++) {
+            assertTrue(tracker.tryBegin(now, false));
+            tracker.onFailure(now);
+
+            long backoff = Math.min(seconds(3600), seconds(15) << Math.min(failures - 1, 16));
+            assertFalse(tracker.tryBegin(now + backoff - 1, true), "Backed off after " + failures + " failures");
+            assertEquals(failures, tracker.getFailures());
+            assertTrue(tracker.getHealth() < health, "Every failure should lower the health");
+
+            health = tracker.getHealth();
+            now += backoff;
+        }
+        assertTrue(tracker.tryBegin(now, false));
+
+        tracker.onSuccess(response("d8:intervali1800ee"), now, AnnounceEvent.STARTED);
+        assertEquals(0, tracker.getFailures());
+        assertTrue(tracker.getHealth() > health);
+    }
+
+    @Test
+    @DisplayName("Should send started until acknowledged, then completed once")
+    void testEventTransitions() {
+        Tracker tracker = new Tracker(URL, START);
+        assertEquals(AnnounceEvent.STARTED, tracker.getEvent());
+        assertFalse(tracker.isStarted());
+
+        tracker.tryBegin(START, false);
+        tracker.onFailure(START);
+        assertEquals(AnnounceEvent.STARTED, tracker.getEvent(), "Started has to be repeated until it got through");
+
+        tracker.tryBegin(START + seconds(15), false);
+        tracker.onSuccess(response("d8:intervali1800ee"), START + seconds(15), AnnounceEvent.STARTED);
+        assertEquals(AnnounceEvent.NONE, tracker.getEvent());
+        assertTrue(tracker.isStarted());
+
+        long completedAt = START + seconds(100);
+        tracker.onTorrentCompleted(completedAt);
+        assertEquals(AnnounceEvent.COMPLETED, tracker.getEvent());
+        assertTrue(tracker.tryBegin(completedAt, false), "Completed should be announced without waiting");
+        tracker.onSuccess(response("d8:intervali1800ee"), completedAt, AnnounceEvent.COMPLETED);
+        assertEquals(AnnounceEvent.NONE, tracker.getEvent());
+
+        tracker.onTorrentCompleted(completedAt + seconds(1));
+        assertEquals(AnnounceEvent.NONE, tracker.getEvent(), "Completed is only sent once");
+        assertTrue(tracker.isStarted());
+    }
+
+    @Test
+    @DisplayName("Should not send completed to a tracker that never saw the torrent started")
+    void testCompletedBeforeStarted() {
+        Tracker tracker = new Tracker(URL, START);
+        tracker.onTorrentCompleted(START);
+        assertEquals(AnnounceEvent.STARTED, tracker.getEvent());
+
+        tracker.tryBegin(START, false);
+        tracker.onSuccess(response("d8:intervali1800ee"), START, AnnounceEvent.STARTED);
+        tracker.onTorrentCompleted(START + seconds(1));
+
+        assertEquals(AnnounceEvent.NONE, tracker.getEvent());
+    }
+
+    private static long seconds(long seconds) {
+        return TimeUnit.SECONDS.toNanos(seconds);
+    }
+
+    private static TrackerNetworkResponse response(String bencoded) {
+        return TrackerNetworkResponse.of(new ByteArrayInputStream(bencoded.getBytes(StandardCharsets.US_ASCII)));
+    }
+}
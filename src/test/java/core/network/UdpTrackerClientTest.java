@@ -0,0 +1,288 @@
+package core.network;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("UdpTrackerClient Tests")
+class UdpTrackerClientTest {
+
+    private StubTracker tracker;
+    private UdpTrackerClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tracker = new StubTracker();
+        client = new UdpTrackerClient(Duration.ofMillis(100));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        tracker.close();
+    }
+
+    @Test
+    @DisplayName("Should announce through a single connect and return the peers")
+    void testAnnounce() {
+        TrackerNetworkResponse response = client.announce(request(), AnnounceEvent.STARTED, tracker.url())
+                .orTimeout(5, TimeUnit.SECONDS)
+                .join();
+
+        assertEquals(1800, response.getInterval());
+        assertEquals(List.of(new Peer("10.0.0.1", 6881), new Peer("10.0.0.2", 51413)), response.getPeers());
+        assertEquals(1, tracker.connects.get());
+        assertEquals(AnnounceEvent.STARTED.getId(), tracker.event);
+    }
+
+    @Test
+    @DisplayName("Should keep hundreds of announces in flight and share one connection id")
+    void testConcurrentAnnounces() {
+        List<CompletableFuture<TrackerNetworkResponse>> announces = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            announces.add(client.announce(request(), AnnounceEvent.STARTED, tracker.url()));
+        }
+
+        CompletableFuture.allOf(announces.toArray(CompletableFuture[]::new))
+                .orTimeout(10, TimeUnit.SECONDS)
+                .join();
+
+        assertEquals(300, tracker.announces.get());
+        assertEquals(1, tracker.connects.get(), "Connection id should be cached for its lifetime");
+    }
+
+    @Test
+    @DisplayName("Should retransmit requests that were not answered")
+    void testRetransmit() {
+        tracker.drop.set(2);
+
+        TrackerNetworkResponse response = client.announce(request(), AnnounceEvent.STARTED, tracker.url())
+                .orTimeout(5, TimeUnit.SECONDS)
+                .join();
+
+        assertEquals(2, response.getPeers()
+                .size());
+        assertTrue(tracker.received.get() >= 4, "Dropped packets should have been sent again");
+    }
+
+    @Test
+    @DisplayName("Should stop retransmitting once the caller timed out")
+    void testTimedOutAnnounceIsDropped() throws InterruptedException {
+        tracker.drop.set(Integer.MAX_VALUE);
+
+        CompletableFuture<TrackerNetworkResponse> announce = client.announce(request(), AnnounceEvent.STARTED,
+                                                                             tracker.url())
+                .orTimeout(250, TimeUnit.MILLISECONDS);
+        assertThrows(CompletionException.class, announce::join);
+
+        Thread.sleep(50);
+        int received = tracker.received.get();
+        Thread.sleep(1000);
+
+        assertTrue(received > 1, "The connect should have been retransmitted before the timeout");
+        assertEquals(received, tracker.received.get(), "Nothing should be sent for an abandoned announce");
+    }
+
+    @Test
+    @DisplayName("Should fail an announce that cannot be sent and keep serving other trackers")
+    void testUnreachableTracker() {
+        CompletableFuture<TrackerNetworkResponse> unreachable = client.announce(request(), AnnounceEvent.STARTED,
+                                                                                "udp://127.0.0.1:0/announce");
+
+        CompletionException exception = assertThrows(CompletionException.class, () -> unreachable.orTimeout(1,
+                                                                                                          TimeUnit.SECONDS)
+                .join());
+        assertTrue(exception.getCause() instanceof IOException, "The send should fail, not the timeout");
+
+        TrackerNetworkResponse response = client.announce(request(), AnnounceEvent.STARTED, tracker.url())
+                .orTimeout(5, TimeUnit.SECONDS)
+                .join();
+        assertEquals(2, response.getPeers()
+                .size());
+    }
+
+    @Test
+    @DisplayName("Should fail the announce with the tracker's error message")
+    void testError() {
+        tracker.error = "torrent not registered";
+
+        CompletableFuture<TrackerNetworkResponse> announce = client.announce(request(), AnnounceEvent.NONE,
+                                                                             tracker.url());
+
+        CompletionException exception = assertThrows(CompletionException.class, () -> announce.orTimeout(5,
+                                                                                                       TimeUnit.SECONDS)
+                .join());
+        assertEquals("torrent not registered", exception.getCause()
+                .getMessage());
+    }
+
+    @Test
+    @DisplayName("Should scrape up to 74 torrents per packet and keep the results in request order")
+    void testBatchedScrape() {
+        List<byte[]> infoHashes = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            byte[] infoHash = new byte[20];
+            infoHash[0] = (byte) i;
+            infoHashes.add(infoHash);
+        }
+
+        List<ScrapeResult> results = client.scrape(tracker.url(), infoHashes)
+                .orTimeout(5, TimeUnit.SECONDS)
+                .join();
+
+        assertEquals(100, results.size());
+        assertEquals(2, tracker.scrapes.get(), "100 torrents should fit into two packets");
+        assertEquals(73, results.get(73)
+                .getSeeders());
+        assertEquals(99, results.get(99)
+                .getSeeders());
+        assertEquals(1000 + 74, results.get(74)
+                .getLeechers());
+    }
+
+    private static TrackerNetworkRequest request() {
+        return new TrackerNetworkRequest.Builder().infoHashBytes(new byte[20])
+                .peerId("-JB0001-000000000000")
+                .port(6881)
+                .left(() -> 1024)
+                .compact(1)
+                .build();
+    }
+
+    /**
+     * Minimal tracker answering connects with a fixed connection id and announces with two peers.
+     */
+    private static final class StubTracker implements AutoCloseable {
+
+        private static final long CONNECTION_ID = 0x1122334455667788L;
+
+        private final DatagramChannel channel;
+        private final Thread thread;
+        private final AtomicInteger connects = new AtomicInteger();
+        private final AtomicInteger announces = new AtomicInteger();
+        private final AtomicInteger scrapes = new AtomicInteger();
+        private final AtomicInteger received = new AtomicInteger();
+        private final AtomicInteger drop = new AtomicInteger();
+        private volatile String error;
+        private volatile int event = -1;
+
+        private StubTracker() throws IOException {
+            this.channel = DatagramChannel.open()
+                    .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            this.thread = new Thread(this::serve, "stub-tracker");
+            this.thread.start();
+        }
+
+        private String url() {
+            try {
+                return "udp://127.0.0.1:" + ((InetSocketAddress) channel.getLocalAddress()).getPort() + "/announce";
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private void serve() {
+            ByteBuffer packet = ByteBuffer.allocate(2048);
+            try {
+                while (channel.isOpen()) {
+                    packet.clear();
+                    SocketAddress sender = channel.receive(packet);
+                    packet.flip();
+                    received.incrementAndGet();
+                    if (drop.getAndUpdate(left -> Math.max(0, left - 1)) > 0) {
+                        continue;
+                    }
+
+                    long connectionId = packet.getLong(0);
+                    int action = packet.getInt(8);
+                    int transactionId = packet.getInt(12);
+                    channel.send(action == UdpTrackerClient.SCRAPE ? scrape(packet, transactionId) : respond(
+                            packet, connectionId, action, transactionId), sender);
+                }
+            } catch (IOException ignored) {
+                // channel closed
+            }
+        }
+
+        /**
+         * Reports the first byte of every info hash as seeders, and leechers 1000 above it.
+         */
+        private ByteBuffer scrape(ByteBuffer packet, int transactionId) {
+            scrapes.incrementAndGet();
+            int count = (packet.limit() - 16) / 20;
+            ByteBuffer response = ByteBuffer.allocate(8 + count * 12)
+                    .putInt(UdpTrackerClient.SCRAPE)
+                    .putInt(transactionId);
+            for (int i = 0; i < count; i++) {
+                int id = packet.get(16 + i * 20) & 0xFF;
+                response.putInt(id)
+                        .putInt(0)
+                        .putInt(1000 + id);
+            }
+            return response.flip();
+        }
+
+        private ByteBuffer respond(ByteBuffer packet, long connectionId, int action, int transactionId) {
+            if (error != null) {
+                byte[] message = error.getBytes(StandardCharsets.UTF_8);
+                return ByteBuffer.allocate(8 + message.length)
+                        .putInt(UdpTrackerClient.ERROR)
+                        .putInt(transactionId)
+                        .put(message)
+                        .flip();
+            }
+
+            if (action == UdpTrackerClient.CONNECT && connectionId == UdpTrackerClient.MAGIC_CONSTANT) {
+                connects.incrementAndGet();
+                return ByteBuffer.allocate(16)
+                        .putInt(UdpTrackerClient.CONNECT)
+                        .putInt(transactionId)
+                        .putLong(CONNECTION_ID)
+                        .flip();
+            }
+
+            if (action == UdpTrackerClient.ANNOUNCE && connectionId == CONNECTION_ID) {
+                announces.incrementAndGet();
+                event = packet.getInt(80);
+                return ByteBuffer.allocate(32)
+                        .putInt(UdpTrackerClient.ANNOUNCE)
+                        .putInt(transactionId)
+                        .putInt(1800)
+                        .putInt(3)
+                        .putInt(7)
+                        .put(new byte[]{10, 0, 0, 1})
+                        .putShort((short) 6881)
+                        .put(new byte[]{10, 0, 0, 2})
+                        .putShort((short) 51413)
+                        .flip();
+            }
+
+            return ByteBuffer.allocate(0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
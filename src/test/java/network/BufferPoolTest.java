@@ -0,0 +1,96 @@
+package network;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("BufferPool Tests")
+class BufferPoolTest {
+
+    @Test
+    @DisplayName("Should lease from the smallest size class that holds the message")
+    void testSizeClasses() {
+        assertEquals(BufferPool.SizeClass.CONTROL, BufferPool.SizeClass.of(5));
+        assertEquals(BufferPool.SizeClass.CONTROL, BufferPool.SizeClass.of(17));
+        assertEquals(BufferPool.SizeClass.HANDSHAKE, BufferPool.SizeClass.of(68));
+        assertEquals(BufferPool.SizeClass.BLOCK, BufferPool.SizeClass.of(16 * 1024 + 13));
+        assertEquals(BufferPool.SizeClass.READ, BufferPool.SizeClass.of(16 * 1024 + 14));
+        assertNull(BufferPool.SizeClass.of(32 * 1024 + 1));
+
+        BufferPool pool = new BufferPool(false);
+        ByteBuffer control = pool.lease(5);
+        assertTrue(control.isDirect());
+        assertEquals(BufferPool.SizeClass.CONTROL.getSize(), control.capacity());
+        assertEquals(5, control.limit());
+
+        ByteBuffer large = pool.lease(40_000);
+        assertFalse(large.isDirect(), "Messages larger than every class get a heap buffer");
+        assertEquals(40_000, large.capacity());
+        pool.release(large);
+        assertEquals(0, pool.getLeased(BufferPool.SizeClass.READ));
+    }
+
+    @Test
+    @DisplayName("Should carve buffers out of one slab and reuse released ones before allocating another")
+    void testSlabReuse() {
+        BufferPool pool = new BufferPool(false);
+        BufferPool.SizeClass sizeClass = BufferPool.SizeClass.HANDSHAKE;
+
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            buffers.add(pool.lease(sizeClass));
+        }
+        assertEquals(64, pool.getAllocated(sizeClass), "One slab serves the first 64 leases");
+        assertEquals(64, pool.getInUse(sizeClass));
+
+        buffers.forEach(pool::release);
+        assertEquals(0, pool.getInUse(sizeClass));
+
+        for (int i = 0; i < 64; i++) {
+            ByteBuffer buffer = pool.lease(sizeClass);
+            assertEquals(0, buffer.position());
+            assertEquals(sizeClass.getSize(), buffer.limit());
+        }
+        assertEquals(64, pool.getAllocated(sizeClass), "Released buffers are reused");
+
+        pool.lease(sizeClass);
+        assertEquals(128, pool.getAllocated(sizeClass), "An empty free list allocates the next slab");
+        assertEquals(129, pool.getLeased(sizeClass));
+        assertEquals(65, pool.getInUse(sizeClass));
+        assertEquals(0, pool.getAllocated(BufferPool.SizeClass.BLOCK), "Classes do not share slabs");
+    }
+
+    @Test
+    @DisplayName("Should ignore a buffer that is released twice in debug mode")
+    void testDoubleRelease() {
+        BufferPool pool = new BufferPool(true);
+        ByteBuffer first = pool.lease(BufferPool.SizeClass.CONTROL);
+        pool.lease(BufferPool.SizeClass.CONTROL);
+
+        pool.release(first);
+        pool.release(first);
+
+        assertEquals(1, pool.getInUse(BufferPool.SizeClass.CONTROL));
+        assertEquals(1, pool.reportLeaks());
+    }
+
+    @Test
+    @DisplayName("Should report buffers that were never released in debug mode only")
+    void testReportsLeaks() {
+        BufferPool pool = new BufferPool(true);
+        ByteBuffer returned = pool.lease(BufferPool.SizeClass.BLOCK);
+        pool.lease(BufferPool.SizeClass.READ);
+        pool.release(returned);
+
+        assertEquals(1, pool.reportLeaks());
+        assertEquals(-1, new BufferPool(false).reportLeaks());
+    }
+}
@@ -0,0 +1,165 @@
+package network;
+
+import core.PeerConnection;
+import core.bencode.TorrentFile;
+import core.bencode.TorrentFixtures;
+import core.network.Peer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("PeerEngine Tests")
+class PeerEngineTest {
+
+    private static final List<String> FRAMES = List.of("first", "second", "", "third frame", "last");
+
+    @TempDir
+    Path dir;
+
+    private TorrentFile torrentFile;
+    private ServerSocketChannel server;
+    private final List<String> received = new CopyOnWriteArrayList<>();
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    /**
+     * Decodes length prefixed frames and leaves a partial one in the buffer, like the torrent manager does.
+     */
+    private final ConnectionHandler handler = new ConnectionHandler() {
+        @Override
+        public void onRead(PeerConnection connection, ByteBuffer buffer) {
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt(buffer.position());
+                if (buffer.remaining() - 4 < length) {
+                    break;
+                }
+                byte[] frame = new byte[length];
+                buffer.position(buffer.position() + 4);
+                buffer.get(frame);
+                received.add(new String(frame, StandardCharsets.US_ASCII));
+            }
+        }
+
+        @Override
+        public void onFlushed(PeerConnection connection) {
+        }
+
+        @Override
+        public void onClosed(PeerConnection connection) {
+            closed.countDown();
+        }
+    };
+
+    @BeforeEach
+    void setUp() throws IOException {
+        torrentFile = TorrentFixtures.torrent(dir, List.of("udp://tracker.example:6969/announce"),
+                                              16 * 1024, 16 * 1024);
+        server = ServerSocketChannel.open()
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.close();
+        torrentFile.getStorage()
+                .close();
+    }
+
+    @Test
+    @DisplayName("Should reassemble frames split across reads and release the buffers on close with reactors")
+    void testReactorGroup() throws Exception {
+        PeerEngine engine = new ReactorGroup(1, handler);
+        try {
+            exchange(engine);
+        } finally {
+            engine.stop();
+        }
+    }
+
+    @Test
+    @DisplayName("Should reassemble frames split across reads and release the buffers on close with virtual threads")
+    void testVirtualThreadEngine() throws Exception {
+        PeerEngine engine = new VirtualThreadEngine(handler);
+        try {
+            exchange(engine);
+        } finally {
+            engine.stop();
+        }
+    }
+
+    private void exchange(PeerEngine engine) throws Exception {
+        BufferPool pool = BufferPool.shared();
+        long inUse = pool.getInUse(BufferPool.SizeClass.READ);
+        engine.start();
+
+        SocketChannel local = SocketChannel.open(server.getLocalAddress());
+        try (SocketChannel remote = server.accept()) {
+            PeerConnection connection = new PeerConnection(new Peer("127.0.0.1", 6881), torrentFile, local);
+            engine.register(connection);
+
+            ByteBuffer frames = ByteBuffer.allocate(256);
+            FRAMES.forEach(frame -> frames.putInt(frame.length())
+                    .put(frame.getBytes(StandardCharsets.US_ASCII)));
+            frames.flip();
+            // a byte at a time at first, so the length prefix and the payload arrive in pieces
+            for (int i = 0; i < 12; i++) {
+                write(remote, frames, 1);
+                Thread.sleep(5);
+            }
+            write(remote, frames, frames.remaining());
+            await(() -> received.size() == FRAMES.size());
+            assertEquals(FRAMES, received);
+
+            ByteBuffer message = pool.lease(4);
+            message.putInt(42)
+                    .flip();
+            connection.send(message);
+            ByteBuffer echoed = ByteBuffer.allocate(4);
+            while (echoed.hasRemaining()) {
+                remote.read(echoed);
+            }
+            assertEquals(42, echoed.getInt(0));
+            await(() -> engine.getMetrics()
+                    .getWrites() > 0);
+        }
+
+        assertTrue(closed.await(5, TimeUnit.SECONDS), "Closing the remote end closes the connection");
+        await(() -> pool.getInUse(BufferPool.SizeClass.READ) == inUse);
+        assertEquals(inUse, pool.getInUse(BufferPool.SizeClass.READ), "The read buffer went back to the pool");
+        assertEquals(0, engine.getMetrics()
+                .getConnections());
+    }
+
+    private static void write(SocketChannel channel, ByteBuffer frames, int bytes) throws IOException {
+        ByteBuffer slice = frames.slice(frames.position(), bytes);
+        while (slice.hasRemaining()) {
+            channel.write(slice);
+        }
+        frames.position(frames.position() + bytes);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package piece;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+@DisplayName("AvailabilityIndex Tests")
+class AvailabilityIndexTest {
+
+    @Test
+    @DisplayName("Should return the piece the fewest peers have")
+    void testFindRarest() {
+        AvailabilityIndex index = new AvailabilityIndex(4);
+        index.add(bits(0, 1, 2, 3));
+        index.add(bits(0, 1, 3));
+        index.add(bits(0, 3));
+
+        assertEquals(2, index.findRarest(piece -> false, piece -> true));
+        assertEquals(1, index.findRarest(piece -> false, piece -> piece != 2));
+    }
+
+    @Test
+    @DisplayName("Should skip pieces nobody has and pieces that are done")
+    void testSkipUnavailableAndDone() {
+        AvailabilityIndex index = new AvailabilityIndex(3);
+        index.add(bits(1, 2));
+        index.increment(2);
+
+        assertEquals(2, index.findRarest(piece -> piece == 1, piece -> true));
+        assertEquals(-1, index.findRarest(piece -> false, piece -> piece == 0));
+        assertEquals(2, index.findRarest(piece -> false, piece -> true), "Removed piece should stay removed");
+    }
+
+    @Test
+    @DisplayName("Should make a restored piece selectable again with the availability counted meanwhile")
+    void testRestore() {
+        AvailabilityIndex index = new AvailabilityIndex(4);
+        index.add(bits(0, 1, 2, 3));
+        index.add(bits(1, 2, 3));
+        index.add(bits(2, 3));
+
+        assertEquals(1, index.findRarest(piece -> piece == 0, piece -> true));
+
+        index.increment(0);
+        index.increment(0);
+        index.decrement(0);
+        index.decrement(1);
+        index.restore(0);
+        index.restore(0);
+
+        assertEquals(2, index.getAvailability(0));
+        assertEquals(1, index.findRarest(piece -> false, piece -> true));
+        assertEquals(0, index.findRarest(piece -> false, piece -> piece != 1));
+    }
+
+    @Test
+    @DisplayName("Should match a full recount after random updates")
+    void testMatchesRecount() {
+        int pieces = 200;
+        AvailabilityIndex index = new AvailabilityIndex(pieces);
+        int[] expected = new int[pieces];
+        Random random = new Random(7);
+
+        boolean[] removed = new boolean[pieces];
+
+        for (int i = 0; i < 20_000; i++) {
+            int piece = random.nextInt(pieces);
+            if (random.nextInt(10) == 0) {
+                // pieces finish and get reset in between
+                if (removed[piece]) {
+                    index.restore(piece);
+                } else {
+                    index.remove(piece);
+                }
+                removed[piece] = !removed[piece];
+            } else if (random.nextBoolean() || expected[piece] == 0) {
+                index.increment(piece);
+                expected[piece]++;
+            } else {
+                index.decrement(piece);
+                expected[piece]--;
+            }
+        }
+
+        int minimum = Integer.MAX_VALUE;
+        for (int piece = 0; piece < pieces; piece++) {
+            assertEquals(expected[piece], index.getAvailability(piece));
+            if (expected[piece] > 0 && !removed[piece]) {
+                minimum = Math.min(minimum, expected[piece]);
+            }
+        }
+        int rarest = index.findRarest(piece -> false, piece -> true);
+        assertFalse(removed[rarest]);
+        assertEquals(minimum, expected[rarest]);
+    }
+
+    private static BitSet bits(int... pieces) {
+        BitSet bitSet = new BitSet();
+        for (int piece : pieces) {
+            bitSet.set(piece);
+        }
+        return bitSet;
+    }
+}
@@ -0,0 +1,189 @@
+package piece;
+
+import core.PeerConnection;
+import core.bencode.TorrentFile;
+import core.bencode.TorrentFixtures;
+import core.network.Peer;
+import network.ConnectionOwner;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import storage.PiecePool;
+import storage.PieceStorage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("RarestFirstPicker Tests")
+class RarestFirstPickerTest {
+
+    private static final int BLOCK_SIZE = 16 * 1024;
+    private static final int PIECE_LENGTH = 2 * BLOCK_SIZE;
+    private static final int PIECES = 6;
+    private static final ConnectionOwner OWNER = new ConnectionOwner() {
+        @Override
+        public void requestWrite(PeerConnection connection) {
+        }
+
+        @Override
+        public void close(PeerConnection connection) {
+        }
+    };
+
+    @TempDir
+    Path dir;
+
+    private TorrentFile torrentFile;
+    private List<PieceStorage> pieces;
+
+    @BeforeEach
+    void setUp() {
+        torrentFile = TorrentFixtures.torrent(dir, List.of("udp://tracker.example:6969/announce"), PIECE_LENGTH,
+                                              PIECES * PIECE_LENGTH);
+        pieces = torrentFile.getInfo()
+                .getPiecesStorage();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        torrentFile.getStorage()
+                .close();
+    }
+
+    @Test
+    @DisplayName("Should start the piece the fewest peers have")
+    void testRarestFirst() {
+        RarestFirstPicker picker = new RarestFirstPicker(new PiecePool(PIECES));
+        PeerConnection seed = connect(picker, 0, 1, 2, 3, 4, 5);
+        connect(picker, 0, 1, 3, 4, 5);
+        connect(picker, 1, 3);
+
+        assertSame(pieces.get(2), picker.find(seed));
+    }
+
+    @Test
+    @DisplayName("Should keep a peer on its piece until every block of it is requested")
+    void testKeepsOwnPiece() {
+        RarestFirstPicker picker = new RarestFirstPicker(new PiecePool(PIECES));
+        PeerConnection peer = connect(picker, 0, 1, 2, 3, 4, 5);
+
+        PieceStorage piece = picker.find(peer);
+        piece.getNextBlock(peer);
+        assertSame(piece, picker.find(peer));
+
+        piece.getNextBlock(peer);
+        PieceStorage next = picker.find(peer);
+        assertNotNull(next);
+        assertNotEquals(piece, next, "All blocks of the piece are requested, the peer moves on");
+    }
+
+    @Test
+    @DisplayName("Should not join a piece another connected peer is working on while new pieces can be started")
+    void testDoesNotJoinOwnedPiece() {
+        RarestFirstPicker picker = new RarestFirstPicker(new PiecePool(PIECES));
+        PeerConnection first = connect(picker, 0, 1, 2, 3, 4, 5);
+        PeerConnection second = connect(picker, 0, 1, 2, 3, 4, 5);
+
+        PieceStorage piece = picker.find(first);
+        piece.getNextBlock(first);
+
+        assertNotEquals(piece, picker.find(second));
+    }
+
+    @Test
+    @DisplayName("Should finish the partial piece of a disconnected peer before starting a rarer one")
+    void testContinuesOrphanedPiece() {
+        RarestFirstPicker picker = new RarestFirstPicker(new PiecePool(PIECES));
+        PeerConnection first = connect(picker, 0, 1, 2, 3, 4, 5);
+        PieceStorage piece = picker.find(first);
+        download(piece, first, 0);
+        disconnect(picker, first);
+
+        PeerConnection second = connect(picker, 0, 1, 2, 3, 4, 5);
+        connect(picker, 0, 1, 2, 3, 4, 5);
+        connect(picker, 0, 1, 2, 3, 5);
+
+        assertSame(piece, picker.find(second), "Piece 4 is rarer, but the partial piece comes first");
+    }
+
+    @Test
+    @DisplayName("Should pick the partial piece with the most downloaded data")
+    void testPrefersMostDownloadedPartial() {
+        RarestFirstPicker picker = new RarestFirstPicker(new PiecePool(PIECES));
+        PeerConnection first = connect(picker, 0);
+        PeerConnection second = connect(picker, 1);
+        PieceStorage barelyStarted = picker.find(first);
+        PieceStorage halfDone = picker.find(second);
+        barelyStarted.getNextBlock(first);
+        download(halfDone, second, 0);
+        disconnect(picker, first);
+        disconnect(picker, second);
+
+        PeerConnection third = connect(picker, 0, 1, 2, 3, 4, 5);
+        assertSame(halfDone, picker.find(third));
+    }
+
+    @Test
+    @DisplayName("Should share pieces in flight once the pool is exhausted")
+    void testSharesPiecesWhenPoolExhausted() {
+        RarestFirstPicker picker = new RarestFirstPicker(new PiecePool(1));
+        PeerConnection first = connect(picker, 0, 1, 2, 3, 4, 5);
+        PeerConnection second = connect(picker, 0, 1, 2, 3, 4, 5);
+
+        PieceStorage piece = picker.find(first);
+        piece.getNextBlock(first);
+
+        assertSame(piece, picker.find(second));
+        piece.getNextBlock(second);
+        assertNull(picker.find(second), "Every block of the only piece in flight is requested");
+    }
+
+    @Test
+    @DisplayName("Should hand out a reset piece again")
+    void testResetPieceIsPickedAgain() {
+        RarestFirstPicker picker = new RarestFirstPicker(new PiecePool(PIECES));
+        PeerConnection peer = connect(picker, 3);
+        pieces.get(3)
+                .setVerified(true);
+        assertNull(picker.find(peer));
+
+        pieces.get(3)
+                .setVerified(false);
+        picker.onPieceReset(torrentFile, 3);
+        assertSame(pieces.get(3), picker.find(peer));
+    }
+
+    private PeerConnection connect(RarestFirstPicker picker, int... have) {
+        BitSet bitField = new BitSet(PIECES);
+        for (int piece : have) {
+            bitField.set(piece);
+        }
+
+        PeerConnection connection = new PeerConnection(new Peer("10.0.0.1", 6881), torrentFile, null);
+        connection.setOwner(OWNER);
+        connection.setBitField(bitField);
+        picker.onBitField(connection, bitField);
+        return connection;
+    }
+
+    private static void disconnect(RarestFirstPicker picker, PeerConnection connection) {
+        connection.setOwner(null);
+        picker.onDisconnect(connection);
+    }
+
+    private static void download(PieceStorage piece, PeerConnection peer, int block) {
+        piece.getNextBlock(peer);
+        assertTrue(piece.updateBlock(block * BLOCK_SIZE, ByteBuffer.allocate(BLOCK_SIZE)));
+    }
+}
@@ -0,0 +1,114 @@
+package storage;
+
+import common.TorrentState;
+import core.bencode.TorrentFile;
+import core.bencode.TorrentFixtures;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.GlobalConfig;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("DiskWriter Tests")
+class DiskWriterTest {
+
+    private static final int PIECE_LENGTH = PieceBuffer.BLOCK_SIZE;
+    // large enough that a few journal records stay below the snapshot threshold
+    private static final int PIECES = 40;
+
+    @TempDir
+    Path dir;
+
+    private byte[] data;
+    private TorrentFile torrentFile;
+    private List<PieceStorage> pieces;
+    private PiecePool pool;
+    private DiskWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        data = new byte[PIECES * PIECE_LENGTH];
+        new Random(3).nextBytes(data);
+        torrentFile = TorrentFixtures.torrent(dir, PIECE_LENGTH, data);
+        pieces = torrentFile.getInfo()
+                .getPiecesStorage();
+        pool = new PiecePool(PIECES);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (writer != null) {
+            writer.stop();
+        }
+        torrentFile.getStorage()
+                .close();
+    }
+
+    @Test
+    @DisplayName("Should persist a batch of pieces, journal them together and release their slots")
+    void testPersistsBatch() throws Exception {
+        CountDownLatch persisted = new CountDownLatch(1);
+        writer = new DiskWriter(pool, torrent -> persisted.countDown());
+
+        // queued before the writer starts, so they are drained as one batch
+        for (int index : new int[]{7, 5, 6}) {
+            writer.submit(torrentFile, download(index));
+        }
+        assertEquals(3, pool.getInUse());
+        writer.start();
+
+        assertTrue(persisted.await(10, TimeUnit.SECONDS), "The batch should have been persisted");
+        assertEquals(0, pool.getInUse(), "Every persisted piece gives back its slot");
+        assertEquals(3, torrentFile.getMetaData()
+                .getBitField()
+                .cardinality());
+        // three records of a piece index and its checksum
+        assertEquals(3L * 8, Files.size(dir.resolve(torrentFile.getInfoHash() + GlobalConfig.JOURNAL_SUFFIX)));
+
+        byte[] written = Files.readAllBytes(dir.resolve("a.bin"));
+        assertArrayEquals(Arrays.copyOfRange(data, 5 * PIECE_LENGTH, 8 * PIECE_LENGTH),
+                          Arrays.copyOfRange(written, 5 * PIECE_LENGTH, 8 * PIECE_LENGTH));
+    }
+
+    @Test
+    @DisplayName("Should mark the torrent finished once every piece is persisted")
+    void testFinishesTorrent() throws Exception {
+        writer = new DiskWriter(pool, torrent -> {
+        });
+        writer.start();
+
+        for (PieceStorage piece : pieces) {
+            writer.submit(torrentFile, download(piece.getIndex()));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (torrentFile.getMetaData()
+                .getState() != TorrentState.FINISHED && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(TorrentState.FINISHED, torrentFile.getMetaData()
+                .getState());
+    }
+
+    private PieceStorage download(int index) {
+        PieceStorage piece = pieces.get(index);
+        assertTrue(pool.attach(piece));
+        assertTrue(piece.updateBlock(0, ByteBuffer.wrap(data, index * PIECE_LENGTH, PIECE_LENGTH)));
+        assertTrue(piece.verify(PieceVerifier.sha1()));
+        return piece;
+    }
+}
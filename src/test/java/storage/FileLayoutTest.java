@@ -0,0 +1,103 @@
+package storage;
+
+import common.AllocationMode;
+import core.bencode.TorrentFixtures;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("FileLayout Tests")
+class FileLayoutTest {
+
+    private static final int PIECE_LENGTH = PieceBuffer.BLOCK_SIZE;
+    // the second file is larger than the zero chunk, so it is filled in more than one write
+    private static final long[] FILE_LENGTHS = {10_000, 3 * 1024 * 1024 + 5};
+
+    @TempDir
+    Path dir;
+
+    private MappedFileStorage storage;
+    private FileLayout layout;
+
+    @BeforeEach
+    void setUp() {
+        byte[] data = new byte[(int) (FILE_LENGTHS[0] + FILE_LENGTHS[1])];
+        storage = new MappedFileStorage(TorrentFixtures.info(PIECE_LENGTH, data, FILE_LENGTHS), dir);
+        layout = new FileLayout(storage);
+    }
+
+    @AfterEach
+    void tearDown() {
+        storage.close();
+    }
+
+    @Test
+    @DisplayName("Should bring every file to its length without writing data when sparse")
+    void testSparse() throws Exception {
+        layout.allocate(AllocationMode.SPARSE);
+
+        assertLengths();
+        assertTrue(layout.hasCreatedAllFiles());
+        assertEquals(1.0, layout.getProgress());
+    }
+
+    @Test
+    @DisplayName("Should fill every file with zeros up to its length when preallocating")
+    void testPreallocate() throws Exception {
+        layout.allocate(AllocationMode.PREALLOCATE);
+
+        assertLengths();
+        assertTrue(layout.hasCreatedAllFiles());
+        assertEquals(layout.getTotalBytes(), layout.getAllocatedBytes());
+        assertArrayEquals(new byte[(int) FILE_LENGTHS[1]], Files.readAllBytes(dir.resolve("b.bin")));
+    }
+
+    @Test
+    @DisplayName("Should never overwrite data that is already on disk")
+    void testKeepsExistingData() throws Exception {
+        byte[] existing = new byte[4096];
+        Arrays.fill(existing, (byte) 7);
+
+        for (AllocationMode mode : AllocationMode.values()) {
+            Files.write(dir.resolve("b.bin"), existing);
+
+            layout.allocate(mode);
+
+            assertLengths();
+            assertFalse(layout.hasCreatedAllFiles(), "b.bin was on disk already");
+            byte[] written = Files.readAllBytes(dir.resolve("b.bin"));
+            assertArrayEquals(existing, Arrays.copyOf(written, existing.length), mode + " overwrote data");
+            assertEquals(0, written[existing.length]);
+        }
+    }
+
+    @Test
+    @DisplayName("Should leave files that are longer than expected alone")
+    void testKeepsLongerFiles() throws Exception {
+        byte[] longer = new byte[(int) FILE_LENGTHS[0] + 100];
+        Arrays.fill(longer, (byte) 1);
+        Files.write(dir.resolve("a.bin"), longer);
+
+        layout.allocate(AllocationMode.PREALLOCATE);
+
+        assertArrayEquals(longer, Files.readAllBytes(dir.resolve("a.bin")));
+        assertEquals(FILE_LENGTHS[1], Files.size(dir.resolve("b.bin")));
+        assertFalse(layout.hasCreatedAllFiles());
+    }
+
+    private void assertLengths() throws Exception {
+        assertEquals(FILE_LENGTHS[0], Files.size(dir.resolve("a.bin")));
+        assertEquals(FILE_LENGTHS[1], Files.size(dir.resolve("b.bin")));
+    }
+}
@@ -0,0 +1,67 @@
+package storage;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@DisplayName("FileSpanIndex Tests")
+class FileSpanIndexTest {
+
+    @Test
+    @DisplayName("Should map a piece inside a single file to one span")
+    void testPieceInsideFile() {
+        FileSpanIndex index = new FileSpanIndex(new long[]{100}, 16);
+
+        List<FileSpanIndex.Span> spans = index.pieceSpans(2, 16);
+
+        assertEquals(1, spans.size());
+        assertEquals(0, spans.get(0).getFileIndex());
+        assertEquals(32, spans.get(0).getFileOffset());
+        assertEquals(16, spans.get(0).getLength());
+    }
+
+    @Test
+    @DisplayName("Should split a piece crossing file boundaries and skip empty files")
+    void testPieceAcrossFiles() {
+        FileSpanIndex index = new FileSpanIndex(new long[]{10, 0, 4, 30}, 16);
+
+        List<FileSpanIndex.Span> spans = index.pieceSpans(0, 16);
+
+        assertEquals(3, spans.size(), "Piece should touch files 0, 2 and 3");
+        assertEquals(0, spans.get(0).getFileIndex());
+        assertEquals(10, spans.get(0).getLength());
+        assertEquals(2, spans.get(1).getFileIndex());
+        assertEquals(10, spans.get(1).getRangeOffset());
+        assertEquals(4, spans.get(1).getLength());
+        assertEquals(3, spans.get(2).getFileIndex());
+        assertEquals(0, spans.get(2).getFileOffset());
+        assertEquals(2, spans.get(2).getLength());
+    }
+
+    @Test
+    @DisplayName("Should find the file holding an offset with many small files")
+    void testFileAtWithManyFiles() {
+        long[] lengths = new long[50_000];
+        Arrays.fill(lengths, 3);
+        FileSpanIndex index = new FileSpanIndex(lengths, 16384);
+
+        assertEquals(0, index.fileAt(0));
+        assertEquals(33_333, index.fileAt(99_999));
+        assertEquals(49_999, index.fileAt(149_999));
+        assertEquals(150_000, index.getTotalLength());
+    }
+
+    @Test
+    @DisplayName("Should reject ranges outside of the payload")
+    void testOutOfRange() {
+        FileSpanIndex index = new FileSpanIndex(new long[]{10, 10}, 8);
+
+        assertThrows(IndexOutOfBoundsException.class, () -> index.fileAt(20));
+        assertThrows(IndexOutOfBoundsException.class, () -> index.spans(15, 6));
+    }
+}
@@ -0,0 +1,99 @@
+package storage;
+
+import core.bencode.TorrentFixtures;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("PiecePool Tests")
+class PiecePoolTest {
+
+    private static final int PIECE_LENGTH = 2 * PieceBuffer.BLOCK_SIZE;
+    private static final int PIECES = 4;
+
+    private List<PieceStorage> pieces;
+
+    @BeforeEach
+    void setUp() {
+        pieces = TorrentFixtures.info(PIECE_LENGTH, new byte[PIECES * PIECE_LENGTH])
+                .getPiecesStorage();
+    }
+
+    @Test
+    @DisplayName("Should hand a released buffer to the next piece, reset for it")
+    void testRecyclesReleasedBuffer() {
+        PiecePool pool = new PiecePool(1);
+        PieceStorage first = pieces.get(0);
+        PieceStorage second = pieces.get(1);
+
+        assertTrue(pool.attach(first));
+        PieceBuffer buffer = first.detach();
+        first.attach(buffer);
+        while (first.getNextBlock(null) != null) {
+            // every block of the first piece is requested
+        }
+
+        pool.release(first);
+        assertFalse(first.isAttached());
+        assertTrue(pool.attach(second));
+        assertNotNull(second.getNextBlock(null), "The recycled buffer starts without requested blocks");
+        assertSame(buffer, second.detach());
+    }
+
+    @Test
+    @DisplayName("Should refuse to attach once every buffer is in use and accept again after a release")
+    void testExhausted() {
+        PiecePool pool = new PiecePool(2);
+        assertTrue(pool.attach(pieces.get(0)));
+        assertTrue(pool.attach(pieces.get(0)), "Attaching an attached piece takes no second buffer");
+        assertTrue(pool.attach(pieces.get(1)));
+        assertTrue(pool.isExhausted());
+
+        assertFalse(pool.attach(pieces.get(2)));
+        assertFalse(pieces.get(2)
+                            .isAttached());
+
+        pool.release(pieces.get(0));
+        assertFalse(pool.isExhausted());
+        assertTrue(pool.attach(pieces.get(2)));
+    }
+
+    @Test
+    @DisplayName("Should count reused buffers as hits, new ones as misses and track the high-water mark")
+    void testCounters() {
+        PiecePool pool = new PiecePool(PIECES);
+        pool.attach(pieces.get(0));
+        pool.attach(pieces.get(1));
+        pool.attach(pieces.get(2));
+        pool.release(pieces.get(0));
+        pool.release(pieces.get(1));
+        pool.release(pieces.get(1));
+
+        assertEquals(1, pool.getInUse(), "Releasing a detached piece changes nothing");
+        assertEquals(3, pool.getHighWaterMark());
+
+        pool.attach(pieces.get(0));
+        pool.attach(pieces.get(1));
+        pool.attach(pieces.get(3));
+
+        assertEquals(4, pool.getInUse());
+        assertEquals(4, pool.getHighWaterMark());
+        assertEquals(2, pool.getHits());
+        assertEquals(4, pool.getMisses());
+    }
+
+    @Test
+    @DisplayName("Should reject a pool without capacity")
+    void testRejectsEmptyPool() {
+        assertThrows(IllegalArgumentException.class, () -> new PiecePool(0));
+    }
+}
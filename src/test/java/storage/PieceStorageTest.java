@@ -0,0 +1,193 @@
+package storage;
+
+import core.bencode.TorrentFile;
+import core.bencode.TorrentFixtures;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("PieceStorage Tests")
+class PieceStorageTest {
+
+    private static final int PIECE_LENGTH = 4 * PieceBuffer.BLOCK_SIZE;
+    // two pieces, the first one crossing from the first file into the second, the last one shorter
+    private static final long[] FILE_LENGTHS = {40_000, PIECE_LENGTH + 20_000 - 40_000};
+
+    @TempDir
+    Path dir;
+
+    private byte[] data;
+    private MappedFileStorage storage;
+    private List<PieceStorage> pieces;
+    private PiecePool pool;
+    private RecordingListener listener;
+
+    @BeforeEach
+    void setUp() {
+        data = new byte[(int) (FILE_LENGTHS[0] + FILE_LENGTHS[1])];
+        new Random(42).nextBytes(data);
+
+        TorrentFile.Info info = TorrentFixtures.info(PIECE_LENGTH, data, FILE_LENGTHS);
+        storage = new MappedFileStorage(info, dir);
+        pieces = info.getPiecesStorage();
+        pool = new PiecePool(pieces.size());
+        listener = new RecordingListener();
+        for (PieceStorage piece : pieces) {
+            piece.setStorage(storage);
+            piece.setListener(listener);
+            assertTrue(pool.attach(piece));
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        storage.close();
+    }
+
+    @Test
+    @DisplayName("Should hash blocks that arrive in order while they are written")
+    void testInOrderBlocksAreHashedIncrementally() {
+        PieceStorage piece = pieces.get(0);
+        write(piece, 0, 1, 2, 3);
+
+        assertEquals(PIECE_LENGTH, piece.detach().getHashedBytes(), "Whole piece should be hashed already");
+    }
+
+    @Test
+    @DisplayName("Should stop the hashed prefix at the first block that is still missing")
+    void testHashedPrefixStopsAtGap() {
+        PieceStorage piece = pieces.get(0);
+        write(piece, 2, 0, 1);
+
+        // block 2 was written before the gap closed, it is left for the verifier
+        assertEquals(2 * PieceBuffer.BLOCK_SIZE, piece.detach()
+                .getHashedBytes());
+    }
+
+    @Test
+    @DisplayName("Should verify a piece hashed while it arrived, without touching the given digest")
+    void testVerifyUsesRunningDigest() throws Exception {
+        PieceStorage piece = pieces.get(0);
+        write(piece, 0, 1, 2, 3);
+
+        // any other algorithm would produce a mismatch if the running digest was not used
+        assertTrue(piece.verify(MessageDigest.getInstance("MD5")));
+        assertTrue(piece.isVerified());
+        assertEquals(List.of(0), listener.completed);
+        assertEquals(List.of(0), listener.verified);
+    }
+
+    @Test
+    @DisplayName("Should hash the in-order prefix and finish the tail when verifying")
+    void testOutOfOrderBlocks() {
+        PieceStorage piece = pieces.get(0);
+        write(piece, 2, 0, 3, 1);
+
+        assertTrue(piece.verify(PieceVerifier.sha1()));
+        assertEquals(List.of(0), listener.verified);
+    }
+
+    @Test
+    @DisplayName("Should verify a short last piece with a partial last block")
+    void testShortLastPiece() {
+        PieceStorage piece = pieces.get(1);
+        assertEquals(data.length - PIECE_LENGTH, piece.getLength());
+
+        write(piece, 1, 0);
+
+        assertTrue(piece.verify(PieceVerifier.sha1()));
+    }
+
+    @Test
+    @DisplayName("Should reset a corrupt piece, including its running digest, and verify the retry")
+    void testCorruptPieceStartsOver() {
+        PieceStorage piece = pieces.get(0);
+        data[5] ^= 1;
+        write(piece, 0, 1, 2, 3);
+        data[5] ^= 1;
+
+        assertFalse(piece.verify(PieceVerifier.sha1()));
+        assertFalse(piece.isVerified());
+        assertEquals(List.of(0), listener.failed);
+
+        write(piece, 0, 1, 2, 3);
+        assertTrue(piece.verify(PieceVerifier.sha1()));
+    }
+
+    @Test
+    @DisplayName("Should reject duplicate and misaligned blocks")
+    void testRejectsInvalidBlocks() {
+        PieceStorage piece = pieces.get(0);
+        write(piece, 0);
+
+        assertFalse(piece.updateBlock(0, block(piece, 0)), "Block was already written");
+        assertFalse(piece.updateBlock(1, ByteBuffer.wrap(new byte[PieceBuffer.BLOCK_SIZE])));
+        assertFalse(piece.updateBlock(PieceBuffer.BLOCK_SIZE, ByteBuffer.wrap(new byte[10])));
+        assertFalse(piece.updateBlock(PIECE_LENGTH, ByteBuffer.wrap(new byte[PieceBuffer.BLOCK_SIZE])));
+    }
+
+    @Test
+    @DisplayName("Should write a piece across the files it spans")
+    void testPieceAcrossFiles() throws Exception {
+        PieceStorage piece = pieces.get(0);
+        write(piece, 3, 2, 1, 0);
+        assertTrue(piece.verify(PieceVerifier.sha1()));
+        piece.flush();
+
+        byte[] first = Files.readAllBytes(dir.resolve("a.bin"));
+        byte[] second = Files.readAllBytes(dir.resolve("b.bin"));
+        assertArrayEquals(Arrays.copyOfRange(data, 0, (int) FILE_LENGTHS[0]), first);
+        assertArrayEquals(Arrays.copyOfRange(data, (int) FILE_LENGTHS[0], PIECE_LENGTH),
+                          Arrays.copyOfRange(second, 0, PIECE_LENGTH - (int) FILE_LENGTHS[0]));
+    }
+
+    private void write(PieceStorage piece, int... blocks) {
+        for (int block : blocks) {
+            assertTrue(piece.updateBlock(block * PieceBuffer.BLOCK_SIZE, block(piece, block)));
+        }
+    }
+
+    private ByteBuffer block(PieceStorage piece, int block) {
+        int offset = block * PieceBuffer.BLOCK_SIZE;
+        int length = Math.min(PieceBuffer.BLOCK_SIZE, piece.getLength() - offset);
+        return ByteBuffer.wrap(data, piece.getIndex() * PIECE_LENGTH + offset, length);
+    }
+
+    private static final class RecordingListener implements PieceListener {
+
+        private final List<Integer> completed = new ArrayList<>();
+        private final List<Integer> verified = new ArrayList<>();
+        private final List<Integer> failed = new ArrayList<>();
+
+        @Override
+        public void onPieceCompleted(PieceStorage piece) {
+            completed.add(piece.getIndex());
+        }
+
+        @Override
+        public void onPieceVerified(PieceStorage piece) {
+            verified.add(piece.getIndex());
+        }
+
+        @Override
+        public void onPieceFailed(PieceStorage piece) {
+            failed.add(piece.getIndex());
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package storage;
+
+import core.bencode.TorrentFile;
+import core.bencode.TorrentFixtures;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("PieceVerifier Tests")
+class PieceVerifierTest {
+
+    private static final int PIECE_LENGTH = 2 * PieceBuffer.BLOCK_SIZE;
+    private static final int PIECES = 32;
+
+    @TempDir
+    Path dir;
+
+    private final PieceVerifier verifier = new PieceVerifier(4);
+
+    @AfterEach
+    void tearDown() {
+        verifier.stop();
+    }
+
+    @Test
+    @DisplayName("Should hash completed pieces on the pool and report every piece once")
+    void testVerifiesCompletedPieces() throws Exception {
+        byte[] data = new byte[PIECES * PIECE_LENGTH];
+        new Random(7).nextBytes(data);
+        TorrentFile.Info info = TorrentFixtures.info(PIECE_LENGTH, data);
+
+        Set<Integer> verified = ConcurrentHashMap.newKeySet();
+        Set<Integer> failed = ConcurrentHashMap.newKeySet();
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        CountDownLatch reported = new CountDownLatch(PIECES);
+        PieceListener listener = new PieceListener() {
+            @Override
+            public void onPieceCompleted(PieceStorage piece) {
+                verifier.submit(piece);
+            }
+
+            @Override
+            public void onPieceVerified(PieceStorage piece) {
+                threads.add(Thread.currentThread()
+                                    .getName());
+                verified.add(piece.getIndex());
+                reported.countDown();
+            }
+
+            @Override
+            public void onPieceFailed(PieceStorage piece) {
+                failed.add(piece.getIndex());
+                reported.countDown();
+            }
+        };
+
+        // corrupt the second block of piece 5 after its hash was taken
+        data[5 * PIECE_LENGTH + PieceBuffer.BLOCK_SIZE] ^= 1;
+
+        try (MappedFileStorage storage = new MappedFileStorage(info, dir)) {
+            List<PieceStorage> pieces = info.getPiecesStorage();
+            PiecePool pool = new PiecePool(PIECES);
+            for (PieceStorage piece : pieces) {
+                piece.setStorage(storage);
+                piece.setListener(listener);
+                pool.attach(piece);
+                // out of order, so the verifier has to hash the tail itself
+                for (int block : new int[]{1, 0}) {
+                    int offset = block * PieceBuffer.BLOCK_SIZE;
+                    piece.updateBlock(offset, ByteBuffer.wrap(data, piece.getIndex() * PIECE_LENGTH + offset,
+                                                              PieceBuffer.BLOCK_SIZE));
+                }
+            }
+
+            assertTrue(reported.await(10, TimeUnit.SECONDS), "Every piece should have been reported");
+        }
+
+        assertEquals(Set.of(5), failed);
+        assertEquals(PIECES - 1, verified.size());
+        assertTrue(threads.stream()
+                           .allMatch(name -> name.startsWith("PieceVerifier-")), "Hashing belongs on the pool");
+    }
+}
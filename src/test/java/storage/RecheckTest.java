@@ -0,0 +1,142 @@
+package storage;
+
+import common.TorrentState;
+import core.bencode.TorrentFile;
+import core.bencode.TorrentFixtures;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("Recheck Tests")
+class RecheckTest {
+
+    private static final int PIECE_LENGTH = 2 * PieceBuffer.BLOCK_SIZE;
+    private static final int PIECES = 8;
+    private static final Executor DIRECT = Runnable::run;
+
+    @TempDir
+    Path dir;
+
+    private byte[] data;
+    private TorrentFile torrentFile;
+    private List<PieceStorage> pieces;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        data = new byte[PIECES * PIECE_LENGTH - 1000];
+        new Random(11).nextBytes(data);
+        torrentFile = TorrentFixtures.torrent(dir, PIECE_LENGTH, data);
+        pieces = torrentFile.getInfo()
+                .getPiecesStorage();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        torrentFile.getStorage()
+                .close();
+    }
+
+    @Test
+    @DisplayName("Should finish a torrent whose data is complete on disk")
+    void testCompleteData() throws Exception {
+        Files.write(dir.resolve("a.bin"), data);
+
+        Recheck recheck = new Recheck(torrentFile);
+        recheck.start(DIRECT, 2)
+                .join();
+
+        assertEquals(1.0, recheck.getProgress());
+        assertTrue(pieces.stream()
+                           .allMatch(PieceStorage::isVerified));
+        assertEquals(PIECES, torrentFile.getMetaData()
+                .getBitField()
+                .cardinality());
+        assertEquals(TorrentState.FINISHED, torrentFile.getMetaData()
+                .getState());
+    }
+
+    @Test
+    @DisplayName("Should merge the result into pieces verified before and during the scan")
+    void testMergeRules() throws Exception {
+        corrupt(2);
+        corrupt(5);
+        Files.write(dir.resolve("a.bin"), data);
+
+        // verified at start but bad on disk
+        verify(2);
+        // good on disk but not known yet
+        assertFalse(pieces.get(3)
+                            .isVerified());
+
+        Recheck recheck = new Recheck(torrentFile);
+        recheck.start(runnable -> {
+            // piece 5 is downloaded and verified by the live torrent while the scan reads stale data
+            verify(5);
+            runnable.run();
+        }, 2).join();
+
+        assertFalse(pieces.get(2)
+                            .isVerified(), "Bad data that was verified at start is invalidated");
+        assertTrue(pieces.get(3)
+                           .isVerified(), "Good data is found");
+        assertTrue(pieces.get(5)
+                           .isVerified(), "A piece verified during the scan keeps its bit");
+
+        BitSet expected = new BitSet(PIECES);
+        expected.set(0, PIECES);
+        expected.clear(2);
+        assertEquals(expected, torrentFile.getMetaData()
+                .getBitField());
+        assertEquals(TorrentState.DOWNLOADING, torrentFile.getMetaData()
+                .getState());
+    }
+
+    @Test
+    @DisplayName("Should leave CHECKING when cancelled and only hash the remaining pieces when started again")
+    void testCancel() throws Exception {
+        Files.write(dir.resolve("a.bin"), data);
+
+        Recheck recheck = new Recheck(torrentFile);
+        recheck.start(runnable -> {
+            recheck.cancel();
+            runnable.run();
+        }, 2).join();
+
+        assertTrue(recheck.isCancelled());
+        assertTrue(recheck.getProgress() < 1.0);
+        assertEquals(TorrentState.DOWNLOADING, torrentFile.getMetaData()
+                .getState());
+
+        recheck.start(DIRECT, 2)
+                .join();
+
+        assertFalse(recheck.isCancelled());
+        assertEquals(1.0, recheck.getProgress());
+        assertEquals(TorrentState.FINISHED, torrentFile.getMetaData()
+                .getState());
+    }
+
+    private void corrupt(int piece) {
+        data[piece * PIECE_LENGTH + 100] ^= 1;
+    }
+
+    private void verify(int piece) {
+        pieces.get(piece)
+                .setVerified(true);
+        torrentFile.getMetaData()
+                .updateBitField(piece);
+    }
+}
@@ -0,0 +1,220 @@
+package tasks;
+
+import core.PeerConnection;
+import core.bencode.TorrentFile;
+import core.bencode.TorrentFixtures;
+import core.network.Peer;
+import network.ConnectionOwner;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import storage.PiecePool;
+import storage.PieceStorage;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("EndGame Tests")
+class EndGameTest {
+
+    private static final int BLOCK_SIZE = 16 * 1024;
+    private static final int PIECE_LENGTH = 2 * BLOCK_SIZE;
+    private static final byte REQUEST = 6;
+    private static final byte CANCEL = 8;
+    private static final ConnectionOwner OWNER = new ConnectionOwner() {
+        @Override
+        public void requestWrite(PeerConnection connection) {
+        }
+
+        @Override
+        public void close(PeerConnection connection) {
+        }
+    };
+
+    @TempDir
+    Path dir;
+
+    private TorrentFile torrentFile;
+    private List<PieceStorage> pieces;
+    private PiecePool pool;
+    private ServerSocketChannel server;
+    private final Map<PeerConnection, SocketChannel> remotes = new HashMap<>();
+    private final EndGame endGame = new EndGame();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        torrentFile = TorrentFixtures.torrent(dir, List.of("udp://tracker.example:6969/announce"), PIECE_LENGTH,
+                                              2 * PIECE_LENGTH);
+        pieces = torrentFile.getInfo()
+                .getPiecesStorage();
+        pool = new PiecePool(pieces.size());
+        server = ServerSocketChannel.open()
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        // only piece 0 is left to download
+        pieces.get(1)
+                .setVerified(true);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (Map.Entry<PeerConnection, SocketChannel> remote : remotes.entrySet()) {
+            remote.getKey()
+                    .releaseBuffers();
+            remote.getKey()
+                    .getChannel()
+                    .close();
+            remote.getValue()
+                    .close();
+        }
+        server.close();
+        torrentFile.getStorage()
+                .close();
+    }
+
+    @Test
+    @DisplayName("Should only activate once every missing block is in flight")
+    void testActivation() throws IOException {
+        PeerConnection first = connect();
+        PieceStorage piece = pieces.get(0);
+        assertFalse(endGame.isActive(torrentFile), "The missing piece was not started yet");
+
+        assertTrue(pool.attach(piece));
+        piece.getNextBlock(first);
+        assertFalse(endGame.isActive(torrentFile), "The second block was never requested");
+
+        piece.getNextBlock(first);
+        assertTrue(endGame.isActive(torrentFile));
+
+        piece.setVerified(true);
+        assertFalse(endGame.isActive(torrentFile), "Nothing is missing anymore");
+    }
+
+    @Test
+    @DisplayName("Should request a block from at most three peers, counting the one it was first requested from")
+    void testMaxPeersPerBlock() throws IOException {
+        PeerConnection first = connect();
+        requestAll(first);
+
+        PeerConnection second = connect();
+        PeerConnection third = connect();
+        PeerConnection fourth = connect();
+
+        assertEquals(2, endGame.request(second));
+        assertEquals(0, endGame.request(second), "A peer is asked for a block only once");
+        assertEquals(2, endGame.request(third));
+        assertEquals(0, endGame.request(fourth), "The first requester, second and third are asked already");
+
+        assertEquals(List.of(REQUEST, REQUEST), sent(second));
+        assertEquals(2, second.getRequestWindow()
+                .getOutstanding());
+        assertEquals(0, fourth.getPendingMessages());
+    }
+
+    @Test
+    @DisplayName("Should cancel a received block at every other peer and free their window slot")
+    void testCancelsDuplicates() throws IOException {
+        PeerConnection first = connect();
+        requestAll(first);
+        PeerConnection second = connect();
+        PeerConnection third = connect();
+        endGame.request(second);
+        endGame.request(third);
+        sent(second);
+        sent(third);
+
+        endGame.onBlockReceived(second, 0, BLOCK_SIZE, BLOCK_SIZE);
+
+        assertEquals(List.of(CANCEL), sent(first));
+        assertEquals(List.of(CANCEL), sent(third));
+        assertEquals(0, second.getPendingMessages(), "The peer that delivered the block is not cancelled");
+        assertEquals(1, third.getRequestWindow()
+                .getOutstanding(), "The cancelled request no longer takes up a slot");
+        assertEquals(2, second.getRequestWindow()
+                .getOutstanding(), "Receiving is accounted for by the caller, not by the end game");
+
+        endGame.onBlockReceived(third, 0, BLOCK_SIZE, BLOCK_SIZE);
+        assertEquals(0, first.getPendingMessages(), "A block is cancelled once");
+    }
+
+    @Test
+    @DisplayName("Should forget the duplicates of a reset piece")
+    void testPieceReset() throws IOException {
+        PeerConnection first = connect();
+        requestAll(first);
+        PeerConnection second = connect();
+        endGame.request(second);
+        sent(second);
+
+        endGame.onPieceReset(torrentFile, 0);
+        endGame.onBlockReceived(second, 0, 0, BLOCK_SIZE);
+
+        assertEquals(0, first.getPendingMessages(), "Nothing is left to cancel after the reset");
+        assertEquals(2, endGame.request(second), "The blocks are duplicated again from scratch");
+    }
+
+    private void requestAll(PeerConnection peer) {
+        PieceStorage piece = pieces.get(0);
+        assertTrue(pool.attach(piece));
+        while (piece.getNextBlock(peer) != null) {
+            // every block of the missing piece goes to the first peer
+        }
+        assertTrue(endGame.isActive(torrentFile));
+    }
+
+    /**
+     * @return a connection to a peer that has every piece, its messages are written to a loopback socket
+     */
+    private PeerConnection connect() throws IOException {
+        SocketChannel local = SocketChannel.open(server.getLocalAddress());
+        SocketChannel remote = server.accept();
+
+        BitSet bitField = new BitSet(pieces.size());
+        bitField.set(0, pieces.size());
+        PeerConnection connection = new PeerConnection(new Peer("10.0.0." + (remotes.size() + 1), 6881),
+                                                       torrentFile, local);
+        connection.setOwner(OWNER);
+        connection.setBitField(bitField);
+        remotes.put(connection, remote);
+        return connection;
+    }
+
+    /**
+     * Writes the queued messages of the peer and reads back their ids.
+     */
+    private List<Byte> sent(PeerConnection peer) throws IOException {
+        int messages = peer.getPendingMessages();
+        assertTrue(peer.flush());
+
+        // REQUEST and CANCEL share the same length
+        ByteBuffer buffer = ByteBuffer.allocate(messages * 17);
+        SocketChannel remote = remotes.get(peer);
+        while (buffer.hasRemaining()) {
+            remote.read(buffer);
+        }
+        buffer.flip();
+
+        List<Byte> ids = new ArrayList<>();
+        while (buffer.hasRemaining()) {
+            assertEquals(13, buffer.getInt());
+            ids.add(buffer.get());
+            buffer.position(buffer.position() + 12);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,128 @@
+package tasks;
+
+import core.PeerConnection;
+import core.bencode.TorrentFile;
+import core.bencode.TorrentFixtures;
+import core.network.Peer;
+import network.BufferPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import piece.PiecePicker;
+import storage.PieceStorage;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("ReadTaskWorker Tests")
+class ReadTaskWorkerTest {
+
+    private static final int PIECES = 64;
+    private static final byte HAVE = 4;
+
+    @TempDir
+    Path dir;
+
+    private TorrentFile torrentFile;
+    private final Map<PeerConnection, List<Integer>> haves = new ConcurrentHashMap<>();
+    private final Map<PeerConnection, List<String>> threads = new ConcurrentHashMap<>();
+    private ReadTaskWorker worker;
+
+    @BeforeEach
+    void setUp() {
+        torrentFile = TorrentFixtures.torrent(dir, List.of("udp://tracker.example:6969/announce"), 16 * 1024,
+                                              PIECES * 16 * 1024);
+        PiecePicker picker = new PiecePicker() {
+            @Override
+            public PieceStorage find(PeerConnection peerConnection) {
+                return null;
+            }
+
+            @Override
+            public void onBitField(PeerConnection peerConnection, BitSet pieces) {
+            }
+
+            @Override
+            public void onHave(PeerConnection peerConnection, int pieceIndex) {
+                haves.computeIfAbsent(peerConnection, p -> new CopyOnWriteArrayList<>())
+                        .add(pieceIndex);
+                threads.computeIfAbsent(peerConnection, p -> new CopyOnWriteArrayList<>())
+                        .add(Thread.currentThread()
+                                     .getName());
+            }
+
+            @Override
+            public void onDisconnect(PeerConnection peerConnection) {
+            }
+
+            @Override
+            public void onPieceReset(TorrentFile torrentFile, int pieceIndex) {
+            }
+        };
+        worker = new ReadTaskWorker(new DownloadScheduler(picker), 4);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        worker.stop();
+        torrentFile.getStorage()
+                .close();
+    }
+
+    @Test
+    @DisplayName("Should handle the messages of a peer in order on one lane, from copies of the frames")
+    void testOrderedPerPeer() throws Exception {
+        long inUse = BufferPool.shared()
+                .getInUse(BufferPool.SizeClass.CONTROL);
+        List<PeerConnection> peers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            peers.add(new PeerConnection(new Peer("10.0.0." + (i + 1), 6881), torrentFile, null));
+        }
+        worker.start();
+
+        // one read buffer, overwritten for every message as soon as it was queued
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        for (int piece = 0; piece < PIECES; piece++) {
+            for (PeerConnection peer : peers) {
+                buffer.clear();
+                buffer.put(7, new byte[]{0, 0, 0, 5, HAVE, 0, 0, 0, (byte) piece});
+                worker.addTask(peer, buffer, 7);
+            }
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (IntStream.of(worker.getBacklog())
+                .sum() > 0 || haves.values()
+                .stream()
+                .mapToInt(List::size)
+                .sum() < PIECES * peers.size() || BufferPool.shared()
+                .getInUse(BufferPool.SizeClass.CONTROL) != inUse) {
+            assertTrue(System.nanoTime() < deadline, "Every message should have been handled, its copy released");
+            Thread.sleep(5);
+        }
+
+        List<Integer> expected = IntStream.range(0, PIECES)
+                .boxed()
+                .toList();
+        for (PeerConnection peer : peers) {
+            assertEquals(expected, haves.get(peer));
+            assertEquals(1, threads.get(peer)
+                    .stream()
+                    .distinct()
+                    .count(), "A peer stays on its lane");
+        }
+    }
+}